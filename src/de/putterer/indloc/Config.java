@@ -2,6 +2,8 @@ package de.putterer.indloc;
 
 import de.putterer.indloc.activity.ActivityDetector;
 import de.putterer.indloc.csi.atheros.AthCSIInfo;
+import de.putterer.indloc.data.DataReceiver;
+import de.putterer.indloc.data.IngestQueue;
 import de.putterer.indloc.trilateration.SimpleTrilaterator;
 import de.putterer.indloc.trilateration.Trilaterator;
 import de.putterer.indloc.util.Vector;
@@ -26,6 +28,37 @@ public class Config {
 	
 	public static final Trilaterator TRILATERATOR = new SimpleTrilaterator();
 
+	// Received packets queued per station before processing, see IngestQueue
+	public static final int INGEST_QUEUE_CAPACITY = 128;
+	public static final IngestQueue.OverflowPolicy INGEST_OVERFLOW_POLICY = IngestQueue.OverflowPolicy.DROP_OLDEST;
+
+	// BATCH drains all available datagrams per wakeup and delivers them as DataInfo[] to BatchDataConsumers
+	public static final DataReceiver.ReceiveMode RECEIVE_MODE = DataReceiver.ReceiveMode.BLOCKING;
+	public static final int RECEIVE_MAX_BATCH_SIZE = 64;
+	public static final int RECEIVE_MAX_BATCH_LATENCY_MS = 5; // maximum time a packet is held back to fill a batch
+
+	// Subscription retries back off exponentially, subscriptions without packets for the stale interval are renewed (0 disables)
+	// the interval has to cover the quietest stations, it doubles for stations staying silent after being renewed
+	public static final long SUBSCRIPTION_RETRY_INITIAL_DELAY_MS = 500;
+	public static final long SUBSCRIPTION_RETRY_MAX_DELAY_MS = 8000;
+	public static final int SUBSCRIPTION_TIMEOUT_ATTEMPTS = 6;
+	public static final long SUBSCRIPTION_STALE_INTERVAL_MS = 30_000;
+
+	// Number of receiving sockets and threads, stations are distributed over them by address
+	public static final int RECEIVE_SHARDS = 1;
+	public static final DataReceiver.ShardingMode RECEIVE_SHARDING_MODE = DataReceiver.ShardingMode.PORT_PER_SHARD;
+
+	// Recordings are segmented binary logs per station, a new segment is started once either limit is reached
+	public static final long RECORDING_SEGMENT_MAX_BYTES = 64L * 1024 * 1024;
+	public static final long RECORDING_SEGMENT_MAX_DURATION_MS = 10 * 60 * 1000;
+	// Records are written on a background thread, records exceeding the queue capacity are dropped
+	public static final int RECORDING_QUEUE_CAPACITY = 8192;
+	public static final long RECORDING_FLUSH_INTERVAL_MS = 1000;
+
+	// Use the vectorized csi kernels if the jdk.incubator.vector module has been added (--add-modules jdk.incubator.vector)
+	// they approximate phases within 1e-5 rad, see VectorPlaneKernels
+	public static final boolean USE_VECTOR_KERNELS = false;
+
 	public static final String STATION_5_MAC = "90:f6:52:4e:c5:ba"; // WR2543ND
 	public static final String STATION_6_MAC = "f8:d1:11:cf:0d:9c"; // WR2543ND
 	public static final String STATION_7_MAC = "90:f6:52:4e:b8:5c"; // WR2543ND
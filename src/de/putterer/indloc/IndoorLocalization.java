@@ -3,6 +3,7 @@ package de.putterer.indloc;
 import de.putterer.indloc.csi.CSIRecording;
 import de.putterer.indloc.csi.CSIReplay;
 import de.putterer.indloc.csi.CSITesting;
+import de.putterer.indloc.data.simulator.CsiServerSimulator;
 import de.putterer.indloc.rssi.RSSITrilateration;
 import de.putterer.indloc.util.ArgumentParser;
 import de.putterer.indloc.util.Logger;
@@ -17,7 +18,7 @@ import java.util.Map;
 
 public class IndoorLocalization {
 
-    public static void main(String args[]) throws IOException, ClassNotFoundException {
+    public static void main(String args[]) throws IOException, ClassNotFoundException, InterruptedException {
         if(args.length == 0) {
             help();
             return;
@@ -67,6 +68,10 @@ public class IndoorLocalization {
         if(cmd.equals("uidemo")) {
             IndLocUserInterface.main(new String[]{});
         }
+
+        if(cmd.equals("simulate")) {
+            CsiServerSimulator.main(Arrays.copyOfRange(args, 1, args.length));
+        }
     }
 
     private static void help() {
@@ -85,7 +90,8 @@ public class IndoorLocalization {
                 "   (--previewTX [antennas])        number of tx antennas to show in the previews (default: 1)\n\n" +
                 "csitesting (--room [room])         starts the csi testing application\n" +
                 "rssitri (--room [room])            starts trilateration based on rssi\n" +
-                "uidemo (--room [room])             opens a test window of the trilateration user interface");
+                "uidemo (--room [room])             opens a test window of the trilateration user interface\n" +
+                "simulate (--help)                  runs simulated csi servers on loopback addresses for load testing");
     }
 
 }
@@ -1,6 +1,7 @@
 package de.putterer.indloc.acceleration;
 
 import de.putterer.indloc.csi.CSIInfo;
+import de.putterer.indloc.csi.CSIRingBuffer;
 import de.putterer.indloc.csi.atheros.AthCSIInfo;
 import de.putterer.indloc.csi.calibration.AndroidInfo;
 import de.putterer.indloc.csi.intel.IntCSIInfo;
@@ -43,7 +44,9 @@ public class PeriodicityDetector {
     private int subcarrier = 50;
     private Instant lastSubcarrierSelection = Instant.now().minus(SUBCARRIER_SELECTION_INTERVAL);
 
-    private final List<DataInfo> history = new LinkedList<>();
+    private final List<DataInfo> history = new LinkedList<>(); // non csi data
+    private CSIRingBuffer csiHistory = null;
+    private Class<?> dataType = null;
 
     public PeriodicityDetector(double samplingFrequency, Duration slidingWindowDuration, Duration truncatedMeanWindowDuration, double truncatedMeanWindowPct) {
         this.samplingFrequency = samplingFrequency;
@@ -55,17 +58,29 @@ public class PeriodicityDetector {
     }
 
     public void onData(DataInfo info) {
-        if(! history.stream().allMatch(i -> i.getClass() == info.getClass())) {
+        if(dataType != null && dataType != info.getClass()) {
             throw new RuntimeException("Received data info of wrong type");
         }
-        synchronized (history) {
-            history.add(info);
-            while(history.size() > slidingWindowSize) {
-                history.remove(0);
+        dataType = info.getClass();
+
+        int size;
+        if(info instanceof CSIInfo) {
+            if(csiHistory == null || ! csiHistory.fits((CSIInfo) info)) {
+                csiHistory = CSIRingBuffer.forFrame(Math.max(1, slidingWindowSize), (CSIInfo) info);
+            }
+            csiHistory.add((CSIInfo) info);
+            size = csiHistory.size();
+        } else {
+            synchronized (history) {
+                history.add(info);
+                while(history.size() > slidingWindowSize) {
+                    history.remove(0);
+                }
+                size = history.size();
             }
         }
 
-        if(history.size() != slidingWindowSize) {
+        if(size != slidingWindowSize) {
             return;
         }
 
@@ -80,7 +95,7 @@ public class PeriodicityDetector {
                     RespiratoryPhaseProcessor.selectCarrier(
                             RespiratoryPhaseProcessor.process(
                                     0, 2, 0,
-                                    history,
+                                    csiHistory.window(),
                                     truncatedMeanWindowSize,
                                     truncatedMeanWindowPct
                             ),
@@ -104,7 +119,7 @@ public class PeriodicityDetector {
             int rx = 0, tx = 0;
             int subcarrier = 25;
 
-            double[] originalSignal = history.stream().mapToDouble(d -> ((CSIInfo)d).getCsi_matrix()[rx][tx][subcarrier].getAmplitude()).toArray();
+            double[] originalSignal = csiHistory.window().series(rx, tx, subcarrier).amplitudes();
 
             double mean = Arrays.stream(originalSignal).average().orElse(0.0);
             signalData = Arrays.stream(originalSignal).map(d -> d - mean).toArray();
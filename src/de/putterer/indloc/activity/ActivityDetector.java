@@ -1,12 +1,11 @@
 package de.putterer.indloc.activity;
 
 import de.putterer.indloc.csi.CSIInfo;
+import de.putterer.indloc.csi.CSIRingBuffer;
 import de.putterer.indloc.util.CSIUtil;
 import lombok.Getter;
 
 import java.util.Arrays;
-import java.util.LinkedList;
-import java.util.List;
 
 import static de.putterer.indloc.util.CSIUtil.mean;
 import static de.putterer.indloc.util.Util.square;
@@ -18,33 +17,46 @@ public class ActivityDetector {
     private static final int CSI_ACTIVITY_ANTENNA_RX1 = 0;
     private static final int CSI_ACTIVITY_ANTENNA_RX2 = 2;
 
-    private final List<CSIInfo> csiHistory = new LinkedList<>();
+    private CSIRingBuffer csiHistory = null;
+    private double[][] phaseDiffHistory = null; // [slot][subcarrier], phase difference between the rx antennas, same slots as csiHistory
     @Getter
     private double[] variancePerSubcarrier = null;
 
     private final double[][] previousPhaseMean = new double[3][3];
 
     public void onCsiInfo(CSIInfo csi) {
-        //TODO: only save phase-> allows processing?
-        csiHistory.add(csi);
-        while(csiHistory.size() > CSI_ACTIVITY_HISTORY_LENGTH) {
-            csiHistory.remove(0);
+        if(csiHistory == null || ! csiHistory.fits(csi)) {
+            csiHistory = CSIRingBuffer.forFrame(CSI_ACTIVITY_HISTORY_LENGTH, csi);
+            phaseDiffHistory = new double[CSI_ACTIVITY_HISTORY_LENGTH][csiHistory.getTones()];
         }
+        csiHistory.add(csi);
 
-        int subcarriers = csi.getNumTones();
+        int subcarriers = Math.min(csi.getNumTones(), csiHistory.getTones());
         variancePerSubcarrier = new double[subcarriers];
+        if(CSI_ACTIVITY_ANTENNA_RX2 >= csiHistory.getRxAntennas()) {
+            return;
+        }
+
+        // only the phases of the new frame are computed, the differences of older frames are kept
+        CSIRingBuffer.Window window = csiHistory.window();
+        int newest = window.size() - 1;
+        double[] newPhaseDiff = phaseDiffHistory[(int) ((csiHistory.getFramesWritten() - 1) % CSI_ACTIVITY_HISTORY_LENGTH)];
+        for(int i = 0;i < newPhaseDiff.length;i++) {
+            newPhaseDiff[i] = window.getPhase(newest, CSI_ACTIVITY_ANTENNA_RX1, CSI_ACTIVITY_ANTENNA_TX, i)
+                    - window.getPhase(newest, CSI_ACTIVITY_ANTENNA_RX2, CSI_ACTIVITY_ANTENNA_TX, i);
+        }
 
+        int firstSlot = (int) ((csiHistory.getFramesWritten() - window.size()) % CSI_ACTIVITY_HISTORY_LENGTH);
+        double[] phaseDiff = new double[window.size()];
         for(int i = 0;i < subcarriers;i++) {
-            int finalI = i;
-            double[] phaseDiff = csiHistory.stream().mapToDouble(
-                    c -> c.getCsi_matrix()[CSI_ACTIVITY_ANTENNA_RX1][CSI_ACTIVITY_ANTENNA_TX][finalI].getPhase()
-                            - c.getCsi_matrix()[CSI_ACTIVITY_ANTENNA_RX2][CSI_ACTIVITY_ANTENNA_TX][finalI].getPhase())
-                    .toArray();
+            for(int t = 0;t < phaseDiff.length;t++) {
+                phaseDiff[t] = phaseDiffHistory[(firstSlot + t) % CSI_ACTIVITY_HISTORY_LENGTH][i];
+            }
 
             CSIUtil.unwrapPhase(phaseDiff);
 
             double mean = mean(phaseDiff);
-            double variance = Arrays.stream(phaseDiff).map(diff -> square(CSIUtil.bound(diff - mean))).sum() / (double)csiHistory.size();
+            double variance = Arrays.stream(phaseDiff).map(diff -> square(CSIUtil.bound(diff - mean))).sum() / (double)window.size();
 
             variancePerSubcarrier[i] = variance;
         }
@@ -1,9 +1,11 @@
 package de.putterer.indloc.csi;
 
 import de.putterer.indloc.data.DataInfo;
+import de.putterer.indloc.util.PlaneKernels;
 import lombok.*;
 
 import java.io.Serializable;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * Represents a CSIInfo object as sent by a station
@@ -14,15 +16,195 @@ import java.io.Serializable;
 public abstract class CSIInfo extends DataInfo implements Serializable {
 	private static final transient long serialVersionUID = 979206976253508405L;
 
-	protected Complex[][][] csi_matrix = new Complex[3][3][114]; // [rx][tx][sc]
+	protected volatile CSIMatrix csi;
+
+	// only set when reading recordings made before the flat storage, converted on first access
+	@Getter(AccessLevel.NONE)
+	@EqualsAndHashCode.Exclude
+	private Complex[][][] csi_matrix; // [rx][tx][sc]
+
+	@Getter(AccessLevel.NONE)
+	@Setter(AccessLevel.NONE)
+	@EqualsAndHashCode.Exclude
+	private transient volatile Complex[][][] complexMatrix;
+
+	// derived planes in the order of the flat matrix, computed on first request and shared by all consumers
+	@Getter(AccessLevel.NONE)
+	@Setter(AccessLevel.NONE)
+	@EqualsAndHashCode.Exclude
+	private transient volatile double[] amplitudes;
+	@Getter(AccessLevel.NONE)
+	@Setter(AccessLevel.NONE)
+	@EqualsAndHashCode.Exclude
+	private transient volatile double[] phases;
+
+	private static final LongAdder computedPlanes = new LongAdder();
+	private static final LongAdder cachedPlanes = new LongAdder();
 
 	public CSIInfo(long clientTimestamp, int messageId) {
 		super(clientTimestamp, messageId);
 	}
 
-	public CSIInfo(long clientTimestamp, int messageId, Complex[][][] csi_matrix) {
+	public CSIInfo(long clientTimestamp, int messageId, CSIMatrix csi) {
 		super(clientTimestamp, messageId);
-		this.csi_matrix = csi_matrix;
+		this.csi = csi;
+	}
+
+	/**
+	 * @return the flat csi matrix
+	 */
+	public CSIMatrix getCsi() {
+		CSIMatrix matrix = csi;
+		if(matrix == null && csi_matrix != null) {
+			synchronized (this) {
+				if(csi == null) {
+					csi = CSIMatrix.fromComplexArray(csi_matrix, CSIMatrix.PADDED_ANTENNAS, CSIMatrix.PADDED_ANTENNAS, getNumTones());
+					csi_matrix = null;
+				}
+				matrix = csi;
+			}
+		}
+		return matrix;
+	}
+
+	public void setCsi(CSIMatrix csi) {
+		this.csi = csi;
+		this.csi_matrix = null;
+		this.complexMatrix = null;
+		this.amplitudes = null;
+		this.phases = null;
+	}
+
+	/**
+	 * compatibility view of the flat matrix, created on first access
+	 * changes to the returned array are not written back, use setCsi_matrix
+	 * @return the csi matrix, padded with zeros to at least [3][3][114]
+	 */
+	public Complex[][][] getCsi_matrix() {
+		Complex[][][] matrix = complexMatrix;
+		if(matrix == null) {
+			matrix = getCsi().toComplexArray();
+			complexMatrix = matrix;
+		}
+		return matrix;
+	}
+
+	public void setCsi_matrix(Complex[][][] csi_matrix) {
+		setCsi(CSIMatrix.fromComplexArray(csi_matrix, CSIMatrix.PADDED_ANTENNAS, CSIMatrix.PADDED_ANTENNAS, getNumTones()));
+	}
+
+	/**
+	 * the amplitude of every entry, indexed like the flat matrix
+	 * the returned array is shared and must not be modified
+	 * @return the amplitude plane, computed on the first request
+	 */
+	public double[] getAmplitudePlane() {
+		double[] plane = amplitudes;
+		if(plane != null) {
+			cachedPlanes.increment();
+			return plane;
+		}
+		return computeAmplitudePlane();
+	}
+
+	private synchronized double[] computeAmplitudePlane() {
+		if(amplitudes == null) {
+			CSIMatrix matrix = getCsi();
+			int[] real = matrix.getReal();
+			int[] imag = matrix.getImag();
+			double[] plane = new double[real.length];
+			PlaneKernels.getInstance().amplitudes(real, imag, 0, plane, plane.length);
+			amplitudes = plane;
+			computedPlanes.increment();
+		}
+		return amplitudes;
+	}
+
+	/**
+	 * the phase of every entry in [0, 2pi), indexed like the flat matrix
+	 * approximated within VectorPlaneKernels.ATAN_MAX_ERROR if the vectorized kernels are enabled
+	 * the returned array is shared and must not be modified
+	 * @return the phase plane, computed on the first request
+	 */
+	public double[] getPhasePlane() {
+		double[] plane = phases;
+		if(plane != null) {
+			cachedPlanes.increment();
+			return plane;
+		}
+		return computePhasePlane();
+	}
+
+	private synchronized double[] computePhasePlane() {
+		if(phases == null) {
+			CSIMatrix matrix = getCsi();
+			int[] real = matrix.getReal();
+			int[] imag = matrix.getImag();
+			double[] plane = new double[real.length];
+			PlaneKernels.getInstance().phases(real, imag, 0, plane, plane.length);
+			phases = plane;
+			computedPlanes.increment();
+		}
+		return phases;
+	}
+
+	/**
+	 * @return the amplitude of the given entry, 0 outside of the matrix like in the padded csi_matrix
+	 */
+	public double getAmplitude(int rx, int tx, int sc) {
+		CSIMatrix matrix = getCsi();
+		if(! matrix.contains(rx, tx, sc)) {
+			return 0.0;
+		}
+		double[] plane = amplitudes;
+		return (plane != null ? plane : computeAmplitudePlane())[matrix.index(rx, tx, sc)];
+	}
+
+	/**
+	 * @return the phase of the given entry, 0 outside of the matrix like in the padded csi_matrix
+	 */
+	public double getPhase(int rx, int tx, int sc) {
+		CSIMatrix matrix = getCsi();
+		if(! matrix.contains(rx, tx, sc)) {
+			return 0.0;
+		}
+		double[] plane = phases;
+		return (plane != null ? plane : computePhasePlane())[matrix.index(rx, tx, sc)];
+	}
+
+	/**
+	 * @return a copy of the phases of all tones of the given antenna pair, e.g. for unwrapping
+	 */
+	public double[] getPhases(int rx, int tx) {
+		double[] result = new double[getNumTones()];
+		CSIMatrix matrix = getCsi();
+		if(matrix.contains(rx, tx, 0)) {
+			System.arraycopy(getPhasePlane(), matrix.index(rx, tx, 0), result, 0, Math.min(result.length, matrix.getTones()));
+		}
+		return result;
+	}
+
+	/**
+	 * @return the given entry, 0 outside of the matrix like in the padded csi_matrix
+	 */
+	public Complex getComplex(int rx, int tx, int sc) {
+		CSIMatrix matrix = getCsi();
+		return matrix.contains(rx, tx, sc) ? matrix.get(rx, tx, sc) : new Complex(0, 0);
+	}
+
+	/**
+	 * @return how often an amplitude or phase plane has been computed, over all csi infos
+	 */
+	public static long getComputedPlanes() {
+		return computedPlanes.sum();
+	}
+
+	/**
+	 * @return how often getAmplitudePlane or getPhasePlane returned an already computed plane, over all csi infos
+	 * single entry accessors aren't counted
+	 */
+	public static long getCachedPlanes() {
+		return cachedPlanes.sum();
 	}
 
 	public abstract CSIInfo clone(Complex[][][] newCsiMatrix);
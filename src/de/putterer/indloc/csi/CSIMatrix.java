@@ -0,0 +1,145 @@
+package de.putterer.indloc.csi;
+
+import de.putterer.indloc.csi.CSIInfo.Complex;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+
+import java.io.Serializable;
+
+/**
+ * A csi matrix stored as flat arrays of real and imaginary parts, sized to the actual number of antennas and tones
+ * Values are stored in [rx][tx][sc] order, see index
+ */
+@Getter
+@EqualsAndHashCode
+public class CSIMatrix implements Serializable {
+	private static final long serialVersionUID = 2380528717651846151L;
+
+	// dimensions of the matrix returned by toComplexArray, as used before the flat storage
+	public static final int PADDED_ANTENNAS = 3;
+	public static final int PADDED_TONES = 114;
+
+	private final int rxAntennas;
+	private final int txAntennas;
+	private final int tones;
+	private final int[] real;
+	private final int[] imag;
+
+	public CSIMatrix(int rxAntennas, int txAntennas, int tones) {
+		this.rxAntennas = rxAntennas;
+		this.txAntennas = txAntennas;
+		this.tones = tones;
+		this.real = new int[rxAntennas * txAntennas * tones];
+		this.imag = new int[rxAntennas * txAntennas * tones];
+	}
+
+	/**
+	 * @return the position of the given entry in the real and imag arrays
+	 */
+	public int index(int rx, int tx, int sc) {
+		return (rx * txAntennas + tx) * tones + sc;
+	}
+
+	/**
+	 * @return whether the given entry is part of the matrix, e.g. false for the third rx antenna of a single antenna station
+	 */
+	public boolean contains(int rx, int tx, int sc) {
+		return rx >= 0 && rx < rxAntennas && tx >= 0 && tx < txAntennas && sc >= 0 && sc < tones;
+	}
+
+	public int size() {
+		return real.length;
+	}
+
+	public int getReal(int rx, int tx, int sc) {
+		return real[index(rx, tx, sc)];
+	}
+
+	public int getImag(int rx, int tx, int sc) {
+		return imag[index(rx, tx, sc)];
+	}
+
+	public void set(int rx, int tx, int sc, int real, int imag) {
+		int i = index(rx, tx, sc);
+		this.real[i] = real;
+		this.imag[i] = imag;
+	}
+
+	/**
+	 * @return the amplitude of the given entry, see Complex.getAmplitude
+	 */
+	public double getAmplitude(int rx, int tx, int sc) {
+		int i = index(rx, tx, sc);
+		return Math.sqrt(real[i] * real[i] + imag[i] * imag[i]);
+	}
+
+	/**
+	 * @return the phase of the given entry in [0, 2pi), see Complex.getPhase
+	 */
+	public double getPhase(int rx, int tx, int sc) {
+		int i = index(rx, tx, sc);
+		double angle = Math.atan2(imag[i], real[i]);
+		if(angle < 0) {
+			angle += Math.PI * 2;
+		}
+		return angle;
+	}
+
+	public Complex get(int rx, int tx, int sc) {
+		int i = index(rx, tx, sc);
+		return new Complex(real[i], imag[i]);
+	}
+
+	/**
+	 * scales every entry, rounding each value like Complex.scale
+	 * @param s the factor
+	 */
+	public void scale(double s) {
+		for(int i = 0;i < real.length;i++) {
+			real[i] = (int) Math.round(real[i] * s);
+			imag[i] = (int) Math.round(imag[i] * s);
+		}
+	}
+
+	/**
+	 * @return the matrix as complex objects, padded with zeros to at least [3][3][114]
+	 */
+	public Complex[][][] toComplexArray() {
+		Complex[][][] matrix = new Complex[Math.max(rxAntennas, PADDED_ANTENNAS)][Math.max(txAntennas, PADDED_ANTENNAS)][Math.max(tones, PADDED_TONES)];
+		for(int rx = 0;rx < matrix.length;rx++) {
+			for(int tx = 0;tx < matrix[rx].length;tx++) {
+				for(int sc = 0;sc < matrix[rx][tx].length;sc++) {
+					if(rx < rxAntennas && tx < txAntennas && sc < tones) {
+						matrix[rx][tx][sc] = get(rx, tx, sc);
+					} else {
+						matrix[rx][tx][sc] = new Complex(0, 0);
+					}
+				}
+			}
+		}
+		return matrix;
+	}
+
+	/**
+	 * converts a matrix of complex objects, missing entries are treated as zero
+	 * @param matrix the matrix in [rx][tx][sc] order
+	 * @param rxAntennas the number of rx antennas to take
+	 * @param txAntennas the number of tx antennas to take
+	 * @param tones the number of tones to take
+	 * @return the flat matrix
+	 */
+	public static CSIMatrix fromComplexArray(Complex[][][] matrix, int rxAntennas, int txAntennas, int tones) {
+		CSIMatrix result = new CSIMatrix(rxAntennas, txAntennas, tones);
+		for(int rx = 0;rx < Math.min(rxAntennas, matrix.length);rx++) {
+			for(int tx = 0;tx < Math.min(txAntennas, matrix[rx].length);tx++) {
+				for(int sc = 0;sc < Math.min(tones, matrix[rx][tx].length);sc++) {
+					Complex value = matrix[rx][tx][sc];
+					if(value != null) {
+						result.set(rx, tx, sc, value.getReal(), value.getImag());
+					}
+				}
+			}
+		}
+		return result;
+	}
+}
@@ -8,18 +8,24 @@ import de.putterer.indloc.data.DataClient;
 import de.putterer.indloc.data.DataConsumer;
 import de.putterer.indloc.util.FileUtils;
 import de.putterer.indloc.util.Logger;
+import de.putterer.indloc.util.serialization.RecordCodec;
+import de.putterer.indloc.util.serialization.RecordingQueue;
 import de.putterer.indloc.util.serialization.Serialization;
 
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * Records incoming CSI from a CSI client
  */
 public class CSIRecording {
 	public static int recordedPackets = 0;
+	private static final List<RecordingQueue.Recording> recordings = new ArrayList<>();
+	private static final RecordingQueue queue = new RecordingQueue();
 
 	public static void main(String args[]) {
 		if(args.length == 0) {
@@ -68,18 +74,19 @@ public class CSIRecording {
 
 		recordedPackets = 0;
 		for(Station station : Config.ROOM.getStations()) {
+			RecordingQueue.Recording recording = queue.open(folder, station.getHW_ADDRESS(), RecordCodec.forType(station.getDataType()));
+			recordings.add(recording);
 			DataClient.addClient(new DataClient(station, subscriptionOptions, new DataConsumer<CSIInfo>(CSIInfo.class, csiInfo -> {
-				try {
-					Serialization.save(folder.resolve(station.getHW_ADDRESS() + "-" + csiInfo.getMessageId() + ".csi.deflate"), csiInfo);
-				} catch (IOException e) {
-					Logger.error("Couldn't save CSI from %s", station.getIP_ADDRESS());
-					e.printStackTrace();
+				if(! queue.offer(recording, csiInfo)) {
+					Logger.warn("Recording queue full, dropped message %d from %s", csiInfo.getMessageId(), station.getIP_ADDRESS());
 				}
 				preview.setData(csiInfo);
 				Logger.debug("Recorded message %d", csiInfo.getMessageId());
 
 				if(recordedPackets++ >= packetLimit) {
 					Logger.info("Captured %d packets, terminating.", recordedPackets);
+					saveSequenceStatistics(folder);
+					closeWriters();
 					System.exit(0);
 				}
 			})));
@@ -88,4 +95,24 @@ public class CSIRecording {
 		
 		Logger.info("Recording CSI ...");
 	}
+
+	/**
+	 * closes all recordings once the queued records have been written
+	 */
+	private static void closeWriters() {
+		recordings.forEach(queue::close);
+		queue.shutdown(10_000);
+		Logger.info("Recorded %d packets, %d dropped, write latency avg %.1f us, max %.1f us",
+				queue.getWrittenRecords(), queue.getDroppedRecords(), queue.getAverageWriteLatencyMicros(), queue.getMaxWriteLatencyMicros());
+	}
+
+	private static void saveSequenceStatistics(Path folder) {
+		for(DataClient client : DataClient.getClients()) {
+			try {
+				Serialization.serialize(CSIReplay.getSequenceStatisticsFile(folder, client.getStation()), false, client.getSequenceTracker().getStatistics());
+			} catch (IOException e) {
+				Logger.error("Couldn't save sequence statistics of %s", client.getStation().getIP_ADDRESS());
+			}
+		}
+	}
 }
@@ -4,11 +4,12 @@ import de.putterer.indloc.Config;
 import de.putterer.indloc.Station;
 import de.putterer.indloc.csi.calibration.PhaseOffset;
 import de.putterer.indloc.data.DataInfo;
+import de.putterer.indloc.data.SequenceTracker;
 import de.putterer.indloc.spotfi.Spotfi;
 import de.putterer.indloc.util.Logger;
+import de.putterer.indloc.util.serialization.MappedRecording;
 import de.putterer.indloc.util.serialization.Serialization;
 import lombok.Getter;
-import lombok.val;
 
 import java.io.IOException;
 import java.nio.file.Files;
@@ -34,19 +35,20 @@ import static de.putterer.indloc.csi.DataPreview.SubcarrierPropertyPreview.Prope
 public class CSIReplay {
 
     private static final String RECORDED_DATA_PATTERN = "%s-\\d+\\.((csi)|(ecg)|(accel))(\\.deflate)?";
+    private static final String SEQUENCE_STATISTICS_EXTENSION = ".seq";
     private static final ExecutorService pool = Executors.newFixedThreadPool(4);
 
     @Getter
     private final CompletableFuture<?> completedFuture = new CompletableFuture<>();
-    private final Map<DataInfo, String> stationByData = new HashMap<>();
 
     private final Map<Station, Consumer<DataInfo[]>> callbacks = new HashMap<>();
     @Getter
     private final Config.RoomConfig room;
 
     private final List<Runnable> statusUpdateCallbacks = new ArrayList<>();
+    private final Map<Station, SequenceTracker.Statistics> sequenceStatistics = new HashMap<>();
 
-    private final List<DataInfo> data;
+    private final ReplayDataSource data;
     private final int groupThreshold; // the number of DataInfos to group before releasing them combined
     private int loadingProgress = 0;
 
@@ -59,7 +61,8 @@ public class CSIReplay {
 
     @Getter
     private Instant currentReplayTime;
-    private final List<DataInfo> nextData = new ArrayList<>();
+    private final Object replayLock = new Object();
+    private int nextIndex = 0; // the next record to be released, guarded by replayLock
 
     @Getter
     private boolean replayPaused;
@@ -82,8 +85,22 @@ public class CSIReplay {
 
         room = Serialization.deserialize(folder.resolve("room.cfg"), Config.RoomConfig.class);
 
-        final ArrayList<DataInfo> allData = new ArrayList<>();
+        List<Station> stations = new ArrayList<>();
+        List<ReplayDataSource.Track> tracks = new ArrayList<>();
         for(Station station : room.getStations()) {
+            // binary recording, mapped and decoded lazily, see RecordingWriter
+            MappedRecording recording = Serialization.mapRecording(folder, station.getHW_ADDRESS());
+            if(recording == null) {
+                recording = Serialization.mapRecording(folder, station.getIP_ADDRESS());
+            }
+            if(recording != null) {
+                stations.add(station);
+                tracks.add(recording);
+                sequenceStatistics.put(station, loadSequenceStatistics(folder, station, recording));
+                continue;
+            }
+
+            // recordings with one file per packet
             List<Path> matchingFiles = Files.list(folder)
                     .filter(p ->
                             Pattern.compile(String.format(RECORDED_DATA_PATTERN, station.getHW_ADDRESS())).matcher(p.toFile().getName()).matches()
@@ -92,7 +109,7 @@ public class CSIReplay {
 
             loadingProgress = 0;
             progressCallback.accept(0.0);
-            matchingFiles.stream()
+            List<DataInfo> stationData = matchingFiles.stream()
                     .map(p -> {
                         loadingProgress++;
                         progressCallback.accept((double)loadingProgress / matchingFiles.size());
@@ -106,15 +123,17 @@ public class CSIReplay {
                     })
                     .filter(Objects::nonNull)
                     .flatMap(Arrays::stream)
-                    .forEach(data -> {
-                        allData.add(data);
-                        stationByData.put(data, station.getHW_ADDRESS());
-                    });
+                    .collect(Collectors.toList());
+
+            ReplayDataSource.MemoryTrack track = new ReplayDataSource.MemoryTrack(stationData);
+            stations.add(station);
+            tracks.add(track);
+            sequenceStatistics.put(station, loadSequenceStatistics(folder, station, track));
         }
-        this.data = Collections.unmodifiableList(allData);
+        this.data = new ReplayDataSource(stations, tracks);
 
-        startTime = Instant.ofEpochMilli(data.stream().mapToLong(DataInfo::getClientTimestamp).min().orElse(0));
-        endTime = Instant.ofEpochMilli(data.stream().mapToLong(DataInfo::getClientTimestamp).max().orElse(0));
+        startTime = Instant.ofEpochMilli(data.size() == 0 ? 0 : data.getTimestamp(0));
+        endTime = Instant.ofEpochMilli(data.size() == 0 ? 0 : data.getTimestamp(data.size() - 1));
         totalRuntime = Duration.between(startTime, endTime);
 
         setReplayPosition(startTime);
@@ -122,6 +141,79 @@ public class CSIReplay {
         Logger.debug("Replay loaded, %d packets...", data.size());
     }
 
+    /**
+     * loads the sequence statistics stored with the recording,
+     * older recordings don't contain them and are analyzed from the recorded message ids instead
+     * missing packets dropped before the first and after the last recorded one can't be detected that way
+     * @param track the records of the station, ordered by timestamp
+     */
+    private static SequenceTracker.Statistics loadSequenceStatistics(Path folder, Station station, ReplayDataSource.Track track) {
+        Path file = getSequenceStatisticsFile(folder, station);
+        SequenceTracker.Statistics statistics = null;
+        if(Files.exists(file)) {
+            try {
+                statistics = Serialization.deserialize(file, SequenceTracker.Statistics.class);
+            } catch(IOException e) {
+                Logger.error("Could not read sequence statistics of %s", station.getHW_ADDRESS());
+            }
+        }
+        if(statistics == null) {
+            // only the message ids are read, the records aren't decoded
+            SequenceTracker tracker = new SequenceTracker();
+            for(int i = 0;i < track.size();i++) {
+                tracker.onMessage(track.getMessageId(i), track.getTimestamp(i));
+            }
+            statistics = tracker.getStatistics();
+        }
+
+        if(statistics.getGapCount() > 0) {
+            Logger.info("Station %s: %d packets lost in %d gaps, loss rate %.2f%%", station.getHW_ADDRESS(),
+                    statistics.getLostPackets(), statistics.getGapCount(), statistics.getLossRate() * 100.0);
+        }
+        return statistics;
+    }
+
+    /**
+     * @param folder the recording
+     * @param station the recorded station
+     * @return the file holding the loss statistics of the station
+     */
+    public static Path getSequenceStatisticsFile(Path folder, Station station) {
+        return getSequenceStatisticsFile(folder, station.getHW_ADDRESS());
+    }
+
+    /**
+     * @param folder the recording
+     * @param station the hardware address of the recorded station
+     * @return the file holding the loss statistics of the station
+     */
+    public static Path getSequenceStatisticsFile(Path folder, String station) {
+        return folder.resolve(station + SEQUENCE_STATISTICS_EXTENSION);
+    }
+
+    /**
+     * @param station a station of the recording
+     * @return the loss statistics and gaps of the station during the recording
+     */
+    public SequenceTracker.Statistics getSequenceStatistics(Station station) {
+        return sequenceStatistics.get(station);
+    }
+
+    /**
+     * @return the gaps of all stations that occurred before the current replay time
+     */
+    public int getNumberOfPastGaps() {
+        long currentTimestamp = currentReplayTime.toEpochMilli();
+        return (int) sequenceStatistics.values().stream()
+                .flatMap(s -> Arrays.stream(s.getGaps()))
+                .filter(g -> g.getClientTimestamp() < currentTimestamp)
+                .count();
+    }
+
+    public int getTotalNumberOfGaps() {
+        return sequenceStatistics.values().stream().mapToInt(s -> s.getGaps().length).sum();
+    }
+
     /**
      * Adds a callback to be informed once a CSIInfo is to be released
      * @param station the station this callback is listening for
@@ -134,12 +226,8 @@ public class CSIReplay {
     public void setReplayPosition(Instant time) {
         currentReplayTime = time;
 
-        synchronized (nextData) {
-            nextData.clear();
-            data.stream()
-                    .filter(c -> ! c.getClientInstant().isBefore(time))
-                    .sorted(Comparator.comparingLong(DataInfo::getClientTimestamp))
-                    .forEach(nextData::add);
+        synchronized (replayLock) {
+            nextIndex = data.indexOf(time.toEpochMilli());
         }
 
         postNearestData(time);
@@ -152,21 +240,13 @@ public class CSIReplay {
     }
 
     public void stepBackward() {
-        setReplayPosition(data.stream()
-                .filter(c -> c.getClientInstant().isBefore(currentReplayTime))
-                .max(Comparator.comparingLong(DataInfo::getClientTimestamp))
-                .map(DataInfo::getClientInstant)
-                .orElse(startTime)
-        );
+        int previous = data.indexOf(currentReplayTime.toEpochMilli()) - 1;
+        setReplayPosition(previous >= 0 ? Instant.ofEpochMilli(data.getTimestamp(previous)) : startTime);
     }
 
     public void stepForward() {
-        setReplayPosition(data.stream()
-                .filter(c -> c.getClientInstant().isAfter(currentReplayTime))
-                .min(Comparator.comparingLong(DataInfo::getClientTimestamp))
-                .map(DataInfo::getClientInstant)
-                .orElse(endTime)
-        );
+        int next = data.indexOf(currentReplayTime.toEpochMilli() + 1);
+        setReplayPosition(next < data.size() ? Instant.ofEpochMilli(data.getTimestamp(next)) : endTime);
     }
 
     public void setReplayPaused(boolean replayPaused) {
@@ -177,14 +257,15 @@ public class CSIReplay {
     }
 
     /**
-     * runs the replay
+     * runs the replay, records are decoded once the replay time reaches them
      */
     private void replayThread() {
         Logger.debug("Starting replay thread");
-        List<DataInfo> groupingList = new LinkedList<>();
+        List<DataInfo> groupingList = new ArrayList<>();
+        Station groupStation = null;
 
         Instant currentRealTime = Instant.now();
-        while(!replayPaused && ! nextData.isEmpty()) {
+        while(!replayPaused && nextIndex < data.size()) {
             Duration realTimeDelta = Duration.between(currentRealTime, Instant.now());
             currentRealTime = currentRealTime.plus(realTimeDelta);
 
@@ -192,26 +273,26 @@ public class CSIReplay {
                 currentReplayTime = currentReplayTime.plus(realTimeDelta);
             }
 
-            Iterator<DataInfo> iter = nextData.iterator();
-            while(iter.hasNext()) {
-                synchronized (nextData) {
-                    if(! iter.hasNext()) { // last check was before obtaining lock
+            synchronized (replayLock) {
+                long currentTimestamp = currentReplayTime.toEpochMilli();
+                while(nextIndex < data.size() && data.getTimestamp(nextIndex) <= currentTimestamp) {
+                    Station station = data.getStation(nextIndex);
+                    DataInfo info = data.get(nextIndex);
+                    nextIndex++;
+                    if(info == null) {
                         continue;
                     }
 
-                    val data = iter.next();
-                    if(! currentReplayTime.isBefore(Instant.ofEpochMilli(data.getClientTimestamp()))) {
-                        groupingList.add(data);
-                        if(groupingList.size() >= groupThreshold || this.nextData.size() == 1) {
-                            DataInfo[] group = groupingList.toArray(new DataInfo[0]);
-                            postData(group);
-                            groupingList.clear();
-                        }
-
-                        iter.remove();
-
-                        Logger.trace("Replay: %d packets left", this.data.size());
+                    if(groupingList.isEmpty()) {
+                        groupStation = station;
                     }
+                    groupingList.add(info);
+                    if(groupingList.size() >= groupThreshold || nextIndex == data.size()) {
+                        postData(groupStation, groupingList.toArray(new DataInfo[0]));
+                        groupingList.clear();
+                    }
+
+                    Logger.trace("Replay: %d packets left", data.size() - nextIndex);
                 }
             }
 
@@ -220,22 +301,22 @@ public class CSIReplay {
         }
 
         completedFuture.complete(null);
-        Logger.debug("Replay thread terminating. Paused: %s, Packets left: %d", replayPaused, nextData.size());
+        Logger.debug("Replay thread terminating. Paused: %s, Packets left: %d", replayPaused, data.size() - nextIndex);
     }
 
-    private void postData(DataInfo[] data) {
+    private void postData(Station station, DataInfo[] data) {
         callbacks.entrySet().stream()
-                .filter(e -> Objects.equals(e.getKey().getHW_ADDRESS(), stationByData.get(data[0])))
+                .filter(e -> Objects.equals(e.getKey().getHW_ADDRESS(), station.getHW_ADDRESS()))
                 .forEach(c -> c.getValue().accept(data));
     }
 
     private void postNearestData(Instant time) {
         for(Station station : room.getStations()) {
-            data.stream()
-                    .filter(d -> stationByData.get(d).equals(station.getHW_ADDRESS()))
-                    .min(Comparator.comparingLong(
-                    c -> Duration.between(time, c.getClientInstant()).abs().toMillis()
-            )).ifPresent(nearestData -> postData(new DataInfo[] { nearestData }));
+            int nearest = data.nearest(station, time.toEpochMilli());
+            DataInfo nearestData = nearest == -1 ? null : data.get(nearest);
+            if(nearestData != null) {
+                postData(station, new DataInfo[] { nearestData });
+            }
         }
     }
 
@@ -257,11 +338,7 @@ public class CSIReplay {
 //    }
 
     public int getNumberOfPastPackets() {
-        return (int) data.stream()
-                .mapToLong(DataInfo::getClientTimestamp)
-                .mapToObj(Instant::ofEpochMilli)
-                .filter(t -> t.isBefore(currentReplayTime))
-                .count();
+        return data.indexOf(currentReplayTime.toEpochMilli());
     }
 
     public int getTotalNumberOfPackets() {
@@ -337,7 +414,37 @@ public class CSIReplay {
         mainProxy(args);
     }
 
+    /**
+     * @return all data of the replay ordered by time, records are decoded on access
+     */
     public List<DataInfo> getData() {
-        return Collections.unmodifiableList(data);
+        return new AbstractList<DataInfo>() {
+            @Override
+            public DataInfo get(int index) {
+                return data.get(index);
+            }
+
+            @Override
+            public int size() {
+                return data.size();
+            }
+        };
+    }
+
+    /**
+     * @param station a station of the recording
+     * @return the data recorded from the station
+     */
+    public List<DataInfo> getData(Station station) {
+        List<DataInfo> stationData = new ArrayList<>();
+        for(int i = 0;i < data.size();i++) {
+            if(Objects.equals(data.getStation(i).getHW_ADDRESS(), station.getHW_ADDRESS())) {
+                DataInfo info = data.get(i);
+                if(info != null) {
+                    stationData.add(info);
+                }
+            }
+        }
+        return stationData;
     }
 }
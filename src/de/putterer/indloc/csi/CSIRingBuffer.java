@@ -0,0 +1,241 @@
+package de.putterer.indloc.csi;
+
+import lombok.Getter;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+
+/**
+ * Fixed capacity history of csi frames stored off-heap
+ * Frames are packed as int16 real and imaginary parts in [rx][tx][sc] order, next to a column of client timestamps
+ * Values outside of the int16 range are clipped
+ * Not thread safe, views read directly from the buffer and are only valid until the next frame is added
+ */
+public class CSIRingBuffer {
+
+	private static final int BYTES_PER_VALUE = 4; // int16 real, int16 imag
+
+	@Getter private final int capacity;
+	@Getter private final int rxAntennas;
+	@Getter private final int txAntennas;
+	@Getter private final int tones;
+	private final int frameBytes;
+
+	private final ByteBuffer frames;
+	private final LongBuffer timestamps;
+
+	@Getter private long framesWritten = 0;
+	@Getter private long clippedValues = 0;
+
+	/**
+	 * @param capacity the number of frames to keep
+	 * @param rxAntennas the rx antennas per frame
+	 * @param txAntennas the tx antennas per frame
+	 * @param tones the subcarriers per frame
+	 */
+	public CSIRingBuffer(int capacity, int rxAntennas, int txAntennas, int tones) {
+		this.capacity = capacity;
+		this.rxAntennas = rxAntennas;
+		this.txAntennas = txAntennas;
+		this.tones = tones;
+		this.frameBytes = rxAntennas * txAntennas * tones * BYTES_PER_VALUE;
+		this.frames = ByteBuffer.allocateDirect(capacity * frameBytes).order(ByteOrder.nativeOrder());
+		this.timestamps = ByteBuffer.allocateDirect(capacity * Long.BYTES).order(ByteOrder.nativeOrder()).asLongBuffer();
+	}
+
+	/**
+	 * creates a ring buffer with the dimensions of the given frame
+	 */
+	public static CSIRingBuffer forFrame(int capacity, CSIInfo csi) {
+		CSIMatrix matrix = csi.getCsi();
+		return new CSIRingBuffer(capacity, matrix.getRxAntennas(), matrix.getTxAntennas(), matrix.getTones());
+	}
+
+	/**
+	 * @return whether frames of the given csi have the dimensions of this buffer
+	 */
+	public boolean fits(CSIInfo csi) {
+		CSIMatrix matrix = csi.getCsi();
+		return matrix.getRxAntennas() == rxAntennas && matrix.getTxAntennas() == txAntennas && matrix.getTones() == tones;
+	}
+
+	/**
+	 * appends a frame, overwriting the oldest one if full
+	 * entries missing in the csi matrix are stored as zero
+	 */
+	public void add(CSIInfo csi) {
+		CSIMatrix matrix = csi.getCsi();
+		int slot = (int) (framesWritten % capacity);
+		int offset = slot * frameBytes;
+		for(int rx = 0;rx < rxAntennas;rx++) {
+			for(int tx = 0;tx < txAntennas;tx++) {
+				for(int sc = 0;sc < tones;sc++) {
+					int real = 0, imag = 0;
+					if(matrix.contains(rx, tx, sc)) {
+						int i = matrix.index(rx, tx, sc);
+						real = matrix.getReal()[i];
+						imag = matrix.getImag()[i];
+					}
+					frames.putShort(offset, clip(real));
+					frames.putShort(offset + 2, clip(imag));
+					offset += BYTES_PER_VALUE;
+				}
+			}
+		}
+		timestamps.put(slot, csi.getClientTimestamp());
+		framesWritten++;
+	}
+
+	private short clip(int value) {
+		if(value > Short.MAX_VALUE) {
+			clippedValues++;
+			return Short.MAX_VALUE;
+		}
+		if(value < Short.MIN_VALUE) {
+			clippedValues++;
+			return Short.MIN_VALUE;
+		}
+		return (short) value;
+	}
+
+	/**
+	 * @return the number of frames currently stored
+	 */
+	public int size() {
+		return (int) Math.min(framesWritten, capacity);
+	}
+
+	public void clear() {
+		framesWritten = 0;
+	}
+
+	/**
+	 * @param length the number of frames, at most size()
+	 * @return a view of the most recent frames, oldest first
+	 */
+	public Window window(int length) {
+		if(length > size()) {
+			throw new IllegalArgumentException(String.format("Window of %d frames requested, only %d stored", length, size()));
+		}
+		return new Window((int) ((framesWritten - length) % capacity), length);
+	}
+
+	/**
+	 * @return a view of all stored frames, oldest first
+	 */
+	public Window window() {
+		return window(size());
+	}
+
+	/**
+	 * A view of consecutive frames, t = 0 being the oldest one
+	 * Antennas and subcarriers have to be within the dimensions of the ring buffer
+	 */
+	public class Window {
+		private final int firstSlot;
+		private final int length;
+
+		private Window(int firstSlot, int length) {
+			this.firstSlot = firstSlot;
+			this.length = length;
+		}
+
+		public int size() {
+			return length;
+		}
+
+		public int getTones() {
+			return tones;
+		}
+
+		private int offset(int t, int rx, int tx, int sc) {
+			int slot = firstSlot + t;
+			if(slot >= capacity) {
+				slot -= capacity;
+			}
+			return slot * frameBytes + ((rx * txAntennas + tx) * tones + sc) * BYTES_PER_VALUE;
+		}
+
+		public long getTimestamp(int t) {
+			int slot = firstSlot + t;
+			return timestamps.get(slot >= capacity ? slot - capacity : slot);
+		}
+
+		public int getReal(int t, int rx, int tx, int sc) {
+			return frames.getShort(offset(t, rx, tx, sc));
+		}
+
+		public int getImag(int t, int rx, int tx, int sc) {
+			return frames.getShort(offset(t, rx, tx, sc) + 2);
+		}
+
+		public double getAmplitude(int t, int rx, int tx, int sc) {
+			int offset = offset(t, rx, tx, sc);
+			int real = frames.getShort(offset), imag = frames.getShort(offset + 2);
+			return Math.sqrt(real * real + imag * imag);
+		}
+
+		/**
+		 * @return the phase in [0, 2pi)
+		 */
+		public double getPhase(int t, int rx, int tx, int sc) {
+			int offset = offset(t, rx, tx, sc);
+			double angle = Math.atan2(frames.getShort(offset + 2), frames.getShort(offset));
+			return angle < 0 ? angle + Math.PI * 2 : angle;
+		}
+
+		/**
+		 * @return a view of one entry over all frames of this window
+		 */
+		public Series series(int rx, int tx, int sc) {
+			return new Series(this, rx, tx, sc);
+		}
+	}
+
+	/**
+	 * A view of one antenna pair and subcarrier over the frames of a window
+	 */
+	public static class Series {
+		private final Window window;
+		private final int rx, tx, sc;
+
+		private Series(Window window, int rx, int tx, int sc) {
+			this.window = window;
+			this.rx = rx;
+			this.tx = tx;
+			this.sc = sc;
+		}
+
+		public int size() {
+			return window.size();
+		}
+
+		public int getReal(int t) {
+			return window.getReal(t, rx, tx, sc);
+		}
+
+		public int getImag(int t) {
+			return window.getImag(t, rx, tx, sc);
+		}
+
+		public double getAmplitude(int t) {
+			return window.getAmplitude(t, rx, tx, sc);
+		}
+
+		public double getPhase(int t) {
+			return window.getPhase(t, rx, tx, sc);
+		}
+
+		/**
+		 * @return the amplitudes over time, copied to a new array
+		 */
+		public double[] amplitudes() {
+			double[] result = new double[size()];
+			for(int t = 0;t < result.length;t++) {
+				result[t] = getAmplitude(t);
+			}
+			return result;
+		}
+	}
+}
@@ -429,13 +429,9 @@ public class DataPreview<T extends Chart> {
 					for(int i = 0;i < subcarriers;i++) {
 						xData[i] = i;
 
-						if(csi.getCsi_matrix()[rx][tx][i] == null) {
-							yData[i] = 0;
-							continue;
-						}
 						switch(type) {
-						case AMPLITUDE: yData[i] = csi.getCsi_matrix()[rx][tx][i].getAmplitude()/* - csi.getCsi_matrix()[rx][tx][0].getAmplitude()*/;break;
-						case PHASE: yData[i] = csi.getCsi_matrix()[rx][tx][i].getPhase() - csi.getCsi_matrix()[0][0][0].getPhase();break;
+						case AMPLITUDE: yData[i] = csi.getAmplitude(rx, tx, i)/* - csi.getAmplitude(rx, tx, 0)*/;break;
+						case PHASE: yData[i] = csi.getPhase(rx, tx, i) - csi.getPhase(0, 0, 0);break;
 						}
 					}
 
@@ -526,7 +522,7 @@ public class DataPreview<T extends Chart> {
 
 			for(int i = 0;i < subcarriers;i++) {
 				xData[i] = i;
-				double diff = csi.getCsi_matrix()[rxAntenna1][0][i].getAmplitude() - csi.getCsi_matrix()[rxAntenna2][0][i].getAmplitude();
+				double diff = csi.getAmplitude(rxAntenna1, 0, i) - csi.getAmplitude(rxAntenna2, 0, i);
 				yData[i] = diff;
 			}
 
@@ -611,7 +607,7 @@ public class DataPreview<T extends Chart> {
 
 			for (int subcarrierIndex = 0;subcarrierIndex < this.subcarriers.length;subcarrierIndex++) {
 
-				double currentData = csi.getCsi_matrix()[rxAntenna][txAntenna][this.subcarriers[subcarrierIndex]].getAmplitude();
+				double currentData = csi.getAmplitude(rxAntenna, txAntenna, this.subcarriers[subcarrierIndex]);
 
 				List<Double> previousList = this.previousDataPoints[subcarrierIndex];
 				List<Double> previousUnprocessedList = this.previousUnprocessedDataPoints[subcarrierIndex];
@@ -720,16 +716,16 @@ public class DataPreview<T extends Chart> {
 				Pair<AntennaSubcarrier, AntennaSubcarrier> antennaSubcarrierPair = antennaSubcarriersPairs[index];
 
 
-				double firstAmplitude = csi.getCsi_matrix()
-						[antennaSubcarrierPair.getFirst().rxAntenna]
-						[antennaSubcarrierPair.getFirst().txAntenna]
-						[antennaSubcarrierPair.getFirst().subcarrier]
-						.getAmplitude();
-				double secondAmplitude = csi.getCsi_matrix()
-						[antennaSubcarrierPair.getSecond().rxAntenna]
-						[antennaSubcarrierPair.getSecond().txAntenna]
-						[antennaSubcarrierPair.getSecond().subcarrier]
-						.getAmplitude();
+				double firstAmplitude = csi.getAmplitude(
+						antennaSubcarrierPair.getFirst().rxAntenna,
+						antennaSubcarrierPair.getFirst().txAntenna,
+						antennaSubcarrierPair.getFirst().subcarrier
+				);
+				double secondAmplitude = csi.getAmplitude(
+						antennaSubcarrierPair.getSecond().rxAntenna,
+						antennaSubcarrierPair.getSecond().txAntenna,
+						antennaSubcarrierPair.getSecond().subcarrier
+				);
 
 				double currentData = secondAmplitude - firstAmplitude;
 
@@ -809,8 +805,8 @@ public class DataPreview<T extends Chart> {
 			double[] xData = new double[subcarriers];
 			double[] yData = new double[subcarriers];
 
-			double[] rx1Phase = Arrays.stream(csi.getCsi_matrix()[rxAntenna1][0]).mapToDouble(CSIInfo.Complex::getPhase).toArray();
-			double[] rx2Phase = Arrays.stream(csi.getCsi_matrix()[rxAntenna2][0]).mapToDouble(CSIInfo.Complex::getPhase).toArray();
+			double[] rx1Phase = csi.getPhases(rxAntenna1, 0);
+			double[] rx2Phase = csi.getPhases(rxAntenna2, 0);
 			unwrapPhase(rx1Phase);
 			unwrapPhase(rx2Phase);
 			previousPhaseMean[0] = timeUnwrapped(rx1Phase, previousPhaseMean[0]);
@@ -1117,8 +1113,8 @@ public class DataPreview<T extends Chart> {
 
 
 			for (int i = 0; i < subcarriers; i++) {
-				CSIInfo.Complex v1 = csi.getCsi_matrix()[rxAntenna1][txAntenna1][i];
-				CSIInfo.Complex v2 = csi.getCsi_matrix()[rxAntenna2][txAntenna2][i];
+				CSIInfo.Complex v1 = csi.getComplex(rxAntenna1, txAntenna1, i);
+				CSIInfo.Complex v2 = csi.getComplex(rxAntenna2, txAntenna2, i);
 				CSIInfo.Complex diff;
 
 				if(conjugateMultiplication) {
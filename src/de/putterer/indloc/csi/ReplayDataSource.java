@@ -0,0 +1,173 @@
+package de.putterer.indloc.csi;
+
+import de.putterer.indloc.Station;
+import de.putterer.indloc.data.DataInfo;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * The data of a replay, ordered by client timestamp
+ * Only keeps the timestamp, station and position in the station's track of every record,
+ * records are fetched from the tracks when the replay reaches them
+ */
+public class ReplayDataSource {
+
+	private final Station[] stations;
+	private final Track[] tracks;
+	private final long[] timestamps;
+	private final short[] trackIndices;
+	private final int[] recordIndices; // in the track
+
+	/**
+	 * @param stations the station of each track
+	 * @param tracks the records of each station
+	 */
+	public ReplayDataSource(List<Station> stations, List<? extends Track> tracks) {
+		this.stations = stations.toArray(new Station[0]);
+		this.tracks = tracks.toArray(new Track[0]);
+
+		int size = 0;
+		for(Track track : tracks) {
+			size += track.size();
+		}
+		timestamps = new long[size];
+		trackIndices = new short[size];
+		recordIndices = new int[size];
+
+		int i = 0;
+		for(short t = 0;t < this.tracks.length;t++) {
+			for(int r = 0;r < this.tracks[t].size();r++) {
+				timestamps[i] = this.tracks[t].getTimestamp(r);
+				trackIndices[i] = t;
+				recordIndices[i] = r;
+				i++;
+			}
+		}
+		sort(0, size, new long[size], new short[size], new int[size]);
+	}
+
+	public int size() {
+		return timestamps.length;
+	}
+
+	public long getTimestamp(int index) {
+		return timestamps[index];
+	}
+
+	public Station getStation(int index) {
+		return stations[trackIndices[index]];
+	}
+
+	/**
+	 * fetches the record, may decode it from disk
+	 * @return the record, null if it can't be read
+	 */
+	public DataInfo get(int index) {
+		return tracks[trackIndices[index]].get(recordIndices[index]);
+	}
+
+	/**
+	 * @return the index of the first record at or after the timestamp, size() if there is none
+	 */
+	public int indexOf(long timestamp) {
+		int low = 0, high = timestamps.length;
+		while(low < high) {
+			int mid = (low + high) >>> 1;
+			if(timestamps[mid] < timestamp) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+		return low;
+	}
+
+	/**
+	 * @return the index of the record of the station closest to the timestamp, -1 if the station has no records
+	 */
+	public int nearest(Station station, long timestamp) {
+		int after = indexOf(timestamp);
+		int before = after - 1;
+		while(after < timestamps.length && getStation(after) != station) {
+			after++;
+		}
+		while(before >= 0 && getStation(before) != station) {
+			before--;
+		}
+
+		if(before < 0) {
+			return after < timestamps.length ? after : -1;
+		}
+		if(after >= timestamps.length) {
+			return before;
+		}
+		return timestamp - timestamps[before] <= timestamps[after] - timestamp ? before : after;
+	}
+
+	// stable merge sort of the index by timestamp, tracks are mostly ordered already
+	private void sort(int from, int to, long[] tmpTimestamps, short[] tmpTracks, int[] tmpRecords) {
+		if(to - from < 2) {
+			return;
+		}
+		int mid = (from + to) >>> 1;
+		sort(from, mid, tmpTimestamps, tmpTracks, tmpRecords);
+		sort(mid, to, tmpTimestamps, tmpTracks, tmpRecords);
+		if(timestamps[mid - 1] <= timestamps[mid]) {
+			return;
+		}
+
+		System.arraycopy(timestamps, from, tmpTimestamps, from, to - from);
+		System.arraycopy(trackIndices, from, tmpTracks, from, to - from);
+		System.arraycopy(recordIndices, from, tmpRecords, from, to - from);
+		for(int i = from, left = from, right = mid;i < to;i++) {
+			int source = right >= to || (left < mid && tmpTimestamps[left] <= tmpTimestamps[right]) ? left++ : right++;
+			timestamps[i] = tmpTimestamps[source];
+			trackIndices[i] = tmpTracks[source];
+			recordIndices[i] = tmpRecords[source];
+		}
+	}
+
+	/**
+	 * The records of one station
+	 */
+	public interface Track {
+		int size();
+		long getTimestamp(int index);
+		int getMessageId(int index); // without fetching the record, used for the loss statistics
+		DataInfo get(int index);
+	}
+
+	/**
+	 * A track held in memory, used for recordings with one file per packet
+	 */
+	public static class MemoryTrack implements Track {
+		private final List<DataInfo> data;
+
+		public MemoryTrack(List<DataInfo> data) {
+			this.data = new ArrayList<>(data);
+			this.data.sort(Comparator.comparingLong(DataInfo::getClientTimestamp));
+		}
+
+		@Override
+		public int size() {
+			return data.size();
+		}
+
+		@Override
+		public long getTimestamp(int index) {
+			return data.get(index).getClientTimestamp();
+		}
+
+		@Override
+		public int getMessageId(int index) {
+			return data.get(index).getMessageId();
+		}
+
+		@Override
+		public DataInfo get(int index) {
+			return data.get(index);
+		}
+	}
+}
@@ -1,6 +1,7 @@
 package de.putterer.indloc.csi.atheros;
 
 import de.putterer.indloc.csi.CSIInfo;
+import de.putterer.indloc.csi.CSIMatrix;
 import de.putterer.indloc.util.Logger;
 import lombok.Data;
 import lombok.EqualsAndHashCode;
@@ -41,16 +42,13 @@ public class AthCSIInfo extends CSIInfo {
 		atherosCsiStatus.csi_len = buffer.getShort();
 		atherosCsiStatus.buf_len = buffer.getShort();
 
-		for(int i1 = 0;i1 < 3;i1++) {
-			for(int i2 = 0;i2 < 3;i2++) {
-				for(int i3 = 0;i3 < 114;i3++) {
-					if(i3 < atherosCsiStatus.num_tones) { // only send necessary data
-						csi_matrix[i1][i2][i3] = new Complex(buffer.getInt(), buffer.getInt());
-					} else {
-						csi_matrix[i1][i2][i3] = new Complex(0, 0);
-					}
-				}
-			}
+		// the csi-server always sends 3 x 3 antenna pairs
+		csi = new CSIMatrix(3, 3, atherosCsiStatus.num_tones);
+		int[] real = csi.getReal();
+		int[] imag = csi.getImag();
+		for(int i = 0;i < real.length;i++) {
+			real[i] = buffer.getInt();
+			imag[i] = buffer.getInt();
 		}
 
 		if(buffer.hasRemaining()) {
@@ -59,7 +57,12 @@ public class AthCSIInfo extends CSIInfo {
 	}
 
 	public AthCSIInfo(long clientTimestamp, int messageId, Complex[][][] csi_matrix, AthCSIStatus atherosCsiStatus) {
-		super(clientTimestamp, messageId, csi_matrix);
+		super(clientTimestamp, messageId, CSIMatrix.fromComplexArray(csi_matrix, 3, 3, atherosCsiStatus.getNum_tones()));
+		this.atherosCsiStatus = atherosCsiStatus;
+	}
+
+	public AthCSIInfo(long clientTimestamp, int messageId, CSIMatrix csi, AthCSIStatus atherosCsiStatus) {
+		super(clientTimestamp, messageId, csi);
 		this.atherosCsiStatus = atherosCsiStatus;
 	}
 
@@ -2,6 +2,7 @@ package de.putterer.indloc.csi.esp;
 
 import com.google.gson.annotations.SerializedName;
 import de.putterer.indloc.csi.CSIInfo;
+import de.putterer.indloc.csi.CSIMatrix;
 import de.putterer.indloc.util.Logger;
 import lombok.EqualsAndHashCode;
 import lombok.Getter;
@@ -42,6 +43,13 @@ public class EspCSIInfo extends CSIInfo {
 
 
     public EspCSIInfo(long timestamp, int messageId, String sourceMac, int length, boolean firstWordInvalid, int rssi, int mcs, ChannelBandwidth channelBandwidth, boolean spaceTimeBlockCode, GuardInterval guardInterval, byte channel, SecondaryChannel secondaryChannel, long timestamp1, byte antenna, String csiEntry) {
+        this(timestamp, messageId, sourceMac, length, firstWordInvalid, rssi, mcs, channelBandwidth, spaceTimeBlockCode, guardInterval, channel, secondaryChannel, timestamp1, antenna, parseCsiEntry(csiEntry, length));
+    }
+
+    /**
+     * @param data the csi data, the first length bytes are used, not retained
+     */
+    public EspCSIInfo(long timestamp, int messageId, String sourceMac, int length, boolean firstWordInvalid, int rssi, int mcs, ChannelBandwidth channelBandwidth, boolean spaceTimeBlockCode, GuardInterval guardInterval, byte channel, SecondaryChannel secondaryChannel, long timestamp1, byte antenna, byte[] data) {
         super(timestamp, messageId);
         this.sourceMac = sourceMac;
         this.length = length;
@@ -118,16 +126,14 @@ public class EspCSIInfo extends CSIInfo {
         }
 
         // fill csi matrix
-        ByteBuffer buffer = ByteBuffer.allocate(length);
-        Arrays.stream(csiEntry.split(" ")).map(it -> (byte) Integer.parseInt(it, 16)).forEach(buffer::put);
-
-        byte[] data = buffer.array();
         int currentStartIndex = 0;
 
+        csi = new CSIMatrix(1, 1, trainingFieldLengths[TRAINING_FIELD_TO_USE]);
+
         for(int trainingFieldType = 0;trainingFieldType < 2;trainingFieldType++) {
             for(int subcarrier = 0;subcarrier < 64;subcarrier++) {
-                if(trainingFieldType == TRAINING_FIELD_TO_USE) {
-                    csi_matrix[0][0][subcarrier] = new Complex(
+                if(trainingFieldType == TRAINING_FIELD_TO_USE && currentStartIndex + subcarrier * 2 + 1 < length) {
+                    csi.set(0, 0, subcarrier,
                             data[currentStartIndex + subcarrier * 2 + 1] * ESP_CSI_SCALE, // yes, the imaginary part is located before the real part for some reason
                             data[currentStartIndex + subcarrier * 2] * ESP_CSI_SCALE
                     );
@@ -139,6 +145,32 @@ public class EspCSIInfo extends CSIInfo {
         subcarriers = trainingFieldLengths[TRAINING_FIELD_TO_USE];
     }
 
+    /**
+     * restores a decoded csi info, e.g. from a recording
+     */
+    public EspCSIInfo(long timestamp, int messageId, String sourceMac, int length, boolean firstWordInvalid, int rssi, int mcs, ChannelBandwidth channelBandwidth, boolean spaceTimeBlockCode, GuardInterval guardInterval, byte channel, SecondaryChannel secondaryChannel, long timestamp1, byte antenna, CSIMatrix csi) {
+        super(timestamp, messageId, csi);
+        this.sourceMac = sourceMac;
+        this.length = length;
+        this.firstWordInvalid = firstWordInvalid;
+        this.rssi = rssi;
+        this.mcs = mcs;
+        this.channelBandwidth = channelBandwidth;
+        this.spaceTimeBlockCode = spaceTimeBlockCode;
+        this.guardInterval = guardInterval;
+        this.channel = channel;
+        this.secondaryChannel = secondaryChannel;
+        this.timestamp = timestamp1;
+        this.antenna = antenna;
+        this.subcarriers = csi.getTones();
+    }
+
+    private static byte[] parseCsiEntry(String csiEntry, int length) {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        Arrays.stream(csiEntry.split(" ")).map(it -> (byte) Integer.parseInt(it, 16)).forEach(buffer::put);
+        return buffer.array();
+    }
+
     @Override
     public CSIInfo clone(Complex[][][] newCsiMatrix) {
         throw new UnsupportedOperationException("not yet implemented");
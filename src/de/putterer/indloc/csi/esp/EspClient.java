@@ -5,8 +5,7 @@ import de.putterer.indloc.data.DataConsumer;
 import de.putterer.indloc.data.DataInfo;
 import de.putterer.indloc.data.serial.SerialClient;
 
-import java.util.function.Function;
-import java.util.regex.Matcher;
+import java.nio.ByteBuffer;
 import java.util.regex.Pattern;
 
 import static de.putterer.indloc.csi.esp.EspCSIInfo.ChannelBandwidth.BW_20MHZ;
@@ -14,9 +13,13 @@ import static de.putterer.indloc.csi.esp.EspCSIInfo.ChannelBandwidth.BW_40MHZ;
 import static de.putterer.indloc.csi.esp.EspCSIInfo.GuardInterval.LONG_GI;
 import static de.putterer.indloc.csi.esp.EspCSIInfo.GuardInterval.SHORT_GI;
 
+/**
+ * Reads csi frames from an esp32 via serial, one per line, parsed from the raw bytes by an EspFrameParser
+ */
 public class EspClient extends SerialClient {
 
     public static final int ESP_CSI_BAUD_RATE = 921600;
+    // the format parsed by EspFrameParser
     public static final Pattern ESP_CSI_SERIAL_PATTERN = Pattern.compile(
             "<CSI>" +
                     "<addr>([0-9a-f][0-9a-f]:[0-9a-f][0-9a-f]:[0-9a-f][0-9a-f]:[0-9a-f][0-9a-f]:[0-9a-f][0-9a-f]:[0-9a-f][0-9a-f])</addr>" +
@@ -34,45 +37,48 @@ public class EspClient extends SerialClient {
                     "(([0-9a-f]?[0-9a-f]\\s)+)" +
             "</CSI>"
     );
+    // indexed by the sec_chl field
+    private static final EspCSIInfo.SecondaryChannel[] SECONDARY_CHANNELS = {
+            EspCSIInfo.SecondaryChannel.NONE, EspCSIInfo.SecondaryChannel.ABOVE, EspCSIInfo.SecondaryChannel.BELOW
+    };
 
+    private final EspFrameParser parser = new EspFrameParser(this::onCsiFrame);
     private int messageId = 0;
     public EspClient(Station station, DataConsumer<? extends DataInfo>... consumers) {
         super(station, ESP_CSI_BAUD_RATE, consumers);
     }
 
     @Override
-    protected void onLineRead(String line) {
-        Matcher matcher = ESP_CSI_SERIAL_PATTERN.matcher(line);
-
-        if(! matcher.matches()) {
-            return;
-        }
+    protected void onFrame(ByteBuffer line) {
+        parser.parse(line);
+        parser.reset(); // frames never span lines
+    }
 
+    private void onCsiFrame(EspFrameParser frame) {
         EspCSIInfo csi = new EspCSIInfo(
                 System.currentTimeMillis(),
                 messageId++,
-                matcher.group(1),
-                Integer.parseInt(matcher.group(2)),
-                matcher.group(3).equals("1"),
-                Integer.parseInt(matcher.group(4)),
-                Integer.parseInt(matcher.group(5)),
-                matcher.group(6).equals("0") ? BW_20MHZ : BW_40MHZ,
-                matcher.group(7).equals("1"),
-                matcher.group(8).equals("0") ? LONG_GI : SHORT_GI,
-                Byte.parseByte(matcher.group(9)),
-                ((Function<String, EspCSIInfo.SecondaryChannel>) s -> {
-                    switch(s) {
-                        case "0": return EspCSIInfo.SecondaryChannel.NONE;
-                        case "1": return EspCSIInfo.SecondaryChannel.ABOVE;
-                        case "2": return EspCSIInfo.SecondaryChannel.BELOW;
-                        default: throw new RuntimeException("Unknown secondary channel type");
-                    }
-                }).apply(matcher.group(10)),
-                Long.parseUnsignedLong(matcher.group(11)),
-                Byte.parseByte(matcher.group(12)),
-                matcher.group(13)
+                frame.getSourceMac(),
+                frame.getLength(),
+                frame.isFirstWordInvalid(),
+                frame.getRssi(),
+                frame.getMcs(),
+                frame.isBandwidth40MHz() ? BW_40MHZ : BW_20MHZ,
+                frame.isSpaceTimeBlockCode(),
+                frame.isShortGuardInterval() ? SHORT_GI : LONG_GI,
+                frame.getChannel(),
+                SECONDARY_CHANNELS[frame.getSecondaryChannel()],
+                frame.getTimestamp(),
+                frame.getAntenna(),
+                frame.getData()
         );
-        getApplicableConsumers(EspCSIInfo.class).forEach(c -> c.accept(csi));
+        dispatch(csi);
     }
 
+    /**
+     * @return the number of frames dropped for not matching ESP_CSI_SERIAL_PATTERN
+     */
+    public long getMalformedFrames() {
+        return parser.getMalformedFrames();
+    }
 }
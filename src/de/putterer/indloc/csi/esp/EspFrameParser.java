@@ -0,0 +1,397 @@
+package de.putterer.indloc.csi.esp;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Parses <CSI>...</CSI> frames as printed by the esp32 csi tool directly from the serial byte stream
+ * Fields are parsed into primitives and the csi data into a reused array, no objects are created per frame
+ * (except for the mac address string when the sender changes)
+ * Anything outside of frames is ignored, frames not matching the expected format are counted and skipped
+ * Not thread safe, the fields and data are only valid during the listener call
+ */
+public class EspFrameParser {
+
+	public static final int MAX_CSI_LENGTH = 1024;
+
+	private static final byte[] FRAME_START = ascii("<CSI>");
+	private static final byte[] FRAME_END = ascii("/CSI>");
+
+	// the fields in the order they are sent
+	private static final int ADDR = 0, LEN = 1, INV = 2, RSSI = 3, MCS = 4, CWB = 5, STBC = 6, SGI = 7, CHL = 8, SEC_CHL = 9, T = 10, ANT = 11;
+	private static final String[] FIELD_NAMES = {"addr", "len", "inv", "rssi", "mcs", "cwb", "stbc", "sgi", "chl", "sec_chl", "t", "ant"};
+	private static final byte[][] OPEN_TAGS = new byte[FIELD_NAMES.length][];
+	private static final byte[][] CLOSE_TAGS = new byte[FIELD_NAMES.length][]; // without the leading '<' ending the value
+	static {
+		for(int i = 0;i < FIELD_NAMES.length;i++) {
+			OPEN_TAGS[i] = ascii("<" + FIELD_NAMES[i] + ">");
+			CLOSE_TAGS[i] = ascii("/" + FIELD_NAMES[i] + ">");
+		}
+	}
+
+	private static final int MAC_LENGTH = 6;
+	private static final int MAC_STRING_LENGTH = MAC_LENGTH * 3 - 1;
+	private static final int MAX_DIGITS = 19; // fits into a long
+
+	private enum State {
+		SEEK, // outside of a frame, looking for <CSI>
+		OPEN_TAG,
+		VALUE,
+		CLOSE_TAG,
+		CSI_DATA,
+		FRAME_END
+	}
+
+	private final FrameListener listener;
+
+	private State state = State.SEEK;
+	private int tagIndex = 0; // position in the literal currently being matched
+	private int field = 0;
+
+	// current value
+	private long value;
+	private boolean negative;
+	private int digits;
+
+	private final long[] values = new long[FIELD_NAMES.length];
+	private final byte[] mac = new byte[MAC_LENGTH];
+	private final byte[] lastMac = new byte[MAC_LENGTH];
+	private String sourceMac = null;
+
+	private final byte[] data = new byte[MAX_CSI_LENGTH];
+	private int dataLength;
+	private int hexDigits;
+	private int currentByte;
+
+	private final LongAdder frames = new LongAdder();
+	private final LongAdder malformedFrames = new LongAdder();
+
+	public EspFrameParser(FrameListener listener) {
+		this.listener = listener;
+	}
+
+	/**
+	 * parses the given bytes, continuing any frame started by previous calls
+	 */
+	public void parse(byte[] bytes, int offset, int length) {
+		for(int i = offset;i < offset + length;i++) {
+			parse(bytes[i]);
+		}
+	}
+
+	/**
+	 * parses the remaining bytes of the buffer, continuing any frame started by previous calls
+	 * the position of the buffer is not changed
+	 */
+	public void parse(ByteBuffer bytes) {
+		if(bytes.hasArray()) {
+			parse(bytes.array(), bytes.arrayOffset() + bytes.position(), bytes.remaining());
+		} else {
+			for(int i = bytes.position();i < bytes.limit();i++) {
+				parse(bytes.get(i));
+			}
+		}
+	}
+
+	/**
+	 * discards a frame started but not yet completed, counting it as malformed
+	 */
+	public void reset() {
+		if(state != State.SEEK) {
+			malformedFrames.increment();
+		}
+		state = State.SEEK;
+		tagIndex = 0;
+	}
+
+	private void parse(byte b) {
+		switch(state) {
+			case SEEK:
+				if(b == FRAME_START[tagIndex]) {
+					tagIndex++;
+					if(tagIndex == FRAME_START.length) {
+						field = 0;
+						startTag(State.OPEN_TAG);
+					}
+				} else {
+					tagIndex = b == '<' ? 1 : 0;
+				}
+				break;
+
+			case OPEN_TAG:
+				if(b != OPEN_TAGS[field][tagIndex]) {
+					malformed(b);
+					return;
+				}
+				tagIndex++;
+				if(tagIndex == OPEN_TAGS[field].length) {
+					state = State.VALUE;
+					value = 0;
+					negative = false;
+					digits = 0;
+				}
+				break;
+
+			case VALUE:
+				if(b == '<') {
+					if(! endValue()) {
+						malformed(b);
+						return;
+					}
+					startTag(State.CLOSE_TAG);
+				} else if(! valueByte(b)) {
+					malformed(b);
+				}
+				break;
+
+			case CLOSE_TAG:
+				if(b != CLOSE_TAGS[field][tagIndex]) {
+					malformed(b);
+					return;
+				}
+				tagIndex++;
+				if(tagIndex == CLOSE_TAGS[field].length) {
+					field++;
+					if(field < FIELD_NAMES.length) {
+						startTag(State.OPEN_TAG);
+					} else {
+						state = State.CSI_DATA;
+						dataLength = 0;
+						hexDigits = 0;
+						currentByte = 0;
+					}
+				}
+				break;
+
+			case CSI_DATA:
+				int digit = hexDigit(b);
+				if(digit >= 0) {
+					if(hexDigits == 2) {
+						malformed(b);
+						return;
+					}
+					currentByte = currentByte * 16 + digit;
+					hexDigits++;
+				} else if(b == ' ' || b == '\t' || b == '<') {
+					if(hexDigits > 0) {
+						if(dataLength == data.length) {
+							malformed(b);
+							return;
+						}
+						data[dataLength++] = (byte) currentByte;
+						currentByte = 0;
+						hexDigits = 0;
+					}
+					if(b == '<') {
+						startTag(State.FRAME_END);
+					}
+				} else {
+					malformed(b);
+				}
+				break;
+
+			case FRAME_END:
+				if(b != FRAME_END[tagIndex]) {
+					malformed(b);
+					return;
+				}
+				tagIndex++;
+				if(tagIndex == FRAME_END.length) {
+					state = State.SEEK;
+					tagIndex = 0;
+					if(dataLength != values[LEN]) {
+						malformedFrames.increment();
+						return;
+					}
+					frames.increment();
+					listener.onFrame(this);
+				}
+				break;
+		}
+	}
+
+	private void startTag(State tagState) {
+		state = tagState;
+		tagIndex = 0;
+	}
+
+	private boolean valueByte(byte b) {
+		if(field == ADDR) {
+			// digits counts the characters of "xx:xx:xx:xx:xx:xx"
+			if(digits == MAC_STRING_LENGTH) {
+				return false;
+			}
+			if(digits % 3 == 2) {
+				if(b != ':') {
+					return false;
+				}
+			} else {
+				int digit = hexDigit(b);
+				if(digit < 0) {
+					return false;
+				}
+				int index = digits / 3;
+				mac[index] = (byte) (digits % 3 == 0 ? digit << 4 : (mac[index] & 0xF0) | digit);
+			}
+			digits++;
+			return true;
+		}
+
+		if(b == '-' && field == RSSI && digits == 0 && ! negative) {
+			negative = true;
+			return true;
+		}
+		if(b < '0' || b > '9' || digits == MAX_DIGITS) {
+			return false;
+		}
+		value = value * 10 + (b - '0');
+		digits++;
+		return true;
+	}
+
+	private boolean endValue() {
+		if(field == ADDR) {
+			return digits == MAC_STRING_LENGTH;
+		}
+		if(digits == 0) {
+			return false;
+		}
+		switch(field) {
+			case INV: case CWB: case STBC: case SGI: case ANT:
+				if(digits != 1 || value > 1) {
+					return false;
+				}
+				break;
+			case SEC_CHL:
+				if(digits != 1 || value > 2) {
+					return false;
+				}
+				break;
+			case CHL:
+				if(value > Byte.MAX_VALUE) {
+					return false;
+				}
+				break;
+			case LEN:
+				if(value > MAX_CSI_LENGTH) {
+					return false;
+				}
+				break;
+		}
+		values[field] = negative ? -value : value;
+		return true;
+	}
+
+	private void malformed(byte b) {
+		malformedFrames.increment();
+		state = State.SEEK;
+		tagIndex = b == '<' ? 1 : 0; // might start the next frame
+	}
+
+	private static int hexDigit(byte b) {
+		if(b >= '0' && b <= '9') {
+			return b - '0';
+		}
+		if(b >= 'a' && b <= 'f') {
+			return b - 'a' + 10;
+		}
+		if(b >= 'A' && b <= 'F') {
+			return b - 'A' + 10;
+		}
+		return -1;
+	}
+
+	private static byte[] ascii(String s) {
+		return s.getBytes(StandardCharsets.US_ASCII);
+	}
+
+	/**
+	 * @return the sender address as printed, cached while it doesn't change
+	 */
+	public String getSourceMac() {
+		boolean changed = sourceMac == null;
+		for(int i = 0;i < MAC_LENGTH;i++) {
+			changed |= mac[i] != lastMac[i];
+		}
+		if(changed) {
+			System.arraycopy(mac, 0, lastMac, 0, MAC_LENGTH);
+			char[] chars = new char[MAC_STRING_LENGTH];
+			for(int i = 0;i < MAC_LENGTH;i++) {
+				chars[i * 3] = Character.forDigit((mac[i] >> 4) & 0xF, 16);
+				chars[i * 3 + 1] = Character.forDigit(mac[i] & 0xF, 16);
+				if(i < MAC_LENGTH - 1) {
+					chars[i * 3 + 2] = ':';
+				}
+			}
+			sourceMac = new String(chars);
+		}
+		return sourceMac;
+	}
+
+	public int getLength() {
+		return (int) values[LEN];
+	}
+
+	public boolean isFirstWordInvalid() {
+		return values[INV] == 1;
+	}
+
+	public int getRssi() {
+		return (int) values[RSSI];
+	}
+
+	public int getMcs() {
+		return (int) values[MCS];
+	}
+
+	public boolean isBandwidth40MHz() {
+		return values[CWB] == 1;
+	}
+
+	public boolean isSpaceTimeBlockCode() {
+		return values[STBC] == 1;
+	}
+
+	public boolean isShortGuardInterval() {
+		return values[SGI] == 1;
+	}
+
+	public byte getChannel() {
+		return (byte) values[CHL];
+	}
+
+	/**
+	 * @return 0: none, 1: above, 2: below
+	 */
+	public int getSecondaryChannel() {
+		return (int) values[SEC_CHL];
+	}
+
+	public long getTimestamp() {
+		return values[T];
+	}
+
+	public byte getAntenna() {
+		return (byte) values[ANT];
+	}
+
+	/**
+	 * @return the csi data, getLength() bytes are valid
+	 */
+	public byte[] getData() {
+		return data;
+	}
+
+	public long getFrames() {
+		return frames.sum();
+	}
+
+	public long getMalformedFrames() {
+		return malformedFrames.sum();
+	}
+
+	public interface FrameListener {
+		void onFrame(EspFrameParser parser);
+	}
+}
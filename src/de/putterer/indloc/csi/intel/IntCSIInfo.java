@@ -1,6 +1,7 @@
 package de.putterer.indloc.csi.intel;
 
 import de.putterer.indloc.csi.CSIInfo;
+import de.putterer.indloc.csi.CSIMatrix;
 import de.putterer.indloc.util.Logger;
 import de.putterer.indloc.util.Util;
 import lombok.Data;
@@ -12,7 +13,6 @@ import java.io.Serializable;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 
-import static java.lang.Math.pow;
 import static java.lang.Math.sqrt;
 
 @Getter
@@ -71,58 +71,49 @@ public class IntCSIInfo extends CSIInfo {
 //			}
 //		}
 
-		for(int rx = 0;rx < notification.Nrx;rx++) {
-			for(int tx = 0;tx < notification.Ntx;tx++) {
-				for(int sc = 0;sc < NUM_TONES;sc++) {
-					buffer.order(ByteOrder.LITTLE_ENDIAN);
-					double real = buffer.getDouble();
-					double imag = buffer.getDouble();
-
-					// atheros 10 bit -> 512
-					// intel 8 bit * 4? --> 512
-					this.csi_matrix[rx][tx][sc] = new Complex(
-							(int)real,
-							(int)imag
-					);
-
-//					System.out.printf("R%.0fI%.0f ", real, imag);
-				}
-			}
+		// values are written once, already scaled, the csi power needed for the scale is summed up in a first pass
+		buffer.order(ByteOrder.LITTLE_ENDIAN);
+		double csi_pwr = 0.0;
+		for(int i = 0, position = buffer.position();i < csi_mat_entries * 2;i++, position += Double.BYTES) {
+			// atheros 10 bit -> 512
+			// intel 8 bit * 4? --> 512
+			int value = (int) buffer.getDouble(position);
+			csi_pwr += (double) value * value;
 		}
 
-        for(int rx = 0;rx < 3;rx++) {
-            for (int tx = 0; tx < 3; tx++) {
-                for (int sc = 0; sc < 114; sc++) {
-                    if(csi_matrix[rx][tx][sc] == null) {
-                        csi_matrix[rx][tx][sc] = new Complex(0, 0);
-                    }
-                }
-            }
-        }
-
 		//TODO: scale according to https://dhalperi.github.io/linux-80211n-csitool/faq.html -> section 2
-		scaleCsiToChannelMatrix();
+		double scale = channelScale(notification, csi_pwr);
+
+		csi = new CSIMatrix(notification.Nrx, notification.Ntx, NUM_TONES);
+		int[] real = csi.getReal();
+		int[] imag = csi.getImag();
+		for(int i = 0;i < csi_mat_entries;i++) {
+			real[i] = (int) Math.round((int) buffer.getDouble() * scale);
+			imag[i] = (int) Math.round((int) buffer.getDouble() * scale);
+		}
 
 		if(buffer.hasRemaining()) {
 			Logger.warn("Intel CSI info buffer hasn't been consumed fully");
 		}
 	}
 
-	// based on https://github.com/dhalperi/linux-80211n-csitool-supplementary/blob/master/matlab/get_scaled_csi.m
-	private void scaleCsiToChannelMatrix() {
-		var notification = intelCsiNotification;
-
-		double csi_pwr = 0.0;
-
-		for(int rx = 0;rx < notification.getNrx();rx++) {
-			for(int tx = 0;tx < notification.getNtx();tx++) {
-				for(int sc = 0;sc < NUM_TONES;sc++) {
-					var val = csi_matrix[rx][tx][sc];
-					csi_pwr += pow(val.getReal(), 2) + pow(val.getImag(), 2);
-				}
-			}
-		}
+	public IntCSIInfo(long clientTimestamp, int messageId, CSIMatrix csi, IntCSINotification intelCsiNotification) {
+		super(clientTimestamp, messageId, csi);
+		this.intelCsiNotification = intelCsiNotification;
+	}
 
+	/**
+	 * computes the factor scaling the raw csi to the channel matrix, combining the snr based scaling,
+	 * the tx antenna correction and INT_CSI_SCALE_FACTOR
+	 * based on https://github.com/dhalperi/linux-80211n-csitool-supplementary/blob/master/matlab/get_scaled_csi.m
+	 *
+	 * Previously the three factors were applied one after another, rounding to int in between.
+	 * Applying the combined factor rounds once, the values differ from the stepwise result by at most 8 for one tx antenna
+	 * and 8 * (1 + tx correction) + 0.5 otherwise, i.e. 19 for two and 21 for three tx antennas.
+	 * This is half of the quantization step of the stepwise scaling, the fused values are closer to the exact product.
+	 * @param csi_pwr the sum of the squared magnitudes of the raw csi
+	 */
+	public static double channelScale(IntCSINotification notification, double csi_pwr) {
 		double total_rss = 0.0;
 		if(notification.getRssi_a() != 0.0) total_rss += Util.dbinv(notification.getRssi_a());
 		if(notification.getRssi_b() != 0.0) total_rss += Util.dbinv(notification.getRssi_b());
@@ -137,26 +128,18 @@ public class IntCSIInfo extends CSIInfo {
 		double quant_error_pwr = scale * (notification.getNrx() * notification.getNtx());
 		double total_noise_pwr = thermal_noise_pwr + quant_error_pwr;
 
-		for(int rx = 0;rx < notification.getNrx();rx++) {
-			for(int tx = 0;tx < notification.getNtx();tx++) {
-				for(int sc = 0;sc < NUM_TONES;sc++) {
-					var ret = csi_matrix[rx][tx][sc];
-
-					ret = ret.scale(Math.sqrt(scale / total_noise_pwr));
-
-					if(notification.getNtx() == 2) {
-						ret = ret.scale(sqrt(2));
-					}
-					if(notification.getNtx() == 3) {
-						ret = ret.scale(sqrt(Util.dbinv(4.5)));
-					}
-
-					//TODO: is this a good idea? (scale by 4 (2^2bits))
-					ret = ret.scale(INT_CSI_SCALE_FACTOR);
+		//TODO: is this a good idea? (scale by 4 (2^2bits))
+		return sqrt(scale / total_noise_pwr) * txScale(notification.getNtx()) * INT_CSI_SCALE_FACTOR;
+	}
 
-					csi_matrix[rx][tx][sc] = ret;
-				}
-			}
+	/**
+	 * @return the correction for the power split across multiple tx antennas
+	 */
+	public static double txScale(int ntx) {
+		switch(ntx) {
+			case 2: return sqrt(2);
+			case 3: return sqrt(Util.dbinv(4.5));
+			default: return 1.0;
 		}
 	}
 
@@ -12,12 +12,26 @@ import java.nio.ByteBuffer;
 public class SubscriptionMessage extends Message {
 	
 	private final SubscriptionOptions options;
+	private final int replyPort; // the port to send data to if it differs from the source port, 0 otherwise
+
+	public SubscriptionMessage(SubscriptionOptions options) {
+		this(options, 0);
+	}
+
+	public SubscriptionMessage(SubscriptionOptions options, int replyPort) {
+		this.options = options;
+		this.replyPort = replyPort;
+	}
 	
 	@Override
 	public byte[] toBytes() {
-		ByteBuffer buffer = ByteBuffer.allocate(5);
+		// the reply port is only appended if set, servers not supporting it read the first 5 bytes
+		ByteBuffer buffer = ByteBuffer.allocate(replyPort != 0 ? 7 : 5);
 		buffer.put(DataClient.TYPE_SUBSCRIBE);
 		buffer.putInt(options.filter_options.payload_size);
+		if(replyPort != 0) {
+			buffer.putShort((short) replyPort);
+		}
 		return buffer.array();
 	}
 	
@@ -1,11 +1,11 @@
 package de.putterer.indloc.csi.processing;
 
 import de.putterer.indloc.csi.CSIInfo;
+import de.putterer.indloc.csi.CSIRingBuffer;
 import de.putterer.indloc.data.DataInfo;
 
 import java.security.InvalidParameterException;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.List;
 
 import static de.putterer.indloc.util.CSIUtil.bound;
@@ -17,8 +17,8 @@ public class PhaseExtractor {
 		return info.stream().map(csi -> {
 			double[] diffs = new double[csi.getNumTones()];
 
-			double[] rx1Phase = Arrays.stream(csi.getCsi_matrix()[rx1][0]).mapToDouble(CSIInfo.Complex::getPhase).toArray();
-			double[] rx2Phase = Arrays.stream(csi.getCsi_matrix()[rx2][0]).mapToDouble(CSIInfo.Complex::getPhase).toArray();
+			double[] rx1Phase = csi.getPhases(rx1, 0);
+			double[] rx2Phase = csi.getPhases(rx2, 0);
 			unwrapPhase(rx1Phase);
 			unwrapPhase(rx2Phase);
 //			previousPhaseMean[0] = timeUnwrapped(rx1Phase, previousPhaseMean[0]); not really necessary
@@ -33,6 +33,31 @@ public class PhaseExtractor {
 		}).toArray(double[][]::new);
 	}
 
+	/**
+	 * extracts the phase differences of all frames of a window, like extractFromCSI
+	 * @return the phase differences, [time][subcarrier]
+	 */
+	public static double[][] extract(int rx1, int rx2, int tx, CSIRingBuffer.Window window) {
+		double[][] result = new double[window.size()][];
+		double[] rx1Phase = new double[window.getTones()];
+		double[] rx2Phase = new double[window.getTones()];
+		for(int t = 0;t < result.length;t++) {
+			for(int sc = 0;sc < rx1Phase.length;sc++) {
+				rx1Phase[sc] = window.getPhase(t, rx1, tx, sc);
+				rx2Phase[sc] = window.getPhase(t, rx2, tx, sc);
+			}
+			unwrapPhase(rx1Phase);
+			unwrapPhase(rx2Phase);
+
+			double[] diffs = new double[rx1Phase.length];
+			for(int i = 0;i < diffs.length;i++) {
+				diffs[i] = bound(rx1Phase[i] - rx2Phase[i]);
+			}
+			result[t] = diffs;
+		}
+		return result;
+	}
+
 	public static double[][] extract(int rx1, int rx2, int tx, List<DataInfo> info) {
 		if(! info.stream().allMatch(i -> i instanceof CSIInfo)) {
 			throw new InvalidParameterException("List must just contain CSI info");
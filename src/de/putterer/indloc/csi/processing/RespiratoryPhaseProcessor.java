@@ -1,5 +1,6 @@
 package de.putterer.indloc.csi.processing;
 
+import de.putterer.indloc.csi.CSIRingBuffer;
 import de.putterer.indloc.data.DataInfo;
 
 import java.util.Arrays;
@@ -13,7 +14,14 @@ public class RespiratoryPhaseProcessor {
 	//also called by preview, but with one datainfo --> over time effects disregarded in that case
 	// trunactedMeanLength depends on samplingRate
 	public static double[][] process(int rx1, int rx2, int tx, List<DataInfo> info, int truncatedMeanLength, double truncatedMeanPct) {
-		double[][] phase = PhaseExtractor.extract(rx1, rx2, tx, info);   // phase[time][subcarrier]
+		return process(PhaseExtractor.extract(rx1, rx2, tx, info), truncatedMeanLength, truncatedMeanPct);
+	}
+
+	public static double[][] process(int rx1, int rx2, int tx, CSIRingBuffer.Window window, int truncatedMeanLength, double truncatedMeanPct) {
+		return process(PhaseExtractor.extract(rx1, rx2, tx, window), truncatedMeanLength, truncatedMeanPct);
+	}
+
+	private static double[][] process(double[][] phase, int truncatedMeanLength, double truncatedMeanPct) { // phase[time][subcarrier]
 		int subcarriers = phase[0].length;
 		int samples = phase.length;
 
@@ -29,7 +37,7 @@ public class RespiratoryPhaseProcessor {
 //		unwrapPhase(result);
 
 		// Abort for preview when only processing a single sample
-		if(info.size() == 1 || truncatedMeanLength <= 1) {
+		if(samples == 1 || truncatedMeanLength <= 1) {
 			return phase;
 		}
 
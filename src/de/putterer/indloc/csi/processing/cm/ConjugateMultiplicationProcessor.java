@@ -2,15 +2,17 @@ package de.putterer.indloc.csi.processing.cm;
 
 import de.putterer.indloc.csi.CSIInfo;
 import de.putterer.indloc.csi.CSIInfo.Complex;
+import de.putterer.indloc.csi.CSIMatrix;
 import de.putterer.indloc.data.DataInfo;
 import de.putterer.indloc.util.CSIUtil;
+import de.putterer.indloc.util.ComplexKernels;
+import de.putterer.indloc.util.PlaneKernels;
 import lombok.Data;
 import lombok.RequiredArgsConstructor;
 
-import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Iterator;
 import java.util.LinkedList;
-import java.util.List;
 import java.util.stream.IntStream;
 
 public class ConjugateMultiplicationProcessor {
@@ -23,7 +25,8 @@ public class ConjugateMultiplicationProcessor {
     private final double stddevThresholdForSamePhaseDetection; // threshold for detecting invalid samples where all subcarriers contain the same phase data
     private final double thresholdForOffsetCorrection; // threshold for diff while detecting same samples that have been phase shifted (rotated)
 
-    private final List<PreviousCMEntry> previousData = new LinkedList<>();
+    private final LinkedList<PreviousCMEntry> previousData = new LinkedList<>();
+    private double[] averageRe = new double[0], averageIm = new double[0]; // reused accumulators of getAverage
 
     public ConjugateMultiplicationProcessor(int rx1, int tx1, int rx2, int tx2, int slidingWindowSize, int timestampCountForAverage, double stddevThresholdForSamePhaseDetection, double thresholdForOffsetCorrection) {
         this.rx1 = rx1;
@@ -122,13 +125,25 @@ public class ConjugateMultiplicationProcessor {
     }
 
     public Complex[] getAverage(Complex[] input) {
-        Complex[] sum = new Complex[input.length];
-        Arrays.fill(sum, new Complex(0, 0));
+        int length = input.length;
+        if(averageRe.length != length) {
+            averageRe = new double[length];
+            averageIm = new double[length];
+        }
+        Arrays.fill(averageRe, 0.0);
+        Arrays.fill(averageIm, 0.0);
+
         int elementCount = Math.min(timestampCountForAverage, previousData.size());
+        Iterator<PreviousCMEntry> iterator = previousData.descendingIterator();
         for(int i = 0;i < elementCount;i++) {
-            sum = CSIUtil.sum(sum, previousData.get(previousData.size() - 1 - i).processed);
+            Complex[] processed = iterator.next().processed;
+            for(int sc = 0;sc < length;sc++) {
+                averageRe[sc] += processed[sc].getReal();
+                averageIm[sc] += processed[sc].getImag();
+            }
         }
-        return CSIUtil.scale(sum, 1.0 / ((double)elementCount));
+        ComplexKernels.scale(averageRe, averageIm, 1.0 / ((double)elementCount), length);
+        return CSIUtil.toComplex(averageRe, averageIm);
     }
 
     public Complex[] getRawConjugateMultiplicative(DataInfo info) {
@@ -136,18 +151,21 @@ public class ConjugateMultiplicationProcessor {
             throw new IllegalArgumentException("unsupported data info type " + info.getClass());
         }
         CSIInfo csi = (CSIInfo)info;
+        CSIMatrix matrix = csi.getCsi();
 
         int subcarriers = csi.getNumTones();
-        List<Complex> result = new ArrayList<>();
-
-        for(int subcarrier = 0;subcarrier < subcarriers;subcarrier++) {
-            Complex v1 = csi.getCsi_matrix()[rx1][tx1][subcarrier];
-            Complex v2 = csi.getCsi_matrix()[rx2][tx2][subcarrier];
-
-            result.add(v1.prod(v2.conjugate()));
+        if(! matrix.contains(rx1, tx1, subcarriers - 1) || ! matrix.contains(rx2, tx2, subcarriers - 1)) {
+            return IntStream.range(0, subcarriers).mapToObj(i -> new Complex(0, 0)).toArray(Complex[]::new);
         }
 
-        return result.toArray(new Complex[0]);
+        double[] re = new double[subcarriers];
+        double[] im = new double[subcarriers];
+        PlaneKernels.getInstance().conjugateMultiply(
+                matrix.getReal(), matrix.getImag(), matrix.index(rx1, tx1, 0),
+                matrix.getReal(), matrix.getImag(), matrix.index(rx2, tx2, 0),
+                re, im, subcarriers
+        );
+        return CSIUtil.toComplex(re, im);
     }
 
     @Data
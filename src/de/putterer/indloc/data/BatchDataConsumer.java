@@ -0,0 +1,19 @@
+package de.putterer.indloc.data;
+
+import lombok.Getter;
+
+import java.util.function.Consumer;
+
+/**
+ * A consumer receiving data in batches, as delivered by the batch receive mode or a replay
+ * Every batch only contains data infos matching the type, data delivered individually is passed as a batch of one
+ */
+@Getter
+public class BatchDataConsumer<T> extends DataConsumer<T> {
+	private final Consumer<DataInfo[]> batchConsumer;
+
+	public BatchDataConsumer(Class<T> type, Consumer<DataInfo[]> batchConsumer) {
+		super(type, info -> batchConsumer.accept(new DataInfo[] { (DataInfo) info }));
+		this.batchConsumer = batchConsumer;
+	}
+}
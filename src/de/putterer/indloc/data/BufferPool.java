@@ -0,0 +1,117 @@
+package de.putterer.indloc.data;
+
+import lombok.Getter;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A fixed size pool of direct receive buffers handed out as reference counted leases
+ * A buffer returns to the pool once the last holder of its lease released it,
+ * if the pool is exhausted no buffer is handed out and the caller has to drop its data
+ */
+public class BufferPool {
+
+	@Getter private final int bufferSize;
+	@Getter private final int capacity;
+	private final ArrayBlockingQueue<ByteBuffer> freeBuffers;
+
+	private final AtomicInteger leasedBuffers = new AtomicInteger(0);
+	private final LongAdder exhaustions = new LongAdder();
+
+	public BufferPool(int capacity, int bufferSize) {
+		this.capacity = capacity;
+		this.bufferSize = bufferSize;
+		this.freeBuffers = new ArrayBlockingQueue<>(capacity);
+		for(int i = 0;i < capacity;i++) {
+			freeBuffers.add(ByteBuffer.allocateDirect(bufferSize));
+		}
+	}
+
+	/**
+	 * @return a cleared buffer with a reference count of one, null if all buffers are leased
+	 */
+	public Lease acquire() {
+		ByteBuffer buffer = freeBuffers.poll();
+		if(buffer == null) {
+			exhaustions.increment();
+			return null;
+		}
+		leasedBuffers.incrementAndGet();
+		buffer.clear();
+		return new Lease(buffer);
+	}
+
+	/**
+	 * @return the number of buffers currently leased
+	 */
+	public int getLeasedBuffers() {
+		return leasedBuffers.get();
+	}
+
+	public int getFreeBuffers() {
+		return freeBuffers.size();
+	}
+
+	/**
+	 * @return how often the pool was exhausted and no buffer could be handed out
+	 */
+	public long getExhaustions() {
+		return exhaustions.sum();
+	}
+
+	/**
+	 * A leased buffer, every holder has to call release once
+	 */
+	public class Lease {
+		private final ByteBuffer buffer;
+		private final AtomicInteger references = new AtomicInteger(1);
+
+		private Lease(ByteBuffer buffer) {
+			this.buffer = buffer;
+		}
+
+		/**
+		 * @return the underlying buffer, to be filled and flipped by the owner before handing out payloads
+		 */
+		public ByteBuffer buffer() {
+			return buffer;
+		}
+
+		/**
+		 * @return a view of the flipped content with its own position, shares the memory of the buffer
+		 */
+		public ByteBuffer payload() {
+			return buffer.slice();
+		}
+
+		/**
+		 * adds a reference, e.g. before handing the lease to another thread
+		 * @return this lease
+		 */
+		public Lease retain() {
+			if(references.getAndIncrement() <= 0) {
+				throw new IllegalStateException("Lease already released");
+			}
+			return this;
+		}
+
+		/**
+		 * drops a reference, the buffer is returned to the pool once no references are left
+		 */
+		public void release() {
+			int remaining = references.decrementAndGet();
+			if(remaining > 0) {
+				return;
+			}
+			if(remaining < 0) {
+				throw new IllegalStateException("Lease released more often than retained");
+			}
+
+			leasedBuffers.decrementAndGet();
+			freeBuffers.offer(buffer);
+		}
+	}
+}
@@ -1,6 +1,8 @@
 package de.putterer.indloc.data;
 
+import de.putterer.indloc.Config;
 import de.putterer.indloc.Station;
+import de.putterer.indloc.csi.CSIInfo;
 import de.putterer.indloc.csi.atheros.AthCSIInfo;
 import de.putterer.indloc.csi.calibration.AndroidInfo;
 import de.putterer.indloc.csi.intel.IntCSIInfo;
@@ -8,19 +10,24 @@ import de.putterer.indloc.csi.messages.SubscriptionMessage;
 import de.putterer.indloc.csi.messages.SubscriptionMessage.SubscriptionOptions;
 import de.putterer.indloc.util.Logger;
 import de.putterer.indloc.util.Observable;
+import lombok.AccessLevel;
 import lombok.Getter;
 
 import java.io.IOException;
-import java.net.DatagramPacket;
-import java.net.DatagramSocket;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
-import java.util.stream.Stream;
 
 /**
  * Represents a connection + subscription to a data server, this can be a CSI server or an acceleration server
@@ -28,7 +35,7 @@ import java.util.stream.Stream;
  */
 @Getter
 public class DataClient {
-	private static final int SERVER_PORT = 9380;
+	public static final int SERVER_PORT = 9380;
 	private static final int CLIENT_PORT = 9381;
 
 	// Message types
@@ -42,68 +49,64 @@ public class DataClient {
 	public static final byte TYPE_ACCELERATION_INFO = 20;
 	
 	public static final int MAX_MESSAGE_LENGTH = 65507;
+	private static final long RESUBSCRIBE_DELAY_MS = 500;
+	private static final long INGEST_WORKER_STOP_TIMEOUT_MS = 1000;
 
 	// Can be used to filter for CSI Info objects cause by ICMP echo
 	public static final int DEFAULT_ICMP_PAYLOAD_LENGTH = 124;
 	
 	private static int SUBSCRIPTION_ID_FACTORY = 0;
 	
-	private static DatagramSocket socket;
-	private static List<DataClient> clients = new ArrayList<>();
+	private static DataReceiver receiver;
+	private static final List<DataClient> clients = new CopyOnWriteArrayList<>();
+	private static final SubscriptionManager subscriptionManager = new SubscriptionManager(
+			Config.SUBSCRIPTION_RETRY_INITIAL_DELAY_MS,
+			Config.SUBSCRIPTION_RETRY_MAX_DELAY_MS,
+			Config.SUBSCRIPTION_TIMEOUT_ATTEMPTS,
+			Config.SUBSCRIPTION_STALE_INTERVAL_MS
+	);
 	
 	static {
 		try {
-			socket = new DatagramSocket(CLIENT_PORT);
+			receiver = new DataReceiver(CLIENT_PORT, Config.RECEIVE_MODE, Config.RECEIVE_MAX_BATCH_SIZE,
+					Config.RECEIVE_SHARDS, Config.RECEIVE_SHARDING_MODE);
 		} catch(IOException e) {
 			System.err.println("Could not open socket for receiving CSI");
 			e.printStackTrace();
 			System.exit(-1);
 		}
 		
-		Logger.info("Starting csi client on port %d...", CLIENT_PORT);
-		new Thread(DataClient::listener).start();
-	}
-
-	/**
-	 * listens for incoming messages
-	 */
-	public static void listener() {
-		byte[] buffer = new byte[MAX_MESSAGE_LENGTH];
-		while(true) {
-			DatagramPacket packet = new DatagramPacket(buffer, MAX_MESSAGE_LENGTH);
-			try {
-				socket.receive(packet);
-			} catch(IOException e) {
-				Logger.error("Error while reading from datagram socket");
-				e.printStackTrace();
-			}
-			Logger.trace("Received %d bytes from %s", packet.getLength(), packet.getAddress().getHostAddress());
-			synchronized (clients) {
-				for(DataClient client : clients) {
-					if(client.getStation().getIP_ADDRESS().equals(packet.getAddress().getHostAddress())) {
-						client.onPacket(packet);
-					}
-				}
-			}
-		}
+		receiver.start();
 	}
 
 	public static DataClient addClient(DataClient client) {
-		synchronized (clients) {
-			clients.add(client);
-			client.subscribe();
+		clients.add(client);
+		if(client.usesDatagramTransport()) {
+			client.startIngestWorker();
+			receiver.register(client);
 		}
+		client.subscribe();
 		return client;
 	}
 	
 	public static DataClient removeClient(DataClient client) {
-		synchronized (clients) {
-			clients.remove(client);
-			client.unsubscribe();
+		clients.remove(client);
+		if(client.usesDatagramTransport()) {
+			receiver.unregister(client);
+			client.stopIngestWorker();
 		}
+		client.unsubscribe();
 		return client;
 	}
 
+	public static DataReceiver getReceiver() {
+		return receiver;
+	}
+
+	public static SubscriptionManager getSubscriptionManager() {
+		return subscriptionManager;
+	}
+
 	public static List<DataClient> getClients() {
 		return List.copyOf(clients);
 	}
@@ -116,11 +119,25 @@ public class DataClient {
 
 
 	protected final Station station; // the station this client is connected to
-	protected boolean connected = false; // whether the subscription was successful
-	protected boolean timedOut = false;
+	protected volatile boolean connected = false; // whether the subscription was successful
+	protected volatile boolean timedOut = false;
+	private volatile long lastPacketTime = 0; // when the last packet from the station was received, unix timestamp in millis
 	protected final int subscriptionId;
-	protected final DataConsumer<? extends DataInfo>[] consumers; // callback to be called when CSIInfo was received from this station
+	protected volatile DataConsumer<? extends DataInfo>[] consumers; // callback to be called when CSIInfo was received from this station, replaced on change
+	@Getter(AccessLevel.NONE) private final Object consumersLock = new Object();
+	@Getter(AccessLevel.NONE) private volatile Map<Class<?>, DataConsumer<?>[]> dispatchTable = Collections.emptyMap(); // applicable consumers by data type, replaced on change
 	private final SubscriptionOptions subscriptionOptions; // the subscription options for this client, e.g. payload length filter
+	private InetSocketAddress serverAddress; // resolved once, used for sending and as the receive registry key
+
+	// decouples receiving from processing, only for datagram based clients
+	private int ingestQueueCapacity = Config.INGEST_QUEUE_CAPACITY;
+	private IngestQueue.OverflowPolicy ingestOverflowPolicy = Config.INGEST_OVERFLOW_POLICY;
+	@Getter(AccessLevel.NONE) private int maxBatchSize = 1;
+	@Getter(AccessLevel.NONE) private long maxBatchLatencyNanos = 0;
+	private IngestQueue ingestQueue;
+	@Getter(AccessLevel.NONE) private Thread ingestWorker;
+	@Getter(AccessLevel.NONE) private volatile boolean ingestRunning = false;
+	private final SequenceTracker sequenceTracker = new SequenceTracker(); // loss statistics from the message ids
 
 	// only for acceleration clients
 	private float[] accelerationCalibration = null;
@@ -130,7 +147,8 @@ public class DataClient {
 
 	public DataClient(Station station, SubscriptionOptions subscriptionOptions, DataConsumer<? extends DataInfo>... consumers) {
 		this.station = station;
-		this.consumers = consumers;
+		this.consumers = newConsumerArray(consumers.length); // the varargs array belongs to the caller
+		System.arraycopy(consumers, 0, this.consumers, 0, consumers.length);
 
 		this.subscriptionOptions = Objects.requireNonNullElseGet(
 				subscriptionOptions,
@@ -145,24 +163,37 @@ public class DataClient {
 	}
 
 	/**
-	 * Sends a subscription message to the associated station
+	 * Subscribes to the associated station, retried in the background until confirmed
 	 */
 	public void subscribe() {
-		new Thread(() -> {
-			for(int i = 0;i < 10 && !connected;i++) {
-				Logger.info("Subscribing to %s, subscription id: %d, attempt %d/10", station.getIP_ADDRESS(), subscriptionId, i + 1);
-				send(new SubscriptionMessage(
-						subscriptionOptions
-					).toBytes()
-				);
-				try { Thread.sleep(2000); } catch(InterruptedException e) {e.printStackTrace();}
-			}
-			if(!connected) {
-				Logger.warn("Subscription for %s timed out", station.getIP_ADDRESS());
-				timedOut = true;
-				statusUpdateCallback.set(station);
-			}
-		}).start();
+		subscriptionManager.subscribe(this);
+	}
+
+	/**
+	 * Sends a single subscription message to the associated station
+	 */
+	protected void sendSubscription() {
+		send(new SubscriptionMessage(
+				subscriptionOptions,
+				getReplyPort()
+			).toBytes()
+		);
+	}
+
+	/**
+	 * Called by the subscription manager once the subscription wasn't confirmed after the configured number of attempts
+	 */
+	void onSubscriptionTimedOut() {
+		timedOut = true;
+		statusUpdateCallback.set(station);
+	}
+
+	/**
+	 * Called by the subscription manager if a confirmed subscription stopped delivering packets
+	 */
+	void onSubscriptionStale() {
+		connected = false;
+		statusUpdateCallback.set(station);
 	}
 
 	/**
@@ -170,6 +201,7 @@ public class DataClient {
 	 * BEST EFFORT, the success it not confirmed nor repeated
 	 */
 	public void unsubscribe() {
+		subscriptionManager.cancel(this);
 		send(new byte[] {TYPE_UNSUBSCRIBE});
 		connected = false;
 		timedOut = false;
@@ -177,91 +209,362 @@ public class DataClient {
 	}
 
 	/**
-	 * Called on receiving a datagram packet from the associated station
-	 * @param packet
+	 * Unsubscribes and subscribes again once the unsubscription had time to arrive
+	 */
+	public void resubscribe() {
+		unsubscribe();
+		subscriptionManager.schedule(this::subscribe, RESUBSCRIBE_DELAY_MS);
+	}
+
+	/**
+	 * Called by the receiver for every datagram from the associated station
+	 * The lease is only valid for the duration of the call unless retained
+	 * @param lease the leased receive buffer holding the datagram
+	 */
+	protected void onDatagram(BufferPool.Lease lease) {
+		ingestQueue.offer(lease.retain());
+	}
+
+	/**
+	 * Configures the ingest queue, has to be called before the client is added
+	 * @param capacity the maximum number of queued datagrams
+	 * @param overflowPolicy what to do once the queue is full
+	 * @return this client
 	 */
-	protected void onPacket(DatagramPacket packet) {
-		if(packet.getLength() == 0) {
+	public DataClient setIngestQueue(int capacity, IngestQueue.OverflowPolicy overflowPolicy) {
+		this.ingestQueueCapacity = capacity;
+		this.ingestOverflowPolicy = overflowPolicy;
+		return this;
+	}
+
+	private void startIngestWorker() {
+		if(receiver.getMode() == DataReceiver.ReceiveMode.BATCH) {
+			maxBatchSize = Config.RECEIVE_MAX_BATCH_SIZE;
+			maxBatchLatencyNanos = TimeUnit.MILLISECONDS.toNanos(Config.RECEIVE_MAX_BATCH_LATENCY_MS);
+		}
+		ingestQueue = new IngestQueue(ingestQueueCapacity, ingestOverflowPolicy);
+		ingestRunning = true;
+		ingestWorker = new Thread(this::ingestWorker, "ingest-" + station.getIP_ADDRESS());
+		ingestWorker.start();
+	}
+
+	/**
+	 * closes the ingest queue and waits for the worker to finish the packet it is processing
+	 * a consumer swallowing the interrupt doesn't keep the worker alive, it stops after the current batch
+	 */
+	private void stopIngestWorker() {
+		if(ingestWorker == null) {
 			return;
 		}
+		ingestRunning = false;
+		ingestQueue.close();
+		ingestWorker.interrupt();
+
+		if(Thread.currentThread() != ingestWorker) { // removed by one of its own consumers
+			try {
+				ingestWorker.join(INGEST_WORKER_STOP_TIMEOUT_MS);
+			} catch(InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			if(ingestWorker.isAlive()) {
+				Logger.warn("Ingest worker of station %s did not stop within %d ms", station.getIP_ADDRESS(), INGEST_WORKER_STOP_TIMEOUT_MS);
+			}
+		}
+		ingestQueue.clear();
+	}
+
+	/**
+	 * processes the queued datagrams of this station, in batches if batch receiving is enabled
+	 */
+	private void ingestWorker() {
+		BufferPool.Lease[] batch = new BufferPool.Lease[maxBatchSize];
+		while(ingestRunning) {
+			int count;
+			try {
+				// waiting for further datagrams only pays off for batch consumers, otherwise the backlog is drained as is
+				count = ingestQueue.take(batch, hasBatchConsumers() ? maxBatchLatencyNanos : 0);
+			} catch(InterruptedException e) {
+				break;
+			}
+
+			if(count == 1) {
+				try {
+					onPacket(batch[0].payload());
+				} catch(Exception e) {
+					Logger.error("Error while processing packet from station %s", station.getIP_ADDRESS());
+					e.printStackTrace();
+				} finally {
+					batch[0].release();
+				}
+				continue;
+			}
+
+			List<DataInfo> infos = new ArrayList<>(count);
+			for(int i = 0;i < count;i++) {
+				try {
+					DataInfo info = parse(batch[i].payload());
+					if(info != null) {
+						infos.add(info);
+					}
+				} catch(Exception e) {
+					Logger.error("Error while processing packet from station %s", station.getIP_ADDRESS());
+					e.printStackTrace();
+				} finally {
+					batch[i].release();
+					batch[i] = null;
+				}
+			}
+			deliver(infos.toArray(new DataInfo[0]));
+		}
+		ingestQueue.clear();
+	}
+
+	/**
+	 * Parses a datagram from the associated station and passes the result on to the consumers
+	 * @param packet the payload of the datagram, starting with the message type
+	 */
+	protected void onPacket(ByteBuffer packet) {
+		DataInfo info = parse(packet);
+		if(info != null) {
+			deliver(info);
+		}
+	}
+
+	/**
+	 * Parses a datagram from the associated station, control messages are handled directly
+	 * @param packet the payload of the datagram, starting with the message type
+	 * @return the received data info, null for control messages
+	 */
+	protected DataInfo parse(ByteBuffer packet) {
+		if(! packet.hasRemaining()) {
+			return null;
+		}
 		
-		switch(packet.getData()[0]) {
+		lastPacketTime = System.currentTimeMillis();
+		byte type = packet.get();
+		switch(type) {
 		case TYPE_CONFIRM_SUBSCRIPTION: {
 			Logger.info("Subscription confirmed by station %s", station.getIP_ADDRESS());
-			if(packet.getLength() > 1) {
-				var byteBuffer = ByteBuffer.wrap(packet.getData(), 1, packet.getLength());
-				accelerationCalibration = new float[] {byteBuffer.getFloat(), byteBuffer.getFloat(), byteBuffer.getFloat()};
+			if(packet.hasRemaining()) {
+				accelerationCalibration = new float[] {packet.getFloat(), packet.getFloat(), packet.getFloat()};
 				Logger.info("Received acceleration calibration:  X:%.3f, Y:%.3f, Z:%.3f", accelerationCalibration[0], accelerationCalibration[1], accelerationCalibration[2]);
 			}
 			connected = true;
+			timedOut = false;
 			statusUpdateCallback.set(station);
-			break;
+			return null;
 		}
 		
 		case TYPE_CONFIRM_UNSUBSCRIPTION: {
 			Logger.info("Unsubscription confirmed by station %s", station.getIP_ADDRESS());
-			break;
+			return null;
 		}
 		
 		case TYPE_ATH_CSI_INFO: {
 			Logger.trace("Got atheros csi from station %s", station.getIP_ADDRESS());
 			packetsReceived.set(packetsReceived.get() + 1);
-			AthCSIInfo info = new AthCSIInfo(ByteBuffer.wrap(packet.getData(), 1, packet.getLength() - 1));
-
-			if(station.getActivityDetector() != null) {
-				station.getActivityDetector().onCsiInfo(info);
-			}
-
-			getApplicableConsumers(AthCSIInfo.class).forEach(c -> c.accept(info));
-			break;
+			return track(new AthCSIInfo(packet));
 		}
 
 		case TYPE_INT_CSI_INFO: {
 			Logger.trace("Got intel csi from station %s", station.getIP_ADDRESS());
 			packetsReceived.set(packetsReceived.get() + 1);
-			IntCSIInfo info = new IntCSIInfo(ByteBuffer.wrap(packet.getData(), 1, packet.getLength() - 1));
-
-
-			if(station.getActivityDetector() != null) {
-				station.getActivityDetector().onCsiInfo(info);
-			}
-
-			getApplicableConsumers(IntCSIInfo.class).forEach(c -> c.accept(info));
-			break;
+			return track(new IntCSIInfo(packet));
 		}
 
 		case TYPE_ACCELERATION_INFO: {
 			Logger.trace("Got acceleration info from station %s", station.getIP_ADDRESS());
 			packetsReceived.set(packetsReceived.get() + 1);
-			AndroidInfo info = new AndroidInfo(ByteBuffer.wrap(packet.getData(), 1, packet.getLength() - 1), accelerationCalibration);
-
-			getApplicableConsumers(AndroidInfo.class).forEach(c -> c.accept(info));
-			break;
+			return track(new AndroidInfo(packet, accelerationCalibration));
 		}
 
 		default: {
-			Logger.warn("Received packet with unknown type %d from station %s", packet.getData()[0], station.getIP_ADDRESS());
+			Logger.warn("Received packet with unknown type %d from station %s", type, station.getIP_ADDRESS());
+			return null;
+		}
+		}
+	}
+
+	/**
+	 * passes the message id of a received data info on to the sequence tracker
+	 * @param info the data info
+	 * @return the data info
+	 */
+	protected <T extends DataInfo> T track(T info) {
+		sequenceTracker.onMessage(info);
+		return info;
+	}
+
+	/**
+	 * passes a received data info on to the activity detector and the consumers
+	 * @param info the data info
+	 */
+	protected void deliver(DataInfo info) {
+		if(info instanceof CSIInfo && station.getActivityDetector() != null) {
+			station.getActivityDetector().onCsiInfo((CSIInfo) info);
+		}
+
+		dispatch(info);
+	}
+
+	/**
+	 * passes a batch of received data infos on, batch consumers receive the applicable part at once
+	 * @param batch the data infos in order of reception
+	 */
+	protected void deliver(DataInfo[] batch) {
+		if(station.getActivityDetector() != null) {
+			for(DataInfo info : batch) {
+				if(info instanceof CSIInfo) {
+					station.getActivityDetector().onCsiInfo((CSIInfo) info);
+				}
+			}
+		}
+
+		boolean hasBatchConsumers = false;
+		for(DataInfo info : batch) {
+			for(DataConsumer<?> consumer : getApplicableConsumers(info.getClass())) {
+				if(consumer instanceof BatchDataConsumer) {
+					hasBatchConsumers = true;
+				} else {
+					accept(consumer, info);
+				}
+			}
+		}
+		if(! hasBatchConsumers) {
+			return;
+		}
+
+		for(DataConsumer<? extends DataInfo> consumer : consumers) {
+			if(consumer instanceof BatchDataConsumer) {
+				DataInfo[] applicable = Arrays.stream(batch).filter(consumer.getType()::isInstance).toArray(DataInfo[]::new);
+				if(applicable.length != 0) {
+					((BatchDataConsumer<?>) consumer).getBatchConsumer().accept(applicable);
+				}
+			}
+		}
+	}
+
+	private boolean hasBatchConsumers() {
+		for(DataConsumer<? extends DataInfo> consumer : consumers) {
+			if(consumer instanceof BatchDataConsumer) {
+				return true;
+			}
 		}
+		return false;
+	}
+
+	/**
+	 * passes a data info on to the consumers accepting its type
+	 * @param info the data info
+	 */
+	protected void dispatch(DataInfo info) {
+		for(DataConsumer<?> consumer : getApplicableConsumers(info.getClass())) {
+			accept(consumer, info);
 		}
 	}
 
+	/**
+	 * passes a data info on to a consumer, the consumer has to accept its type, see getApplicableConsumers
+	 */
+	@SuppressWarnings("unchecked")
+	private static void accept(DataConsumer<?> consumer, DataInfo info) {
+		((Consumer<DataInfo>) consumer.getConsumer()).accept(info);
+	}
+
 	/**
 	 * sends data to the associated station
 	 * @param buffer the data to send
 	 */
 	protected void send(byte buffer[]) {
 		try {
-			DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
-			packet.setAddress(InetAddress.getByName(station.getIP_ADDRESS()));
-			packet.setPort(SERVER_PORT);
-			socket.send(packet);
+			receiver.send(ByteBuffer.wrap(buffer), getServerAddress());
 		} catch(IOException e) {
 			e.printStackTrace();
 		}
 	}
 
-	protected <T> Stream<Consumer<T>> getApplicableConsumers(Class<T> type) {
-		return Arrays.stream(consumers).filter(c -> type.isAssignableFrom(c.getType()))
-				.map(c -> (Consumer<T>) c.getConsumer());
+	/**
+	 * @return the address of the data server, resolved on first use
+	 * @throws UnknownHostException if the station's address cannot be resolved
+	 */
+	public InetSocketAddress getServerAddress() throws UnknownHostException {
+		if(serverAddress == null) {
+			serverAddress = new InetSocketAddress(InetAddress.getByName(station.getIP_ADDRESS()), SERVER_PORT);
+		}
+		return serverAddress;
+	}
+
+	/**
+	 * @return the port of this station's receiver shard if it has to be announced, 0 otherwise
+	 */
+	private int getReplyPort() {
+		if(receiver.getShardCount() == 1 || receiver.getShardingMode() != DataReceiver.ShardingMode.PORT_PER_SHARD) {
+			return 0;
+		}
+		try {
+			return receiver.getShardPort(getServerAddress().getAddress());
+		} catch(UnknownHostException e) {
+			return 0;
+		}
+	}
+
+	/**
+	 * @return whether this client receives its data through the shared datagram receiver
+	 */
+	protected boolean usesDatagramTransport() {
+		return true;
+	}
+
+	/**
+	 * @param type the type of a data info
+	 * @return the consumers accepting the type, the array is shared and must not be modified
+	 */
+	protected DataConsumer<?>[] getApplicableConsumers(Class<?> type) {
+		DataConsumer<?>[] applicable = dispatchTable.get(type);
+		if(applicable != null) {
+			return applicable;
+		}
+
+		synchronized (consumersLock) {
+			applicable = Arrays.stream(consumers)
+					.filter(c -> c.getType().isAssignableFrom(type))
+					.toArray(DataConsumer<?>[]::new);
+			Map<Class<?>, DataConsumer<?>[]> newDispatchTable = new HashMap<>(dispatchTable);
+			newDispatchTable.put(type, applicable);
+			dispatchTable = newDispatchTable;
+		}
+		return applicable;
+	}
+
+	/**
+	 * adds a consumer, can be called while receiving
+	 * @param consumer the consumer
+	 */
+	public void addConsumer(DataConsumer<? extends DataInfo> consumer) {
+		synchronized (consumersLock) {
+			DataConsumer<? extends DataInfo>[] newConsumers = Arrays.copyOf(consumers, consumers.length + 1);
+			newConsumers[consumers.length] = consumer;
+			consumers = newConsumers;
+			dispatchTable = Collections.emptyMap();
+		}
+	}
+
+	/**
+	 * removes a consumer, can be called while receiving
+	 * @param consumer the consumer
+	 */
+	public void removeConsumer(DataConsumer<? extends DataInfo> consumer) {
+		synchronized (consumersLock) {
+			consumers = Arrays.stream(consumers).filter(c -> c != consumer).toArray(DataClient::newConsumerArray);
+			dispatchTable = Collections.emptyMap();
+		}
+	}
+
+	/**
+	 * generic arrays can't be created directly, the array only ever holds data consumers
+	 */
+	@SuppressWarnings("unchecked")
+	private static DataConsumer<? extends DataInfo>[] newConsumerArray(int length) {
+		return (DataConsumer<? extends DataInfo>[]) new DataConsumer<?>[length];
 	}
 }
@@ -0,0 +1,394 @@
+package de.putterer.indloc.data;
+
+import de.putterer.indloc.util.Logger;
+import lombok.Getter;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardSocketOptions;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Receives the datagrams of all UDP based data clients and dispatches them by source address
+ * Receiving can be sharded over several channels with one thread each, every station is assigned a fixed shard
+ * The registry is copy on write and shared by all shards, the receive path never takes a lock
+ */
+public class DataReceiver {
+
+	private static final int RECEIVE_BUFFER_POOL_SIZE = 256;
+	private static final int SOCKET_RECEIVE_BUFFER_SIZE = 4 * 1024 * 1024; // absorbs bursts, capped by the OS
+
+	private final int port;
+	@Getter private final ReceiveMode mode;
+	@Getter private final ShardingMode shardingMode;
+	private final int maxBatchSize;
+	private final Shard[] shards;
+
+	private final Object registryLock = new Object();
+	private volatile Map<InetAddress, DataClient[]> registry = Collections.emptyMap(); // replaced, never modified
+
+	@Getter
+	private final BufferPool bufferPool;
+
+	private final LongAdder packetsDispatched = new LongAdder();
+	private final LongAdder unknownSourcePackets = new LongAdder();
+
+	public DataReceiver(int port, ReceiveMode mode, int maxBatchSize) throws IOException {
+		this(port, mode, maxBatchSize, 1, ShardingMode.PORT_PER_SHARD);
+	}
+
+	/**
+	 * @param port the port of the first shard
+	 * @param mode how datagrams are read from the channels
+	 * @param maxBatchSize the maximum number of datagrams drained per wakeup in batch mode
+	 * @param shardCount the number of receiving channels and threads
+	 * @param shardingMode whether the shards listen on consecutive ports or share one port
+	 * @throws IOException if a channel could not be opened
+	 */
+	public DataReceiver(int port, ReceiveMode mode, int maxBatchSize, int shardCount, ShardingMode shardingMode) throws IOException {
+		this.port = port;
+		this.mode = mode;
+		this.shardingMode = shardingMode;
+		this.maxBatchSize = maxBatchSize;
+		this.bufferPool = new BufferPool(RECEIVE_BUFFER_POOL_SIZE * shardCount, DataClient.MAX_MESSAGE_LENGTH);
+
+		shards = new Shard[shardCount];
+		for(int i = 0;i < shardCount;i++) {
+			shards[i] = new Shard(shardingMode == ShardingMode.PORT_PER_SHARD ? port + i : port);
+		}
+	}
+
+	public void start() {
+		if(shards.length == 1) {
+			Logger.info("Starting csi client on port %d...", port);
+		} else {
+			Logger.info("Starting csi client with %d shards on port %d (%s)...", shards.length, port, shardingMode);
+		}
+
+		for(int i = 0;i < shards.length;i++) {
+			Shard shard = shards[i];
+			shard.thread = new Thread(() -> {
+				if(mode == ReceiveMode.BATCH) {
+					batchListener(shard);
+				} else {
+					listener(shard);
+				}
+			}, "data-receiver-" + i);
+			shard.thread.start();
+		}
+	}
+
+	/**
+	 * closes all channels and waits for the receiver threads to terminate
+	 */
+	public void close() {
+		for(Shard shard : shards) {
+			try {
+				shard.channel.close();
+			} catch(IOException e) {
+				e.printStackTrace();
+			}
+			// a channel registered with a selector is only released once the selector wakes up
+			Selector selector = shard.selector;
+			if(selector != null) {
+				selector.wakeup();
+			}
+		}
+		for(Shard shard : shards) {
+			if(shard.thread != null && shard.thread != Thread.currentThread()) {
+				try {
+					shard.thread.join();
+				} catch(InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		}
+	}
+
+	/**
+	 * listens for incoming messages
+	 */
+	private void listener(Shard shard) {
+		while(shard.channel.isOpen()) {
+			BufferPool.Lease lease = bufferPool.acquire();
+			if(lease == null) {
+				try {
+					discard(shard);
+				} catch(ClosedChannelException e) {
+					break;
+				} catch(IOException e) {
+					Logger.error("Error while reading from datagram channel");
+					e.printStackTrace();
+				}
+				continue;
+			}
+			SocketAddress source;
+			try {
+				source = shard.channel.receive(lease.buffer());
+			} catch(ClosedChannelException e) {
+				lease.release();
+				break;
+			} catch(IOException e) {
+				Logger.error("Error while reading from datagram channel");
+				e.printStackTrace();
+				lease.release();
+				continue;
+			}
+			lease.buffer().flip();
+			Logger.trace("Received %d bytes from %s", lease.buffer().remaining(), source);
+			shard.packetsReceived.increment();
+			dispatch(((InetSocketAddress) source).getAddress(), lease);
+			lease.release(); // clients retain the lease if they hold on to the payload
+		}
+		Logger.warn("Datagram channel on port %d closed, stopping receiver", shard.port);
+	}
+
+	/**
+	 * waits for the channel to become readable, then drains all available datagrams at once
+	 */
+	private void batchListener(Shard shard) {
+		BufferPool.Lease[] batch = new BufferPool.Lease[maxBatchSize];
+		InetAddress[] sources = new InetAddress[maxBatchSize];
+
+		try(Selector selector = Selector.open()) {
+			shard.selector = selector;
+			shard.channel.configureBlocking(false);
+			shard.channel.register(selector, SelectionKey.OP_READ);
+
+			while(shard.channel.isOpen()) {
+				selector.select();
+				selector.selectedKeys().clear();
+
+				int count = 0;
+				while(count < maxBatchSize) {
+					BufferPool.Lease lease = bufferPool.acquire();
+					if(lease == null) {
+						boolean discarded;
+						try {
+							discarded = discard(shard);
+						} catch(ClosedChannelException e) {
+							throw e;
+						} catch(IOException e) {
+							Logger.error("Error while reading from datagram channel");
+							e.printStackTrace();
+							discarded = false;
+						}
+						if(! discarded) {
+							break;
+						}
+						continue;
+					}
+					SocketAddress source;
+					try {
+						source = shard.channel.receive(lease.buffer());
+					} catch(ClosedChannelException e) {
+						lease.release();
+						throw e;
+					} catch(IOException e) {
+						Logger.error("Error while reading from datagram channel");
+						e.printStackTrace();
+						source = null;
+					}
+					if(source == null) {
+						lease.release();
+						break;
+					}
+					lease.buffer().flip();
+					batch[count] = lease;
+					sources[count] = ((InetSocketAddress) source).getAddress();
+					count++;
+				}
+
+				Logger.trace("Received batch of %d datagrams", count);
+				shard.packetsReceived.add(count);
+				for(int i = 0;i < count;i++) {
+					dispatch(sources[i], batch[i]);
+					batch[i].release();
+					batch[i] = null;
+				}
+			}
+		} catch(ClosedChannelException e) {
+			// closed while waiting
+		} catch(IOException e) {
+			Logger.error("Error while waiting on datagram channel, stopping receiver");
+			e.printStackTrace();
+		}
+		Logger.warn("Datagram channel on port %d closed, stopping receiver", shard.port);
+	}
+
+	/**
+	 * receives one datagram into the shard's scratch buffer and drops it, used while the pool is exhausted
+	 * the socket has to be drained anyway, the datagrams would otherwise queue up behind the backlog
+	 * @return whether a datagram was available, always true in blocking mode
+	 */
+	private boolean discard(Shard shard) throws IOException {
+		shard.discardBuffer.clear();
+		if(shard.channel.receive(shard.discardBuffer) == null) {
+			return false;
+		}
+		shard.packetsReceived.increment();
+		shard.packetsDropped.increment();
+		return true;
+	}
+
+	private void dispatch(InetAddress source, BufferPool.Lease lease) {
+		DataClient[] clients = registry.get(source);
+		if(clients == null) {
+			unknownSourcePackets.increment();
+			return;
+		}
+
+		for(DataClient client : clients) {
+			client.onDatagram(lease);
+			packetsDispatched.increment();
+		}
+	}
+
+	/**
+	 * registers a client for the packets coming from its station's address
+	 * @param client the client
+	 * @return whether the station's address could be resolved
+	 */
+	public boolean register(DataClient client) {
+		InetAddress address = resolve(client);
+		if(address == null) {
+			return false;
+		}
+
+		synchronized (registryLock) {
+			Map<InetAddress, DataClient[]> newRegistry = new HashMap<>(registry);
+			DataClient[] existing = newRegistry.getOrDefault(address, new DataClient[0]);
+			DataClient[] clients = Arrays.copyOf(existing, existing.length + 1);
+			clients[existing.length] = client;
+			newRegistry.put(address, clients);
+			registry = newRegistry;
+		}
+		return true;
+	}
+
+	public void unregister(DataClient client) {
+		InetAddress address = resolve(client);
+		if(address == null) {
+			return;
+		}
+
+		synchronized (registryLock) {
+			Map<InetAddress, DataClient[]> newRegistry = new HashMap<>(registry);
+			DataClient[] clients = Arrays.stream(newRegistry.getOrDefault(address, new DataClient[0]))
+					.filter(c -> c != client)
+					.toArray(DataClient[]::new);
+			if(clients.length == 0) {
+				newRegistry.remove(address);
+			} else {
+				newRegistry.put(address, clients);
+			}
+			registry = newRegistry;
+		}
+	}
+
+	/**
+	 * sends data from the channel of the target's shard, the station will respond to that port
+	 * @param buffer the data to send
+	 * @param target the target address
+	 */
+	public void send(ByteBuffer buffer, InetSocketAddress target) throws IOException {
+		shards[getShard(target.getAddress())].channel.send(buffer, target);
+	}
+
+	/**
+	 * @param address the address of a station
+	 * @return the shard the station is assigned to, only depends on the address
+	 */
+	public int getShard(InetAddress address) {
+		return Math.floorMod(Arrays.hashCode(address.getAddress()), shards.length);
+	}
+
+	/**
+	 * @param address the address of a station
+	 * @return the local port the station's data should be sent to
+	 */
+	public int getShardPort(InetAddress address) {
+		return shards[getShard(address)].port;
+	}
+
+	public int getShardCount() {
+		return shards.length;
+	}
+
+	private static InetAddress resolve(DataClient client) {
+		try {
+			return client.getServerAddress().getAddress();
+		} catch(UnknownHostException e) {
+			Logger.error("Could not resolve address %s of station", client.getStation().getIP_ADDRESS());
+			return null;
+		}
+	}
+
+	public long getPacketsReceived() {
+		return Arrays.stream(shards).mapToLong(s -> s.packetsReceived.sum()).sum();
+	}
+
+	public long getPacketsReceived(int shard) {
+		return shards[shard].packetsReceived.sum();
+	}
+
+	/**
+	 * @return the number of datagrams dropped because all receive buffers were leased
+	 */
+	public long getPacketsDropped() {
+		return Arrays.stream(shards).mapToLong(s -> s.packetsDropped.sum()).sum();
+	}
+
+	public long getPacketsDispatched() {
+		return packetsDispatched.sum();
+	}
+
+	public long getUnknownSourcePackets() {
+		return unknownSourcePackets.sum();
+	}
+
+	/**
+	 * One receiving channel and its thread
+	 */
+	private class Shard {
+		private final int port;
+		private final DatagramChannel channel;
+		private final LongAdder packetsReceived = new LongAdder();
+		private final LongAdder packetsDropped = new LongAdder();
+		private final ByteBuffer discardBuffer = ByteBuffer.allocateDirect(DataClient.MAX_MESSAGE_LENGTH);
+		private Thread thread;
+		private volatile Selector selector; // only in batch mode
+
+		private Shard(int port) throws IOException {
+			this.port = port;
+			channel = DatagramChannel.open();
+			if(shardingMode == ShardingMode.REUSE_PORT && shards.length > 1) {
+				channel.setOption(StandardSocketOptions.SO_REUSEPORT, true);
+			}
+			channel.setOption(StandardSocketOptions.SO_RCVBUF, SOCKET_RECEIVE_BUFFER_SIZE);
+			channel.bind(new InetSocketAddress(port));
+		}
+	}
+
+	public enum ReceiveMode {
+		BLOCKING, // one wakeup per datagram
+		BATCH // one wakeup per burst, see Config.RECEIVE_MAX_BATCH_SIZE
+	}
+
+	public enum ShardingMode {
+		PORT_PER_SHARD, // shard i listens on port + i, the port is announced in the subscription
+		REUSE_PORT // all shards share the port via SO_REUSEPORT, the kernel distributes the stations
+	}
+}
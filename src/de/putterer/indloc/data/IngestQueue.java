@@ -0,0 +1,146 @@
+package de.putterer.indloc.data;
+
+import lombok.Getter;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded queue of received datagrams between the receiver and the processing worker of one station
+ * Every queued lease holds a reference that is released by the consumer or when it is dropped
+ * Once closed, offered datagrams are released immediately
+ */
+public class IngestQueue {
+
+	@Getter private final int capacity;
+	@Getter private final OverflowPolicy overflowPolicy;
+	private final ArrayBlockingQueue<BufferPool.Lease> queue;
+
+	private final LongAdder dropped = new LongAdder();
+	private volatile boolean closed = false;
+
+	public IngestQueue(int capacity, OverflowPolicy overflowPolicy) {
+		this.capacity = capacity;
+		this.overflowPolicy = overflowPolicy;
+		this.queue = new ArrayBlockingQueue<>(capacity);
+	}
+
+	/**
+	 * adds a datagram, ownership of the lease reference is transferred to the queue
+	 * @param lease the retained lease
+	 */
+	public void offer(BufferPool.Lease lease) {
+		if(closed) {
+			lease.release();
+			return;
+		}
+
+		switch(overflowPolicy) {
+			case DROP_NEWEST:
+				if(! queue.offer(lease)) {
+					drop(lease);
+				}
+				break;
+
+			case DROP_OLDEST:
+				while(! queue.offer(lease)) {
+					BufferPool.Lease oldest = queue.poll();
+					if(oldest != null) {
+						drop(oldest);
+					}
+				}
+				break;
+
+			case BLOCK:
+				try {
+					queue.put(lease);
+				} catch(InterruptedException e) {
+					drop(lease);
+					Thread.currentThread().interrupt();
+				}
+				break;
+		}
+
+		// closed while offering, the lease might have been queued after the queue was drained
+		if(closed) {
+			clear();
+		}
+	}
+
+	/**
+	 * waits for the next datagram, then collects further datagrams until the batch is full
+	 * or the latency bound since the first one has passed
+	 * @param batch the array to fill, the caller has to release all returned leases
+	 * @param maxLatencyNanos how long to wait for further datagrams
+	 * @return the number of datagrams in the batch, at least one
+	 * @throws InterruptedException if interrupted while waiting for the first datagram
+	 */
+	public int take(BufferPool.Lease[] batch, long maxLatencyNanos) throws InterruptedException {
+		batch[0] = queue.take();
+		int count = 1;
+		long deadline = System.nanoTime() + maxLatencyNanos;
+
+		while(count < batch.length) {
+			BufferPool.Lease lease = queue.poll();
+			if(lease == null) {
+				long remaining = deadline - System.nanoTime();
+				if(remaining <= 0) {
+					break;
+				}
+				try {
+					lease = queue.poll(remaining, TimeUnit.NANOSECONDS);
+				} catch(InterruptedException e) {
+					Thread.currentThread().interrupt();
+					break; // deliver what has been collected
+				}
+				if(lease == null) {
+					break;
+				}
+			}
+			batch[count++] = lease;
+		}
+		return count;
+	}
+
+	/**
+	 * rejects all further datagrams and releases the queued ones
+	 */
+	public void close() {
+		closed = true;
+		clear();
+	}
+
+	public boolean isClosed() {
+		return closed;
+	}
+
+	/**
+	 * releases all queued datagrams without processing them
+	 */
+	public void clear() {
+		BufferPool.Lease lease;
+		while((lease = queue.poll()) != null) {
+			lease.release();
+		}
+	}
+
+	private void drop(BufferPool.Lease lease) {
+		dropped.increment();
+		lease.release();
+	}
+
+	public int getDepth() {
+		return queue.size();
+	}
+
+	public long getDropped() {
+		return dropped.sum();
+	}
+
+	public enum OverflowPolicy {
+		DROP_OLDEST, // keeps the most recent data, preferred for live previews
+		DROP_NEWEST, // keeps what is already queued
+		BLOCK // stalls the receiver and therefore all stations until there is space
+	}
+}
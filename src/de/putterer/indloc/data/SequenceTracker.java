@@ -0,0 +1,199 @@
+package de.putterer.indloc.data;
+
+import lombok.Data;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Tracks the message ids of one station to detect lost, reordered and duplicated packets
+ * Every message is processed in constant time, the received ids of a sliding window are kept in a bitmap
+ * Ids more than a window behind the highest id, or jumping far ahead, are treated as a restart of the server
+ */
+public class SequenceTracker {
+
+	public static final int WINDOW = 1024; // how far back late packets are still matched to gaps, power of two
+	private static final int RESTART_THRESHOLD = 65536; // jumps ahead larger than this restart the tracking
+	private static final int HISTOGRAM_BUCKETS = 8; // gap lengths 1, 2, 3-4, 5-8, ..., 33-64, >64
+	private static final int MAX_RECORDED_GAPS = 4096; // older gaps are discarded
+
+	private final long[] received = new long[WINDOW / 64]; // bit set if the id of this slot was received
+
+	private boolean started = false;
+	private int highestId;
+
+	private long receivedPackets = 0;
+	private long lostPackets = 0; // missing ids, reduced again if they arrive late
+	private long reorderedPackets = 0;
+	private long duplicatePackets = 0;
+	private long restarts = 0;
+	private final long[] gapHistogram = new long[HISTOGRAM_BUCKETS];
+	private final Gap[] gaps = new Gap[MAX_RECORDED_GAPS];
+	private long gapCount = 0;
+
+	/**
+	 * @param info a received data info
+	 */
+	public void onMessage(DataInfo info) {
+		onMessage(info.getMessageId(), info.getClientTimestamp());
+	}
+
+	/**
+	 * @param messageId the message id as set by the server
+	 * @param clientTimestamp when the message was received, used to locate gaps
+	 */
+	public synchronized void onMessage(int messageId, long clientTimestamp) {
+		if(! started) {
+			restart(messageId);
+			return;
+		}
+
+		int delta = messageId - highestId; // wraps around correctly
+		if(delta > 0 && delta <= RESTART_THRESHOLD) {
+			// clear the slots taking over from ids a window ago, bounded by the window size
+			for(int i = 1;i <= Math.min(delta, WINDOW);i++) {
+				clear(highestId + i);
+			}
+			if(delta > 1) {
+				onGap(highestId + 1, delta - 1, clientTimestamp);
+			}
+			highestId = messageId;
+			set(messageId);
+			receivedPackets++;
+		} else if(delta == 0 || (delta < 0 && delta > -WINDOW && isSet(messageId))) {
+			duplicatePackets++;
+		} else if(delta < 0 && delta > -WINDOW) {
+			// late packet filling a gap
+			set(messageId);
+			reorderedPackets++;
+			lostPackets = Math.max(0, lostPackets - 1);
+			receivedPackets++;
+		} else {
+			restarts++;
+			restart(messageId);
+		}
+	}
+
+	private void restart(int messageId) {
+		started = true;
+		highestId = messageId;
+		for(int i = 0;i < received.length;i++) {
+			received[i] = 0;
+		}
+		set(messageId);
+		receivedPackets++;
+	}
+
+	private void onGap(int firstMissingId, int length, long clientTimestamp) {
+		lostPackets += length;
+		gapHistogram[Math.min(HISTOGRAM_BUCKETS - 1, 32 - Integer.numberOfLeadingZeros(length - 1))]++;
+		gaps[(int) (gapCount % MAX_RECORDED_GAPS)] = new Gap(firstMissingId, length, clientTimestamp);
+		gapCount++;
+	}
+
+	private boolean isSet(int id) {
+		int slot = id & (WINDOW - 1);
+		return (received[slot >>> 6] & (1L << slot)) != 0;
+	}
+
+	private void set(int id) {
+		int slot = id & (WINDOW - 1);
+		received[slot >>> 6] |= 1L << slot;
+	}
+
+	private void clear(int id) {
+		int slot = id & (WINDOW - 1);
+		received[slot >>> 6] &= ~(1L << slot);
+	}
+
+	/**
+	 * @return the fraction of expected packets that is missing, between 0 and 1
+	 */
+	public synchronized double getLossRate() {
+		long expected = receivedPackets + lostPackets;
+		return expected == 0 ? 0.0 : (double) lostPackets / expected;
+	}
+
+	/**
+	 * @return the number of gaps detected so far, including discarded ones
+	 */
+	public synchronized long getGapCount() {
+		return gapCount;
+	}
+
+	/**
+	 * @return a copy of the current counters and the most recent gaps
+	 */
+	public synchronized Statistics getStatistics() {
+		return getStatistics(null);
+	}
+
+	/**
+	 * @param since an earlier snapshot of this tracker, e.g. taken at the beginning of a recording, null for all
+	 * @return the counters accumulated since the snapshot and the gaps detected since then
+	 */
+	public synchronized Statistics getStatistics(Statistics since) {
+		long sinceGap = since != null ? since.gapCount : 0;
+		List<Gap> recentGaps = new ArrayList<>();
+		for(long i = Math.max(sinceGap, gapCount - MAX_RECORDED_GAPS);i < gapCount;i++) {
+			recentGaps.add(gaps[(int) (i % MAX_RECORDED_GAPS)]);
+		}
+
+		long[] histogram = gapHistogram.clone();
+		if(since != null) {
+			for(int i = 0;i < histogram.length;i++) {
+				histogram[i] -= since.gapHistogram[i];
+			}
+		}
+
+		long receivedSince = receivedPackets - (since != null ? since.receivedPackets : 0);
+		long lostSince = lostPackets - (since != null ? since.lostPackets : 0);
+		return new Statistics(
+				receivedSince,
+				lostSince,
+				reorderedPackets - (since != null ? since.reorderedPackets : 0),
+				duplicatePackets - (since != null ? since.duplicatePackets : 0),
+				restarts - (since != null ? since.restarts : 0),
+				receivedSince + lostSince == 0 ? 0.0 : (double) lostSince / (receivedSince + lostSince),
+				gapCount - sinceGap,
+				histogram,
+				recentGaps.toArray(new Gap[0])
+		);
+	}
+
+	/**
+	 * @param infos data infos in the order they were received
+	 * @return the statistics of the given sequence, e.g. to reconstruct the gaps of a recording
+	 */
+	public static Statistics analyze(List<? extends DataInfo> infos) {
+		SequenceTracker tracker = new SequenceTracker();
+		infos.forEach(tracker::onMessage);
+		return tracker.getStatistics();
+	}
+
+	/**
+	 * A range of missing message ids
+	 */
+	@Data
+	public static class Gap {
+		private final int firstMissingId;
+		private final int length;
+		private final long clientTimestamp; // when the packet following the gap was received
+	}
+
+	/**
+	 * A snapshot of the tracked counters, written next to recordings
+	 */
+	@Data
+	public static class Statistics {
+		private final long receivedPackets;
+		private final long lostPackets;
+		private final long reorderedPackets;
+		private final long duplicatePackets;
+		private final long restarts;
+		private final double lossRate;
+		private final long gapCount;
+		private final long[] gapHistogram; // bucket i counts gaps with a length up to 2^i, the last bucket all longer ones
+		private final Gap[] gaps;
+	}
+}
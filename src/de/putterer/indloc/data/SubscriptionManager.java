@@ -0,0 +1,170 @@
+package de.putterer.indloc.data;
+
+import de.putterer.indloc.util.Logger;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps the subscriptions of all datagram based clients alive from a single scheduler thread
+ * Subscriptions are retried with exponential backoff until confirmed,
+ * confirmed subscriptions not delivering any packets for the stale interval are resubscribed,
+ * the interval doubles with every resubscription not bringing back any data, e.g. for low rate or filtered stations
+ */
+public class SubscriptionManager {
+
+	private static final int MAX_STALE_BACKOFF = 4; // the stale interval grows up to 16 times
+
+	private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(r -> {
+		Thread thread = new Thread(r, "subscription-manager");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	private final long initialRetryDelayMillis;
+	private final long maxRetryDelayMillis;
+	private final int timeoutAttempts;
+	private final long staleIntervalMillis;
+
+	private final Map<DataClient, Subscription> subscriptions = new ConcurrentHashMap<>();
+
+	/**
+	 * @param initialRetryDelayMillis the delay after the first attempt, doubled with every further attempt
+	 * @param maxRetryDelayMillis the upper bound of the delay between attempts
+	 * @param timeoutAttempts the number of attempts after which the subscription is reported as timed out, retrying continues
+	 * @param staleIntervalMillis how long a confirmed subscription may stay without packets before the first resubscription, 0 to disable the detection
+	 */
+	public SubscriptionManager(long initialRetryDelayMillis, long maxRetryDelayMillis, int timeoutAttempts, long staleIntervalMillis) {
+		this.initialRetryDelayMillis = initialRetryDelayMillis;
+		this.maxRetryDelayMillis = maxRetryDelayMillis;
+		this.timeoutAttempts = timeoutAttempts;
+		this.staleIntervalMillis = staleIntervalMillis;
+
+		if(staleIntervalMillis > 0) {
+			long checkInterval = Math.max(1, staleIntervalMillis / 4);
+			executor.scheduleWithFixedDelay(this::checkStale, checkInterval, checkInterval, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	/**
+	 * starts subscribing the client, replaces a running subscription of the client
+	 * @param client the client
+	 */
+	public void subscribe(DataClient client) {
+		Subscription subscription = new Subscription(client);
+		Subscription previous = subscriptions.put(client, subscription);
+		if(previous != null) {
+			previous.cancel();
+		}
+		subscription.schedule(0);
+	}
+
+	/**
+	 * stops retrying and monitoring the client's subscription
+	 * @param client the client
+	 */
+	public void cancel(DataClient client) {
+		Subscription subscription = subscriptions.remove(client);
+		if(subscription != null) {
+			subscription.cancel();
+		}
+	}
+
+	/**
+	 * runs a task on the scheduler thread, e.g. a delayed resubscription
+	 * @param task the task, must not block
+	 * @param delayMillis the delay
+	 */
+	public void schedule(Runnable task, long delayMillis) {
+		executor.schedule(task, delayMillis, TimeUnit.MILLISECONDS);
+	}
+
+	private void checkStale() {
+		long now = System.currentTimeMillis();
+		for(Subscription subscription : subscriptions.values()) {
+			DataClient client = subscription.client;
+			int packets = client.getPacketsReceived().get();
+			if(packets != subscription.packetsAtStale) { // data arrived since the last resubscription
+				subscription.staleRestarts = 0;
+			}
+
+			long silence = now - client.getLastPacketTime();
+			if(client.isConnected() && silence > staleIntervalMillis << Math.min(subscription.staleRestarts, MAX_STALE_BACKOFF)) {
+				if(subscription.staleRestarts == 0) {
+					Logger.warn("No packets from %s for %d ms, resubscribing", client.getStation().getIP_ADDRESS(), silence);
+				} else {
+					Logger.debug("No packets from %s for %d ms, resubscribing again (%d times)", client.getStation().getIP_ADDRESS(), silence, subscription.staleRestarts + 1);
+				}
+				subscription.staleRestarts++;
+				subscription.packetsAtStale = packets;
+				client.onSubscriptionStale();
+				subscription.restart();
+			}
+		}
+	}
+
+	/**
+	 * The retry state of one client, only modified on the scheduler thread
+	 */
+	private class Subscription {
+		private final DataClient client;
+		private int attempts = 0;
+		private int staleRestarts = 0; // resubscriptions since data was last received
+		private int packetsAtStale = -1;
+		private volatile ScheduledFuture<?> future;
+		private volatile boolean cancelled = false;
+
+		private Subscription(DataClient client) {
+			this.client = client;
+		}
+
+		private void schedule(long delayMillis) {
+			if(! cancelled) {
+				future = executor.schedule(this::attempt, delayMillis, TimeUnit.MILLISECONDS);
+			}
+		}
+
+		/**
+		 * starts a new retry chain, a pending attempt of the previous chain is cancelled
+		 * e.g. still waiting for its backoff when the confirmation arrived
+		 */
+		private void restart() {
+			ScheduledFuture<?> future = this.future;
+			if(future != null) {
+				future.cancel(false);
+			}
+			attempts = 0;
+			schedule(0);
+		}
+
+		private void attempt() {
+			if(cancelled || client.isConnected()) {
+				return;
+			}
+
+			attempts++;
+			Logger.log(staleRestarts > 1 ? Logger.Level.DEBUG : Logger.Level.INFO, "Subscribing to %s, subscription id: %d, attempt %d",
+					client.getStation().getIP_ADDRESS(), client.getSubscriptionId(), attempts);
+			client.sendSubscription();
+
+			if(attempts == timeoutAttempts) {
+				Logger.warn("Subscription for %s timed out, retrying in the background", client.getStation().getIP_ADDRESS());
+				client.onSubscriptionTimedOut();
+			}
+
+			schedule(Math.min(maxRetryDelayMillis, initialRetryDelayMillis << Math.min(attempts - 1, 30)));
+		}
+
+		private void cancel() {
+			cancelled = true;
+			ScheduledFuture<?> future = this.future;
+			if(future != null) {
+				future.cancel(false);
+			}
+		}
+	}
+}
@@ -5,6 +5,9 @@ import de.putterer.indloc.data.DataConsumer;
 import de.putterer.indloc.data.DataInfo;
 import de.putterer.indloc.data.serial.SerialClient;
 
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
 public class EcgClient extends SerialClient {
 
     private int messageId = 0;
@@ -13,15 +16,35 @@ public class EcgClient extends SerialClient {
     }
 
     @Override
-    protected void onLineRead(String line) {
-        float value;
-        try {
-            value = Float.parseFloat(line);
-        } catch(NumberFormatException e) {
+    protected void onFrame(ByteBuffer line) {
+        float value = parseReading(line);
+        if(Float.isNaN(value)) {
             return; // the reading could start in the middle of a transmission resulting in decoded garbage
         }
         value /= 4095.0;
         EcgInfo info = new EcgInfo(System.currentTimeMillis(), messageId++, value);
-        getApplicableConsumers(EcgInfo.class).forEach(c -> c.accept(info));
+        dispatch(info);
+    }
+
+    /**
+     * the sensor sends integer readings, parsed without decoding the line, anything else falls back to Float.parseFloat
+     * @return the reading or NaN if it could not be parsed
+     */
+    private static float parseReading(ByteBuffer line) {
+        int value = 0;
+        int digits = 0;
+        for(int i = line.position();i < line.limit();i++) {
+            byte b = line.get(i);
+            if(b < '0' || b > '9' || digits == 9) {
+                try {
+                    return Float.parseFloat(StandardCharsets.US_ASCII.decode(line.duplicate()).toString());
+                } catch(NumberFormatException e) {
+                    return Float.NaN;
+                }
+            }
+            value = value * 10 + (b - '0');
+            digits++;
+        }
+        return digits == 0 ? Float.NaN : value;
     }
 }
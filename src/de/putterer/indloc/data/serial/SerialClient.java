@@ -7,19 +7,41 @@ import de.putterer.indloc.data.DataConsumer;
 import de.putterer.indloc.data.DataInfo;
 import de.putterer.indloc.util.Logger;
 
-import java.net.DatagramPacket;
-
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Reads delimited frames from a serial port, see SerialFramer
+ * Subclasses handle the frames in onFrame or, by default, as strings in onLineRead
+ */
 public class SerialClient extends DataClient {
 
+	private static final int READ_BUFFER_SIZE = 16 * 1024;
+	private static final int READ_TIMEOUT_MS = 500; // reads return after this time without data to check for interrupts
+	private static final long METRICS_INTERVAL_MS = 10_000;
+
 	private final String portDescriptor;
 	private SerialPort serialPort;
 	private Thread scannerThread;
 	private final int baudRate;
+	private final SerialFramer framer;
 
-	public SerialClient(Station station, int baudRate, DataConsumer<? extends DataInfo>... consumers) {
+	private volatile double bytesPerSecond = 0;
+	private volatile double framesPerSecond = 0;
+
+	/**
+	 * @param delimiter the bytes separating frames
+	 */
+	public SerialClient(Station station, int baudRate, byte[] delimiter, DataConsumer<? extends DataInfo>... consumers) {
 		super(station, consumers);
 		this.portDescriptor = station.getIP_ADDRESS();
 		this.baudRate = baudRate;
+		this.framer = new SerialFramer(delimiter, READ_BUFFER_SIZE, this::onFrame);
+	}
+
+	public SerialClient(Station station, int baudRate, DataConsumer<? extends DataInfo>... consumers) {
+		this(station, baudRate, SerialFramer.CRLF, consumers);
 	}
 
 	public SerialClient(Station station, DataConsumer<? extends DataInfo>... consumers) {
@@ -31,7 +53,7 @@ public class SerialClient extends DataClient {
 		serialPort = SerialPort.getCommPort(portDescriptor);
 
 		serialPort.setBaudRate(baudRate);
-		serialPort.setComPortTimeouts(SerialPort.TIMEOUT_READ_BLOCKING, 0, 0);
+		serialPort.setComPortTimeouts(SerialPort.TIMEOUT_READ_SEMI_BLOCKING, READ_TIMEOUT_MS, 0);
 		serialPort.openPort();
 
 		if(serialPort.isOpen()) {
@@ -50,9 +72,31 @@ public class SerialClient extends DataClient {
 	}
 
 	public void scannerThread() {
+		// semi blocking, waits for the first byte, then returns everything already received
+		SerialFramer.Source source = (buffer, offset, length) -> serialPort.readBytes(buffer, length, offset);
+		long lastMetrics = System.currentTimeMillis();
+		long lastBytes = 0, lastFrames = 0;
 		while(serialPort.isOpen() && ! Thread.interrupted()) {
-			String s = serialReadLine(serialPort); // TODO is this realtime? could use serialPort.read() instead
-			onLineRead(s);
+			try {
+				if(framer.read(source) < 0) {
+					Logger.error("Error while reading from serial port %s", portDescriptor);
+					break;
+				}
+			} catch(IOException e) {
+				Logger.error("Error while reading from serial port %s", portDescriptor);
+				break;
+			}
+
+			long now = System.currentTimeMillis();
+			if(now - lastMetrics >= METRICS_INTERVAL_MS) {
+				long bytes = framer.getBytesRead(), frames = framer.getFramesRead();
+				bytesPerSecond = (bytes - lastBytes) * 1000.0 / (now - lastMetrics);
+				framesPerSecond = (frames - lastFrames) * 1000.0 / (now - lastMetrics);
+				Logger.debug("Serial port %s: %.0f bytes/s, %.1f frames/s", portDescriptor, bytesPerSecond, framesPerSecond);
+				lastMetrics = now;
+				lastBytes = bytes;
+				lastFrames = frames;
+			}
 		}
 		Logger.warn("Serial port %s no longer open, stopping scanner thread, interrupted: %s", portDescriptor, String.valueOf(Thread.interrupted()));
 
@@ -63,13 +107,26 @@ public class SerialClient extends DataClient {
 		statusUpdateCallback.set(station);
 	}
 
+	/**
+	 * called for every frame read from the serial port, decodes it for onLineRead by default
+	 * @param frame the frame without delimiter, only valid during the call
+	 */
+	protected void onFrame(ByteBuffer frame) {
+		onLineRead(StandardCharsets.US_ASCII.decode(frame).toString());
+	}
+
 	protected void onLineRead(String line) {
 		// override in subclass
 	}
 
 	@Override
-	protected void onPacket(DatagramPacket packet) {
+	protected void onPacket(ByteBuffer packet) {
+
+	}
 
+	@Override
+	protected boolean usesDatagramTransport() {
+		return false;
 	}
 
 	@Override
@@ -84,22 +141,25 @@ public class SerialClient extends DataClient {
 		throw new UnsupportedOperationException("Cannot send to serial device at the moment");
 	}
 
-	public static String serialReadLine(SerialPort serialPort) {
-		StringBuilder sb = new StringBuilder();
-		byte[] data = new byte[1];
-		while(serialPort.isOpen()) {
-			int read = serialPort.readBytes(data, 1);
-			if(read == 0) {
-				continue;
-			}
+	public long getBytesRead() {
+		return framer.getBytesRead();
+	}
 
-			if(data[0] == '\r') {
-				break;
-			}
+	public long getFramesRead() {
+		return framer.getFramesRead();
+	}
 
-			sb.append((char)data[0]);
-		}
-		serialPort.readBytes(data, 1); // read \n
-		return sb.toString();
+	/**
+	 * @return the receive rate over the last metrics interval
+	 */
+	public double getBytesPerSecond() {
+		return bytesPerSecond;
+	}
+
+	/**
+	 * @return the frame rate over the last metrics interval
+	 */
+	public double getFramesPerSecond() {
+		return framesPerSecond;
 	}
 }
@@ -0,0 +1,162 @@
+package de.putterer.indloc.data.serial;
+
+import lombok.Getter;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Splits a byte stream into delimited frames
+ * Data is read in chunks directly into a reused buffer and frames are passed on as slices of it, without copying
+ * Frames longer than the buffer are dropped up to the next delimiter
+ * Not thread safe, except for the metrics
+ */
+public class SerialFramer {
+
+	public static final byte[] CRLF = "\r\n".getBytes(StandardCharsets.US_ASCII);
+
+	private final byte[] delimiter;
+	private final byte[] buffer;
+	private final ByteBuffer view;
+	private final FrameListener listener;
+
+	private int frameStart = 0; // start of the current, incomplete frame
+	private int scanned = 0; // bytes before this are known not to start a delimiter of the current frame
+	private int end = 0;
+	private boolean discarding = false; // skipping the rest of an oversized frame
+
+	private final LongAdder bytesRead = new LongAdder();
+	private final LongAdder framesRead = new LongAdder();
+	private final LongAdder oversizedFrames = new LongAdder();
+
+	@Getter private final int capacity;
+
+	/**
+	 * @param delimiter the bytes separating frames, not part of the frames
+	 * @param capacity the buffer size, limits the frame length
+	 * @param listener receives the frames
+	 */
+	public SerialFramer(byte[] delimiter, int capacity, FrameListener listener) {
+		if(delimiter.length == 0 || capacity <= delimiter.length) {
+			throw new IllegalArgumentException("Invalid delimiter or capacity");
+		}
+		this.delimiter = delimiter.clone();
+		this.buffer = new byte[capacity];
+		this.view = ByteBuffer.wrap(buffer);
+		this.capacity = capacity;
+		this.listener = listener;
+	}
+
+	/**
+	 * reads one chunk from the source and passes on all frames completed by it
+	 * @return the number of bytes read, 0 on timeout, -1 at the end of the stream
+	 */
+	public int read(Source source) throws IOException {
+		if(end == buffer.length) {
+			compact();
+		}
+		int read = source.read(buffer, end, buffer.length - end);
+		if(read > 0) {
+			end += read;
+			bytesRead.add(read);
+			split();
+		}
+		return read;
+	}
+
+	/**
+	 * passes on all frames completed by the given bytes
+	 */
+	public void feed(byte[] data, int offset, int length) {
+		while(length > 0) {
+			if(end == buffer.length) {
+				compact();
+			}
+			int chunk = Math.min(length, buffer.length - end);
+			System.arraycopy(data, offset, buffer, end, chunk);
+			end += chunk;
+			bytesRead.add(chunk);
+			split();
+			offset += chunk;
+			length -= chunk;
+		}
+	}
+
+	private void split() {
+		int last = end - delimiter.length;
+		for(int i = scanned;i <= last;i++) {
+			if(buffer[i] != delimiter[0] || ! delimiterAt(i)) {
+				continue;
+			}
+			if(discarding) {
+				discarding = false;
+			} else {
+				view.limit(i).position(frameStart);
+				framesRead.increment();
+				listener.onFrame(view.slice());
+			}
+			i += delimiter.length - 1;
+			frameStart = i + 1;
+		}
+		scanned = Math.max(frameStart, last + 1);
+	}
+
+	private boolean delimiterAt(int index) {
+		for(int i = 1;i < delimiter.length;i++) {
+			if(buffer[index + i] != delimiter[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	// moves the incomplete frame to the start of the buffer, drops it if it already fills the buffer
+	private void compact() {
+		if(frameStart == 0) {
+			if(! discarding) {
+				oversizedFrames.increment();
+			}
+			discarding = true;
+			// keep a possible partial delimiter
+			int keep = delimiter.length - 1;
+			System.arraycopy(buffer, end - keep, buffer, 0, keep);
+			end = keep;
+			scanned = 0;
+			return;
+		}
+		int length = end - frameStart;
+		System.arraycopy(buffer, frameStart, buffer, 0, length);
+		scanned -= frameStart;
+		end = length;
+		frameStart = 0;
+	}
+
+	public long getBytesRead() {
+		return bytesRead.sum();
+	}
+
+	public long getFramesRead() {
+		return framesRead.sum();
+	}
+
+	public long getOversizedFrames() {
+		return oversizedFrames.sum();
+	}
+
+	public interface Source {
+		/**
+		 * reads up to length bytes into the buffer
+		 * @return the number of bytes read, 0 on timeout, -1 at the end of the stream
+		 */
+		int read(byte[] buffer, int offset, int length) throws IOException;
+	}
+
+	public interface FrameListener {
+		/**
+		 * @param frame the frame without the delimiter, only valid during the call
+		 */
+		void onFrame(ByteBuffer frame);
+	}
+}
@@ -4,8 +4,7 @@ import com.fazecast.jSerialComm.SerialPort;
 import lombok.val;
 
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.util.Scanner;
+import java.nio.charset.StandardCharsets;
 
 public class SerialTest {
 
@@ -13,23 +12,19 @@ public class SerialTest {
 		val serialPort = SerialPort.getCommPort("/dev/ttyUSB0");
 
 		serialPort.setBaudRate(115200);
-		serialPort.setComPortTimeouts(SerialPort.TIMEOUT_READ_BLOCKING, 0, 0);
+		serialPort.setComPortTimeouts(SerialPort.TIMEOUT_READ_SEMI_BLOCKING, 0, 0);
 		serialPort.openPort();
 
-		Scanner reader = new Scanner(new InputStreamReader(serialPort.getInputStream()));
-		byte data[] = new byte[1024];
-		SerialClient.serialReadLine(serialPort);
-		while(serialPort.isOpen()) {
-//			int bytesRead = serialPort.readBytes(data, 1024);
-//			System.out.println(new String(data, 0, bytesRead));
+		SerialFramer framer = new SerialFramer(SerialFramer.CRLF, 1024, frame -> {
+			String s = StandardCharsets.US_ASCII.decode(frame).toString();
 			try {
-				String s = SerialClient.serialReadLine(serialPort);
 				System.out.println(Integer.parseInt(s));
 			} catch (NumberFormatException e) {
 				e.printStackTrace();
 			}
-//			System.out.println(reader.nextLine()); // TODO is this realtime? could use serialPort.read() instead
-//			System.out.println(new String());
+		});
+		while(serialPort.isOpen()) {
+			framer.read((buffer, offset, length) -> serialPort.readBytes(buffer, length, offset));
 		}
 	}
 
@@ -0,0 +1,266 @@
+package de.putterer.indloc.data.simulator;
+
+import de.putterer.indloc.Config;
+import de.putterer.indloc.Station;
+import de.putterer.indloc.csi.CSIReplay;
+import de.putterer.indloc.csi.atheros.AthCSIInfo;
+import de.putterer.indloc.csi.calibration.AndroidInfo;
+import de.putterer.indloc.csi.intel.IntCSIInfo;
+import de.putterer.indloc.data.DataClient;
+import de.putterer.indloc.data.DataInfo;
+import de.putterer.indloc.util.ArgumentParser;
+import de.putterer.indloc.util.Logger;
+import de.putterer.indloc.util.serialization.Serialization;
+import lombok.Getter;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Headless simulator of csi-servers for load testing without routers
+ * Runs many virtual stations on loopback addresses (127.0.0.2, 127.0.0.3, ...), each speaking the csi-server protocol
+ * Stations either generate synthetic data at a fixed rate or replay a recording
+ * On operating systems other than linux, the additional loopback addresses have to be configured first
+ */
+public class CsiServerSimulator {
+
+	private static final String FIRST_ADDRESS = "127.0.0.2";
+
+	@Getter private final List<VirtualStation> stations = new ArrayList<>();
+	private final int emitterThreads;
+	private final List<Thread> threads = new ArrayList<>();
+	private Selector selector;
+	private volatile boolean running = false;
+
+	public CsiServerSimulator(int emitterThreads) {
+		this.emitterThreads = emitterThreads;
+	}
+
+	/**
+	 * adds a station at the next free loopback address, has to be called before starting
+	 * @param source the messages of the station
+	 * @return the new station
+	 */
+	public VirtualStation addStation(PacketSource source) throws IOException {
+		VirtualStation station = new VirtualStation(getStationAddress(stations.size()), DataClient.SERVER_PORT, source);
+		stations.add(station);
+		return station;
+	}
+
+	/**
+	 * @param index the index of a station
+	 * @return the loopback address the station is bound to
+	 */
+	public static InetAddress getStationAddress(int index) throws IOException {
+		byte[] address = InetAddress.getByName(FIRST_ADDRESS).getAddress();
+		int host = (address[2] & 0xFF) * 256 + (address[3] & 0xFF) + index;
+		address[2] = (byte) (host / 256);
+		address[3] = (byte) (host % 256);
+		return InetAddress.getByAddress(address);
+	}
+
+	public void start() throws IOException {
+		running = true;
+		selector = Selector.open();
+		for(VirtualStation station : stations) {
+			station.getChannel().register(selector, SelectionKey.OP_READ, station);
+		}
+
+		Thread controlThread = new Thread(this::controlLoop, "simulator-control");
+		threads.add(controlThread);
+		for(int i = 0;i < emitterThreads;i++) {
+			List<VirtualStation> assigned = new ArrayList<>();
+			for(int s = i;s < stations.size();s += emitterThreads) {
+				assigned.add(stations.get(s));
+			}
+			threads.add(new Thread(() -> emitLoop(assigned), "simulator-emitter-" + i));
+		}
+		threads.forEach(Thread::start);
+	}
+
+	public void stop() {
+		running = false;
+		try {
+			selector.close();
+		} catch(IOException e) {
+			e.printStackTrace();
+		}
+		for(Thread thread : threads) {
+			try {
+				thread.join();
+			} catch(InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		for(VirtualStation station : stations) {
+			try {
+				station.close();
+			} catch(IOException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+	/**
+	 * answers subscriptions of all stations
+	 */
+	private void controlLoop() {
+		try {
+			while(running) {
+				selector.select();
+				for(SelectionKey key : selector.selectedKeys()) {
+					try {
+						((VirtualStation) key.attachment()).onControlMessages();
+					} catch(IOException e) {
+						Logger.error("Error while handling control message");
+						e.printStackTrace();
+					}
+				}
+				selector.selectedKeys().clear();
+			}
+		} catch(ClosedSelectorException e) {
+			// stopped
+		} catch(IOException e) {
+			Logger.error("Error in simulator control loop");
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * sends the messages of the given stations at their rates
+	 */
+	private void emitLoop(List<VirtualStation> assigned) {
+		while(running) {
+			long now = System.nanoTime();
+			long nextDue = now + TimeUnit.MILLISECONDS.toNanos(10);
+			for(VirtualStation station : assigned) {
+				try {
+					long due = station.emit(now);
+					if(due - nextDue < 0) {
+						nextDue = due;
+					}
+				} catch(IOException e) {
+					if(! running) {
+						return;
+					}
+					Logger.error("Error while sending from virtual station %s", station.getAddress().getHostAddress());
+					e.printStackTrace();
+				}
+			}
+
+			long wait = nextDue - System.nanoTime();
+			if(wait > 0) {
+				LockSupport.parkNanos(wait);
+			}
+		}
+	}
+
+	public long getPacketsSent() {
+		return stations.stream().mapToLong(VirtualStation::getPacketsSent).sum();
+	}
+
+	public long getSendFailures() {
+		return stations.stream().mapToLong(VirtualStation::getSendFailures).sum();
+	}
+
+	public long getPacketsSkipped() {
+		return stations.stream().mapToLong(VirtualStation::getPacketsSkipped).sum();
+	}
+
+	/**
+	 * @param dataTypes the data type of every virtual station, in the order they were added
+	 * @return a room containing the virtual stations, to be loaded by the client with --config
+	 */
+	public Config.RoomConfig createRoom(List<Class<? extends DataInfo>> dataTypes) {
+		Station[] roomStations = new Station[stations.size()];
+		for(int i = 0;i < stations.size();i++) {
+			roomStations[i] = new Station("sim-" + i, stations.get(i).getAddress().getHostAddress(), dataTypes.get(i), null, null)
+					.setName("Simulated " + i);
+		}
+		return new Config.RoomConfig(0, 0, roomStations, new Config.RoomObject[0]);
+	}
+
+	public static void main(String[] args) throws IOException, InterruptedException {
+		Map<String, String> arguments = ArgumentParser.parse(args);
+		if(arguments.containsKey("help")) {
+			help();
+			return;
+		}
+		Logger.setLogLevel(Logger.Level.getByName(arguments.getOrDefault("log-level", "INFO")));
+
+		CsiServerSimulator simulator = new CsiServerSimulator(Integer.parseInt(arguments.getOrDefault("threads", "1")));
+		List<Class<? extends DataInfo>> dataTypes = new ArrayList<>();
+
+		if(arguments.containsKey("replay")) {
+			Path folder = Paths.get(arguments.get("replay"));
+			CSIReplay replay = new CSIReplay(folder, 1, false, progress -> {});
+			for(Station station : replay.getRoom().getStations()) {
+				List<DataInfo> data = replay.getData(station);
+				if(data.stream().noneMatch(PayloadEncoder::isSupported)) {
+					Logger.warn("Recording of %s doesn't contain data that can be sent, skipping", station.getHW_ADDRESS());
+					continue;
+				}
+				VirtualStation virtualStation = simulator.addStation(new RecordingSource(data));
+				dataTypes.add(station.getDataType());
+				Logger.info("Replaying %s (%d packets) at %s", station.getHW_ADDRESS(), data.size(), virtualStation.getAddress().getHostAddress());
+			}
+		} else {
+			SyntheticSource.Type type = SyntheticSource.Type.valueOf(arguments.getOrDefault("type", "ath").toUpperCase());
+			int stationCount = Integer.parseInt(arguments.getOrDefault("stations", "1"));
+			double rate = Double.parseDouble(arguments.getOrDefault("rate", "100"));
+			double breathingRate = Double.parseDouble(arguments.getOrDefault("breathing", "0"));
+			for(int i = 0;i < stationCount;i++) {
+				simulator.addStation(new SyntheticSource(type, rate, breathingRate, i));
+				dataTypes.add(type == SyntheticSource.Type.ATH ? AthCSIInfo.class : (type == SyntheticSource.Type.INT ? IntCSIInfo.class : AndroidInfo.class));
+			}
+			Logger.info("Simulating %d %s stations at %.1f packets/s starting at %s", stationCount, type, rate, FIRST_ADDRESS);
+		}
+
+		if(arguments.containsKey("write-room")) {
+			Serialization.serialize(Paths.get(arguments.get("write-room")), false, simulator.createRoom(dataTypes));
+			Logger.info("Room written to %s", arguments.get("write-room"));
+		}
+
+		simulator.start();
+
+		long duration = Long.parseLong(arguments.getOrDefault("duration", "0"));
+		long end = System.currentTimeMillis() + duration * 1000;
+		long lastSent = 0;
+		while(duration == 0 || System.currentTimeMillis() < end) {
+			Thread.sleep(1000);
+			long sent = simulator.getPacketsSent();
+			Logger.info("Sent %d packets/s, subscribed stations: %d, send failures: %d, skipped: %d",
+					sent - lastSent,
+					simulator.getStations().stream().filter(VirtualStation::isSubscribed).count(),
+					simulator.getSendFailures(),
+					simulator.getPacketsSkipped());
+			lastSent = sent;
+		}
+
+		simulator.stop();
+		System.exit(0);
+	}
+
+	private static void help() {
+		System.out.println("Usage: CsiServerSimulator [options]\n" +
+				"   (--stations [n])                number of virtual stations, bound to 127.0.0.2 and following (default: 1)\n" +
+				"   (--type [ath|int|acceleration]) the data to generate (default: ath)\n" +
+				"   (--rate [pps])                  packets per second per station (default: 100)\n" +
+				"   (--breathing [bpm])             modulate the signal like a breathing person, 0 to disable (default: 0)\n" +
+				"   (--replay [path])               replay a recording instead, one station per recorded station\n" +
+				"   (--threads [n])                 number of sending threads (default: 1)\n" +
+				"   (--write-room [file])           write a room with the virtual stations, usable with --config\n" +
+				"   (--duration [s])                stop after the given time, 0 to run until killed (default: 0)\n" +
+				"   (--log-level [level])           (default: INFO)");
+	}
+}
@@ -0,0 +1,29 @@
+package de.putterer.indloc.data.simulator;
+
+import de.putterer.indloc.data.DataClient;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Produces the data messages of a simulated station, only used by the emitting thread
+ */
+public interface PacketSource {
+
+	/**
+	 * @return the time between the previous and the next message in nanoseconds
+	 */
+	long nextIntervalNanos();
+
+	/**
+	 * writes the next message including its type
+	 * @param buffer the cleared buffer to write to
+	 */
+	void write(ByteBuffer buffer);
+
+	/**
+	 * @return the message confirming a subscription
+	 */
+	default byte[] getSubscriptionConfirmation() {
+		return new byte[] { DataClient.TYPE_CONFIRM_SUBSCRIPTION };
+	}
+}
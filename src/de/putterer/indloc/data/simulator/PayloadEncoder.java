@@ -0,0 +1,156 @@
+package de.putterer.indloc.data.simulator;
+
+import de.putterer.indloc.csi.CSIInfo;
+import de.putterer.indloc.csi.CSIMatrix;
+import de.putterer.indloc.csi.atheros.AthCSIInfo;
+import de.putterer.indloc.csi.atheros.AthCSIInfo.AthCSIStatus;
+import de.putterer.indloc.csi.calibration.AndroidInfo;
+import de.putterer.indloc.csi.intel.IntCSIInfo;
+import de.putterer.indloc.csi.intel.IntCSIInfo.IntCSINotification;
+import de.putterer.indloc.data.DataClient;
+import de.putterer.indloc.data.DataInfo;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Writes data messages in the layout sent by the csi-server, the inverse of the parsing in
+ * AthCSIInfo, IntCSIInfo and AndroidInfo
+ * All messages start with the message type, the csi values are written by the caller after the header
+ */
+public class PayloadEncoder {
+
+	public static final int ATH_MATRIX_SIZE = 3; // the atheros layout always contains 3x3 antenna pairs
+	public static final int INT_NUM_TONES = 30;
+
+	/**
+	 * writes the type and status of an atheros csi message, followed by the caller with
+	 * 3 x 3 x num_tones pairs of real and imaginary part as big endian ints, see putAthCsi
+	 */
+	public static void putAthHeader(ByteBuffer buffer, int messageId, AthCSIStatus status) {
+		buffer.put(DataClient.TYPE_ATH_CSI_INFO);
+		buffer.putInt(messageId);
+		buffer.putLong(status.getTstamp());
+		buffer.putShort((short) status.getChannel());
+		buffer.put(status.getChanBW());
+		buffer.put((byte) status.getRate());
+		buffer.put(status.getNr());
+		buffer.put(status.getNc());
+		buffer.put(status.getNum_tones());
+		buffer.put((byte) status.getNoise());
+		buffer.put((byte) status.getPhyerr());
+		buffer.put((byte) status.getRssi());
+		buffer.put((byte) status.getRssi_0());
+		buffer.put((byte) status.getRssi_1());
+		buffer.put((byte) status.getRssi_2());
+		buffer.putShort((short) status.getPayload_len());
+		buffer.putShort((short) status.getCsi_len());
+		buffer.putShort((short) status.getBuf_len());
+	}
+
+	public static void putAthCsi(ByteBuffer buffer, int real, int imag) {
+		buffer.putInt(real);
+		buffer.putInt(imag);
+	}
+
+	/**
+	 * writes the type and notification of an intel csi message, followed by the caller with
+	 * Nrx x Ntx x 30 pairs of real and imaginary part as little endian doubles, see putIntCsi
+	 */
+	public static void putIntHeader(ByteBuffer buffer, int messageId, IntCSINotification notification) {
+		buffer.put(DataClient.TYPE_INT_CSI_INFO);
+		buffer.putInt(messageId);
+		buffer.putInt((int) notification.getTimestamp_low());
+		buffer.putShort((short) notification.getBfee_count());
+		buffer.put(notification.getNrx());
+		buffer.put(notification.getNtx());
+		buffer.putShort(notification.getRssi_a());
+		buffer.putShort(notification.getRssi_b());
+		buffer.putShort(notification.getRssi_c());
+		buffer.putShort(notification.getNoise());
+		buffer.putShort(notification.getAgc());
+		buffer.put((byte) notification.getAntenna_sel());
+		buffer.put(notification.getPerm()[0]);
+		buffer.put(notification.getPerm()[1]);
+		buffer.put(notification.getPerm()[2]);
+		buffer.putShort((short) notification.getLen());
+		buffer.putShort((short) notification.getFake_rate_n_flags());
+	}
+
+	public static void putIntCsi(ByteBuffer buffer, double real, double imag) {
+		ByteOrder order = buffer.order();
+		buffer.order(ByteOrder.LITTLE_ENDIAN);
+		buffer.putDouble(real);
+		buffer.putDouble(imag);
+		buffer.order(order);
+	}
+
+	public static void putAndroid(ByteBuffer buffer, int messageId, long serverTimestamp, float[] data) {
+		buffer.put(DataClient.TYPE_ACCELERATION_INFO);
+		buffer.putInt(messageId);
+		buffer.putLong(serverTimestamp);
+		buffer.putFloat(data[0]);
+		buffer.putFloat(data[1]);
+		buffer.putFloat(data[2]);
+	}
+
+	/**
+	 * @param info a data info
+	 * @return whether the data info can be encoded
+	 */
+	public static boolean isSupported(DataInfo info) {
+		return info instanceof AthCSIInfo || info instanceof IntCSIInfo || info instanceof AndroidInfo;
+	}
+
+	/**
+	 * encodes a received data info again, e.g. to replay a recording
+	 * intel csi is stored after scaling and will be scaled again by the receiving client
+	 * @param buffer the buffer to write to
+	 * @param info an atheros csi, intel csi or acceleration info
+	 * @return whether the type of data info is supported
+	 */
+	public static boolean put(ByteBuffer buffer, DataInfo info) {
+		return put(buffer, info, info.getMessageId());
+	}
+
+	/**
+	 * encodes a received data info again with a different message id
+	 * @see #put(ByteBuffer, DataInfo)
+	 */
+	public static boolean put(ByteBuffer buffer, DataInfo info, int messageId) {
+		if(info instanceof AthCSIInfo) {
+			AthCSIStatus status = ((AthCSIInfo) info).getAtherosCsiStatus();
+			putAthHeader(buffer, messageId, status);
+			CSIMatrix csi = ((CSIInfo) info).getCsi();
+			for(int rx = 0;rx < ATH_MATRIX_SIZE;rx++) {
+				for(int tx = 0;tx < ATH_MATRIX_SIZE;tx++) {
+					for(int sc = 0;sc < status.getNum_tones();sc++) {
+						putAthCsi(buffer, csi.getReal(rx, tx, sc), csi.getImag(rx, tx, sc));
+					}
+				}
+			}
+			return true;
+		}
+
+		if(info instanceof IntCSIInfo) {
+			IntCSINotification notification = ((IntCSIInfo) info).getIntelCsiNotification();
+			putIntHeader(buffer, messageId, notification);
+			CSIMatrix csi = ((CSIInfo) info).getCsi();
+			for(int rx = 0;rx < notification.getNrx();rx++) {
+				for(int tx = 0;tx < notification.getNtx();tx++) {
+					for(int sc = 0;sc < INT_NUM_TONES;sc++) {
+						putIntCsi(buffer, csi.getReal(rx, tx, sc), csi.getImag(rx, tx, sc));
+					}
+				}
+			}
+			return true;
+		}
+
+		if(info instanceof AndroidInfo) {
+			putAndroid(buffer, messageId, ((AndroidInfo) info).getServerTimestamp(), ((AndroidInfo) info).getData());
+			return true;
+		}
+
+		return false;
+	}
+}
@@ -0,0 +1,53 @@
+package de.putterer.indloc.data.simulator;
+
+import de.putterer.indloc.data.DataInfo;
+
+import java.nio.ByteBuffer;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Sends the recorded messages of one station with their original timing, starting over at the end
+ * Message ids keep their recorded gaps and continue to increase across repetitions
+ */
+public class RecordingSource implements PacketSource {
+
+	private final DataInfo[] data;
+	private final int messageIdSpan;
+	private int index = 0;
+	private int repetition = 0;
+
+	public RecordingSource(List<DataInfo> recordedData) {
+		this.data = recordedData.stream()
+				.filter(PayloadEncoder::isSupported)
+				.sorted(Comparator.comparingLong(DataInfo::getClientTimestamp))
+				.toArray(DataInfo[]::new);
+		if(data.length == 0) {
+			throw new IllegalArgumentException("Recording doesn't contain any supported data");
+		}
+		this.messageIdSpan = data[data.length - 1].getMessageId() - data[0].getMessageId() + 1;
+	}
+
+	@Override
+	public long nextIntervalNanos() {
+		if(index == 0) {
+			return 0;
+		}
+		long millis = data[index].getClientTimestamp() - data[index - 1].getClientTimestamp();
+		return TimeUnit.MILLISECONDS.toNanos(Math.max(0, millis));
+	}
+
+	@Override
+	public void write(ByteBuffer buffer) {
+		DataInfo info = data[index];
+		PayloadEncoder.put(buffer, info, info.getMessageId() + repetition * messageIdSpan);
+
+		index++;
+		if(index == data.length) {
+			index = 0;
+			repetition++;
+		}
+	}
+}
@@ -0,0 +1,179 @@
+package de.putterer.indloc.data.simulator;
+
+import de.putterer.indloc.csi.atheros.AthCSIInfo.AthCSIStatus;
+import de.putterer.indloc.csi.intel.IntCSIInfo.IntCSINotification;
+
+import java.nio.ByteBuffer;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.Random;
+
+/**
+ * Generates csi or acceleration messages at a fixed rate
+ * The signal is a static multipath profile with noise and a random phase offset per packet,
+ * optionally modulated by a sinusoid like the chest movement of a breathing person
+ * Server timestamps are set to the sending time in microseconds since the epoch, allowing latency measurements
+ */
+public class SyntheticSource implements PacketSource {
+
+	private static final double BREATHING_DEPTH = 0.08; // relative amplitude modulation
+	private static final double BREATHING_PHASE_SHIFT = 0.3; // radians of phase difference modulation per rx antenna
+	private static final double NOISE = 0.02; // relative amplitude noise
+	private static final double GRAVITY = 9.81;
+
+	private final Type type;
+	private volatile long intervalNanos;
+	private final double breathingFrequency; // in Hz, 0 disables the modulation
+	private final int tones;
+	private final int rxAntennas;
+	private final int txAntennas;
+	private final Random random;
+	private final long startNanos = System.nanoTime();
+
+	private final double[] baseAmplitude; // [rx][tx][sc] flattened
+	private final double[] basePhase;
+
+	private final AthCSIStatus athStatus = new AthCSIStatus();
+	private final IntCSINotification intNotification = new IntCSINotification();
+
+	private int messageId = 0;
+
+	/**
+	 * @param type the type of messages to generate
+	 * @param rate the packets per second
+	 * @param breathingRate the simulated breaths per minute, 0 for none
+	 * @param seed the seed for the multipath profile and the noise
+	 */
+	public SyntheticSource(Type type, double rate, double breathingRate, long seed) {
+		this.type = type;
+		this.intervalNanos = (long) (1_000_000_000L / rate);
+		this.breathingFrequency = breathingRate / 60.0;
+		this.random = new Random(seed);
+
+		if(type == Type.INT) {
+			tones = PayloadEncoder.INT_NUM_TONES;
+			rxAntennas = 3;
+			txAntennas = 1;
+		} else {
+			tones = 56;
+			rxAntennas = PayloadEncoder.ATH_MATRIX_SIZE;
+			txAntennas = PayloadEncoder.ATH_MATRIX_SIZE;
+		}
+
+		baseAmplitude = new double[rxAntennas * txAntennas * tones];
+		basePhase = new double[rxAntennas * txAntennas * tones];
+		double[] pathDelays = {random.nextDouble() * 0.1, random.nextDouble() * 0.3, random.nextDouble() * 0.5};
+		for(int rx = 0;rx < rxAntennas;rx++) {
+			for(int tx = 0;tx < txAntennas;tx++) {
+				for(int sc = 0;sc < tones;sc++) {
+					int i = (rx * txAntennas + tx) * tones + sc;
+					// sum of three paths with different delays gives a frequency selective profile
+					double re = 0, im = 0;
+					for(int path = 0;path < pathDelays.length;path++) {
+						double phase = -pathDelays[path] * sc + (rx + 1) * (path + 1) * 0.9 + tx * 0.4;
+						double gain = 1.0 / (path + 1);
+						re += gain * Math.cos(phase);
+						im += gain * Math.sin(phase);
+					}
+					baseAmplitude[i] = 120 * Math.hypot(re, im) + 20;
+					basePhase[i] = Math.atan2(im, re);
+				}
+			}
+		}
+
+		athStatus.setChannel(2412);
+		athStatus.setChanBW((byte) 0);
+		athStatus.setRate((short) 0x8c);
+		athStatus.setNr((byte) rxAntennas);
+		athStatus.setNc((byte) txAntennas);
+		athStatus.setNum_tones((byte) tones);
+		athStatus.setNoise((short) 0);
+		athStatus.setRssi((short) 40);
+		athStatus.setRssi_0((short) 38);
+		athStatus.setRssi_1((short) 36);
+		athStatus.setRssi_2((short) 35);
+		athStatus.setPayload_len(124);
+		athStatus.setCsi_len(tones * rxAntennas * txAntennas * 20 / 8);
+
+		intNotification.setNrx((byte) rxAntennas);
+		intNotification.setNtx((byte) txAntennas);
+		intNotification.setRssi_a((short) 40);
+		intNotification.setRssi_b((short) 38);
+		intNotification.setRssi_c((short) 36);
+		intNotification.setNoise((short) -92);
+		intNotification.setAgc((short) 30);
+		intNotification.setPerm(new byte[] {0, 1, 2});
+		intNotification.setLen((30 * (rxAntennas * txAntennas * 8 * 2 + 3) + 7) / 8);
+	}
+
+	/**
+	 * @param rate the new packets per second
+	 */
+	public void setRate(double rate) {
+		intervalNanos = (long) (1_000_000_000L / rate);
+	}
+
+	@Override
+	public long nextIntervalNanos() {
+		return intervalNanos;
+	}
+
+	@Override
+	public void write(ByteBuffer buffer) {
+		long now = System.nanoTime();
+		double time = (now - startNanos) / 1e9;
+		double breathing = breathingFrequency > 0 ? Math.sin(2 * Math.PI * breathingFrequency * time) : 0.0;
+		long timestampMicros = ChronoUnit.MICROS.between(Instant.EPOCH, Instant.now());
+
+		switch(type) {
+			case ATH: {
+				athStatus.setTstamp(timestampMicros);
+				PayloadEncoder.putAthHeader(buffer, messageId++, athStatus);
+				double offset = random.nextDouble() * 2 * Math.PI; // carrier frequency offset, common to all antennas
+				for(int i = 0;i < baseAmplitude.length;i++) {
+					double amplitude = amplitude(i, breathing);
+					double phase = phase(i, breathing, offset);
+					PayloadEncoder.putAthCsi(buffer, (int) Math.round(amplitude * Math.cos(phase)), (int) Math.round(amplitude * Math.sin(phase)));
+				}
+				break;
+			}
+
+			case INT: {
+				intNotification.setTimestamp_low(timestampMicros & 0xFFFFFFFFL);
+				intNotification.setBfee_count(messageId & 0xFFFF);
+				PayloadEncoder.putIntHeader(buffer, messageId++, intNotification);
+				double offset = random.nextDouble() * 2 * Math.PI;
+				for(int i = 0;i < baseAmplitude.length;i++) {
+					double amplitude = amplitude(i, breathing) / 8; // intel values are 8 bit
+					double phase = phase(i, breathing, offset);
+					PayloadEncoder.putIntCsi(buffer, Math.round(amplitude * Math.cos(phase)), Math.round(amplitude * Math.sin(phase)));
+				}
+				break;
+			}
+
+			case ACCELERATION: {
+				PayloadEncoder.putAndroid(buffer, messageId++, timestampMicros, new float[] {
+						(float) (random.nextGaussian() * 0.05),
+						(float) (random.nextGaussian() * 0.05),
+						(float) (GRAVITY + breathing * 0.2 + random.nextGaussian() * 0.05)
+				});
+				break;
+			}
+		}
+	}
+
+	private double amplitude(int index, double breathing) {
+		return baseAmplitude[index] * (1 + BREATHING_DEPTH * breathing) * (1 + NOISE * random.nextGaussian());
+	}
+
+	private double phase(int index, double breathing, double offset) {
+		int rx = index / (txAntennas * tones);
+		return basePhase[index] + offset + BREATHING_PHASE_SHIFT * breathing * rx;
+	}
+
+	public enum Type {
+		ATH,
+		INT,
+		ACCELERATION
+	}
+}
@@ -0,0 +1,131 @@
+package de.putterer.indloc.data.simulator;
+
+import de.putterer.indloc.data.DataClient;
+import de.putterer.indloc.util.Logger;
+import lombok.Getter;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A simulated csi or acceleration server bound to its own address
+ * Answers subscriptions like the csi-server and sends the messages of its source to the subscriber
+ */
+public class VirtualStation {
+
+	private static final long MAX_BACKLOG_NANOS = TimeUnit.SECONDS.toNanos(1); // packets further behind are skipped
+	private static final int MAX_BURST = 1024; // bounds the time spent on one station per call
+	private static final long IDLE_POLL_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+	@Getter private final InetAddress address;
+	private final PacketSource source;
+	@Getter private final DatagramChannel channel;
+
+	private volatile InetSocketAddress subscriber = null;
+	private volatile boolean subscriptionChanged = false;
+	private long nextSendNanos = 0; // only accessed by the emitting thread
+	private final ByteBuffer sendBuffer = ByteBuffer.allocateDirect(DataClient.MAX_MESSAGE_LENGTH);
+	private final ByteBuffer controlBuffer = ByteBuffer.allocate(64);
+
+	private final LongAdder packetsSent = new LongAdder();
+	private final LongAdder sendFailures = new LongAdder(); // socket buffer full
+	private final LongAdder packetsSkipped = new LongAdder(); // emitter fell behind
+
+	public VirtualStation(InetAddress address, int port, PacketSource source) throws IOException {
+		this.address = address;
+		this.source = source;
+		channel = DatagramChannel.open();
+		channel.bind(new InetSocketAddress(address, port));
+		channel.configureBlocking(false);
+	}
+
+	/**
+	 * handles all pending subscription messages, called once the channel is readable
+	 */
+	void onControlMessages() throws IOException {
+		while(true) {
+			controlBuffer.clear();
+			InetSocketAddress sender = (InetSocketAddress) channel.receive(controlBuffer);
+			if(sender == null) {
+				return;
+			}
+			controlBuffer.flip();
+			if(! controlBuffer.hasRemaining()) {
+				continue;
+			}
+
+			byte type = controlBuffer.get();
+			if(type == DataClient.TYPE_SUBSCRIBE) {
+				// payload length filter, optionally followed by the port to send to
+				int replyPort = controlBuffer.remaining() >= 6 ? controlBuffer.getShort(controlBuffer.position() + 4) & 0xFFFF : 0;
+				InetSocketAddress target = replyPort != 0 ? new InetSocketAddress(sender.getAddress(), replyPort) : sender;
+				Logger.debug("Virtual station %s: subscription from %s", address.getHostAddress(), target);
+				channel.send(ByteBuffer.wrap(source.getSubscriptionConfirmation()), sender);
+				subscriber = target;
+				subscriptionChanged = true;
+			} else if(type == DataClient.TYPE_UNSUBSCRIBE) {
+				Logger.debug("Virtual station %s: unsubscribed by %s", address.getHostAddress(), sender);
+				channel.send(ByteBuffer.wrap(new byte[] {DataClient.TYPE_CONFIRM_UNSUBSCRIPTION}), sender);
+				subscriber = null;
+			}
+		}
+	}
+
+	/**
+	 * sends all messages due until now
+	 * @param now the current System.nanoTime()
+	 * @return when the next message is due
+	 */
+	long emit(long now) throws IOException {
+		InetSocketAddress target = subscriber;
+		if(target == null) {
+			return now + IDLE_POLL_NANOS;
+		}
+		if(subscriptionChanged) {
+			subscriptionChanged = false;
+			nextSendNanos = now;
+		}
+		if(now - nextSendNanos > MAX_BACKLOG_NANOS) {
+			packetsSkipped.add((now - nextSendNanos) / Math.max(1, source.nextIntervalNanos()));
+			nextSendNanos = now;
+		}
+
+		for(int i = 0;i < MAX_BURST && nextSendNanos - now <= 0;i++) {
+			sendBuffer.clear();
+			source.write(sendBuffer);
+			sendBuffer.flip();
+			if(channel.send(sendBuffer, target) == 0) {
+				sendFailures.increment();
+			} else {
+				packetsSent.increment();
+			}
+			nextSendNanos += source.nextIntervalNanos();
+		}
+		return nextSendNanos;
+	}
+
+	public boolean isSubscribed() {
+		return subscriber != null;
+	}
+
+	public long getPacketsSent() {
+		return packetsSent.sum();
+	}
+
+	public long getSendFailures() {
+		return sendFailures.sum();
+	}
+
+	public long getPacketsSkipped() {
+		return packetsSkipped.sum();
+	}
+
+	public void close() throws IOException {
+		channel.close();
+	}
+}
@@ -0,0 +1,192 @@
+package de.putterer.indloc.data.ssh;
+
+import de.putterer.indloc.data.BufferPool;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Extracts base64 encoded frames enclosed in <tag>...</tag> from a byte stream, e.g. the stdout of the csi-server
+ * Every byte is looked at once, the payload is decoded while scanning into a buffer from the pool
+ * Line breaks and whitespace inside frames are skipped, text outside of frames is passed on line by line
+ * Not thread safe
+ */
+public class Base64FrameDecoder {
+
+	private static final int MAX_LINE_LENGTH = 1024; // longer text lines outside of frames are cut
+
+	private static final int[] BASE64 = new int[256];
+	private static final int SKIP = -2; // whitespace and padding
+	static {
+		Arrays.fill(BASE64, -1);
+		String alphabet = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/";
+		for(int i = 0;i < alphabet.length();i++) {
+			BASE64[alphabet.charAt(i)] = i;
+		}
+		BASE64['\r'] = BASE64['\n'] = BASE64[' '] = BASE64['\t'] = BASE64['='] = SKIP;
+	}
+
+	private enum State {
+		SEEK, // outside of a frame, matching the open tag
+		PAYLOAD,
+		CLOSE_TAG
+	}
+
+	private final byte[] openTag;
+	private final byte[] closeTag; // without the leading '<' ending the payload
+	private final BufferPool pool;
+	private final FrameListener listener;
+
+	private State state = State.SEEK;
+	private int tagIndex = 0;
+
+	private BufferPool.Lease lease;
+	private ByteBuffer output;
+	private int bits; // decoded bits not yet written
+	private int bitCount;
+
+	private final StringBuilder line = new StringBuilder();
+
+	private final LongAdder frames = new LongAdder();
+	private final LongAdder malformedFrames = new LongAdder();
+
+	/**
+	 * @param tag the name of the enclosing tag
+	 * @param pool the pool the decoded frames are written to, frames larger than its buffers are dropped
+	 * @param listener receives frames and text lines
+	 */
+	public Base64FrameDecoder(String tag, BufferPool pool, FrameListener listener) {
+		this.openTag = ("<" + tag + ">").getBytes(StandardCharsets.US_ASCII);
+		this.closeTag = ("/" + tag + ">").getBytes(StandardCharsets.US_ASCII);
+		this.pool = pool;
+		this.listener = listener;
+	}
+
+	public void decode(byte[] data, int offset, int length) {
+		for(int i = offset;i < offset + length;i++) {
+			decode(data[i]);
+		}
+	}
+
+	private void decode(byte b) {
+		switch(state) {
+			case SEEK:
+				text(b);
+				if(b == openTag[tagIndex]) {
+					tagIndex++;
+					if(tagIndex == openTag.length) {
+						startFrame();
+					}
+				} else {
+					tagIndex = b == openTag[0] ? 1 : 0;
+				}
+				break;
+
+			case PAYLOAD:
+				int value = BASE64[b & 0xFF];
+				if(value >= 0) {
+					bits = (bits << 6) | value;
+					bitCount += 6;
+					if(bitCount >= 8) {
+						bitCount -= 8;
+						if(! output.hasRemaining()) {
+							malformed(b);
+							return;
+						}
+						output.put((byte) (bits >> bitCount));
+					}
+				} else if(b == '<') {
+					state = State.CLOSE_TAG;
+					tagIndex = 0;
+				} else if(value != SKIP) {
+					malformed(b);
+				}
+				break;
+
+			case CLOSE_TAG:
+				if(b != closeTag[tagIndex]) {
+					malformed(b);
+					return;
+				}
+				tagIndex++;
+				if(tagIndex == closeTag.length) {
+					endFrame();
+				}
+				break;
+		}
+	}
+
+	private void text(byte b) {
+		if(b == '\n' || b == '\r') {
+			if(line.length() > 0) {
+				listener.onLine(line.toString());
+				line.setLength(0);
+			}
+		} else if(line.length() < MAX_LINE_LENGTH) {
+			line.append((char) (b & 0xFF));
+		}
+	}
+
+	private void startFrame() {
+		line.setLength(0); // the open tag, text before it on the same line is dropped
+		lease = pool.acquire();
+		if(lease == null) { // the listener holds on to all buffers, drop the frame
+			malformedFrames.increment();
+			tagIndex = 0;
+			return;
+		}
+		state = State.PAYLOAD;
+		output = lease.buffer();
+		bits = 0;
+		bitCount = 0;
+	}
+
+	private void endFrame() {
+		output.flip();
+		frames.increment();
+		try {
+			listener.onFrame(lease.payload());
+		} finally {
+			releaseFrame();
+		}
+	}
+
+	private void malformed(byte b) {
+		malformedFrames.increment();
+		releaseFrame();
+		if(b == openTag[0]) {
+			tagIndex = 1;
+			line.append((char) b);
+		}
+	}
+
+	private void releaseFrame() {
+		lease.release();
+		lease = null;
+		output = null;
+		state = State.SEEK;
+		tagIndex = 0;
+	}
+
+	public long getFrames() {
+		return frames.sum();
+	}
+
+	public long getMalformedFrames() {
+		return malformedFrames.sum();
+	}
+
+	public interface FrameListener {
+		/**
+		 * @param frame the decoded payload, only valid during the call
+		 */
+		void onFrame(ByteBuffer frame);
+
+		/**
+		 * @param line a line of text outside of frames
+		 */
+		void onLine(String line);
+	}
+}
@@ -2,18 +2,36 @@ package de.putterer.indloc.data.ssh;
 
 import de.putterer.indloc.Station;
 import de.putterer.indloc.csi.atheros.AthCSIInfo;
+import de.putterer.indloc.data.BufferPool;
 import de.putterer.indloc.data.DataClient;
 import de.putterer.indloc.data.DataConsumer;
 import de.putterer.indloc.data.DataInfo;
 import de.putterer.indloc.util.Logger;
 
-import java.io.*;
-import java.net.DatagramPacket;
+import java.io.IOException;
+import java.io.InputStream;
 import java.nio.ByteBuffer;
-import java.util.Base64;
 
 public class SSHDataClient extends DataClient {
 
+	private static final int READ_BUFFER_SIZE = 16 * 1024;
+	private static final int FRAME_BUFFERS = 2;
+
+	private final Base64FrameDecoder decoder = new Base64FrameDecoder("athCSI", new BufferPool(FRAME_BUFFERS, MAX_MESSAGE_LENGTH), new Base64FrameDecoder.FrameListener() {
+		@Override
+		public void onFrame(ByteBuffer frame) {
+			onAthFrame(frame);
+		}
+
+		@Override
+		public void onLine(String line) {
+			if(line.contains("Starting CSI server") || line.contains("Dumping (atheros) csi data to stdout")) {
+				connected = true;
+				statusUpdateCallback.set(station);
+			}
+		}
+	});
+
 	public SSHDataClient(Station station, DataConsumer<? extends DataInfo>... consumers) {
 		super(station, consumers);
 	}
@@ -54,41 +72,15 @@ public class SSHDataClient extends DataClient {
 	}
 
 	public void scannerThread(Process process) {
-		BufferedReader stdout = new BufferedReader(new InputStreamReader(process.getInputStream()));
-		BufferedWriter stdin = new BufferedWriter(new OutputStreamWriter(process.getOutputStream()));
+		InputStream stdout = process.getInputStream();
+		byte[] data = new byte[READ_BUFFER_SIZE];
 		try {
 			while (/*process.isAlive() &&*/ !Thread.interrupted()) {
-				String line = stdout.readLine();
-				if(line == null) {
+				int read = stdout.read(data);
+				if(read < 0) {
 					break;
 				}
-
-				if(line.contains("Starting CSI server") || line.contains("Dumping (atheros) csi data to stdout")) {
-					connected = true;
-					statusUpdateCallback.set(station);
-				}
-
-				if(line.startsWith("<athCSI>")) {
-					StringBuilder sb = new StringBuilder(line);
-					while(true) {
-						char c = (char) stdout.read();
-//						System.out.println(line);
-						sb.append(c);
-						if(sb.toString().endsWith("</athCSI>")) {
-							break;
-						}
-					}
-
-					String csiData = sb.toString().replace("<athCSI>", "").replace("</athCSI>", "").replace("\n", "");
- 					byte[] data = Base64.getDecoder().decode(csiData);
-
-					if(data[0] != TYPE_ATH_CSI_INFO) {
-						Logger.warn("Received SSH payload doesn't match expected data type");
-					}
-
-					AthCSIInfo info = new AthCSIInfo(ByteBuffer.wrap(data, 1, data.length - 1));
-					getApplicableConsumers(AthCSIInfo.class).forEach(c -> c.accept(info));
-				}
+				decoder.decode(data, 0, read);
 			}
 		} catch (IOException e) {
 			Logger.error("Error while communicating with ssh processing, assuming stopped", e);
@@ -104,9 +96,30 @@ public class SSHDataClient extends DataClient {
 		statusUpdateCallback.set(station);
 	}
 
+	private void onAthFrame(ByteBuffer frame) {
+		if(frame.get() != TYPE_ATH_CSI_INFO) {
+			Logger.warn("Received SSH payload doesn't match expected data type");
+		}
+
+		AthCSIInfo info = track(new AthCSIInfo(frame));
+		dispatch(info);
+	}
+
+	/**
+	 * @return the number of frames that could not be decoded
+	 */
+	public long getMalformedFrames() {
+		return decoder.getMalformedFrames();
+	}
+
 	@Override
-	protected void onPacket(DatagramPacket packet) {
+	protected void onPacket(ByteBuffer packet) {
+
+	}
 
+	@Override
+	protected boolean usesDatagramTransport() {
+		return false;
 	}
 
 	@Override
@@ -2,7 +2,7 @@ package de.putterer.indloc.ui;
 
 import de.putterer.indloc.Config;
 import de.putterer.indloc.Station;
-import de.putterer.indloc.csi.CSIInfo;
+import de.putterer.indloc.csi.CSIReplay;
 import de.putterer.indloc.csi.DataPreview;
 import de.putterer.indloc.csi.DataPreview.AmplitudeDiffEvolutionPreview.AntennaSubcarrier;
 import de.putterer.indloc.csi.atheros.AthCSIInfo;
@@ -10,8 +10,12 @@ import de.putterer.indloc.csi.calibration.AndroidInfo;
 import de.putterer.indloc.csi.intel.IntCSIInfo;
 import de.putterer.indloc.data.DataClient;
 import de.putterer.indloc.data.DataInfo;
+import de.putterer.indloc.data.IngestQueue;
+import de.putterer.indloc.data.SequenceTracker;
 import de.putterer.indloc.data.ecg.EcgInfo;
 import de.putterer.indloc.util.Logger;
+import de.putterer.indloc.util.serialization.RecordCodec;
+import de.putterer.indloc.util.serialization.RecordingQueue;
 import de.putterer.indloc.util.serialization.Serialization;
 import org.apache.commons.math3.util.Pair;
 
@@ -24,6 +28,10 @@ import java.nio.file.Paths;
 import java.text.SimpleDateFormat;
 import java.util.List;
 import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
 
 import static de.putterer.indloc.Config.ROOM;
@@ -33,10 +41,18 @@ import static de.putterer.indloc.util.SwingUtil.*;
 
 public class GenericStatusUI extends UIComponentWindow {
 
+	private static final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(r -> {
+		Thread thread = new Thread(r, "status-refresh");
+		thread.setDaemon(true);
+		return thread;
+	});
+	private static final long RECORDING_SHUTDOWN_TIMEOUT_MS = 10_000;
+
 	private CsiUserInterface csiUserInterface;
 
 	private final JLabel stationsLabel = new JLabel("Stations:");
-	private final JList<String> stationsList = new JList<>();
+	private final DefaultListModel<String> stationsListModel = new DefaultListModel<>();
+	private final JList<String> stationsList = new JList<>(stationsListModel);
 	private final JButton selectRespiratoryButton = new JButton("Select");
 	private final JButton resubscribeButton = new JButton("Subs.");
 	private final JButton unsubscribeButton = new JButton("Unsubs.");
@@ -51,6 +67,7 @@ public class GenericStatusUI extends UIComponentWindow {
 	private boolean useDefaultSettingsForPreview = false;
 
 	private final List<Consumer<Station>> showPreviewCallbacks = new ArrayList<>();
+	private final ScheduledFuture<?> refreshTask;
 	public GenericStatusUI(CsiUserInterface csiUserInterface) {
 		super("CSI toolbox", 420, 300);
 		this.csiUserInterface = csiUserInterface;
@@ -59,6 +76,12 @@ public class GenericStatusUI extends UIComponentWindow {
 		initUI();
 
 		setupFinished();
+
+		// queue depth and drop counters change without status updates
+		refreshTask = executor.scheduleAtFixedRate(() -> SwingUtilities.invokeLater(() -> onStationUpdated(null)), 1, 1, TimeUnit.SECONDS);
+
+		// the frames exit the application on close, records still queued have to be written and the writers closed
+		Runtime.getRuntime().addShutdownHook(recordingShutdownHook);
 	}
 
 	public void onStationUpdated(Station station) {
@@ -69,15 +92,38 @@ public class GenericStatusUI extends UIComponentWindow {
 				status = client.isConnected() ?
 						(client.getConsumers()[0].getType() == AndroidInfo.class ? "Connected: Android" : (client.getConsumers()[0].getType() == EcgInfo.class ? "Connected: Serial" : "Connected: CSI"))
 						: (client.isTimedOut() ? "Timed out" : "Connecting...");
+
+				IngestQueue queue = client.getIngestQueue();
+				if(queue != null) {
+					status += String.format(", queue: %d/%d, dropped: %d", queue.getDepth(), queue.getCapacity(), queue.getDropped());
+				}
+				SequenceTracker sequenceTracker = client.getSequenceTracker();
+				if(sequenceTracker.getGapCount() > 0) {
+					status += String.format(", loss: %.1f%%, gaps: %d", sequenceTracker.getLossRate() * 100.0, sequenceTracker.getGapCount());
+				}
 			}
 			return String.format("%s (at %s) - %s",
 					s.getName() != null ? s.getName() : s.getHW_ADDRESS(),
 					s.getIP_ADDRESS(),
 					status);
 		}).toArray(String[]::new);
-		int selectedIndex = stationsList.getSelectedIndex();
-		stationsList.setListData(data);
-		stationsList.setSelectedIndex(selectedIndex);
+		// updated in place, replacing the list data would reset the selection
+		for(int i = 0;i < data.length;i++) {
+			if(i >= stationsListModel.size()) {
+				stationsListModel.addElement(data[i]);
+			} else if(! stationsListModel.get(i).equals(data[i])) {
+				stationsListModel.set(i, data[i]);
+			}
+		}
+		while(stationsListModel.size() > data.length) {
+			stationsListModel.removeElementAt(stationsListModel.size() - 1);
+		}
+
+		synchronized (recordingColor) {
+			stationsLabel.setText(recordingFolder.isPresent() ? String.format("Stations - recording: %d queued (%d KB), %d dropped, latency %.1f/%.1f ms",
+					recordingQueue.getQueuedRecords(), recordingQueue.getQueuedBytes() / 1024, recordingQueue.getDroppedRecords() - droppedRecordsAtRecordingStart,
+					recordingQueue.getAverageWriteLatencyMicros() / 1e3, recordingQueue.getMaxWriteLatencyMicros() / 1e3) : "Stations:");
+		}
 	}
 
 	private void initUI() {
@@ -91,12 +137,7 @@ public class GenericStatusUI extends UIComponentWindow {
 		selectRespiratoryButton.setBounds(10, 140, 380/3, 30);
 		this.add(selectRespiratoryButton);
 		resubscribeButton.setBounds(20 + 380/3, 140, 380/3, 30);
-		resubscribeButton.addActionListener(a -> new Thread(() -> {
-			DataClient client = getCurrentlySelectedClient();
-			client.unsubscribe();
-			try { Thread.sleep(500); } catch(InterruptedException e) { e.printStackTrace(); }
-			client.subscribe();
-		}).start());
+		resubscribeButton.addActionListener(a -> getCurrentlySelectedClient().resubscribe());
 		this.add(resubscribeButton);
 		unsubscribeButton.setBounds(30 + 380/3*2, 140, 380/3, 30);
 		unsubscribeButton.addActionListener(a -> getCurrentlySelectedClient().unsubscribe());
@@ -149,6 +190,11 @@ public class GenericStatusUI extends UIComponentWindow {
 	private Color backgroundColor;
 	private final Color recordingColor = new Color(195, 0, 0);
 	private Optional<Path> recordingFolder = Optional.empty();
+	private final Map<DataClient, SequenceTracker.Statistics> sequenceStatisticsAtRecordingStart = new HashMap<>();
+	private final Map<Station, RecordingQueue.Recording> recordings = new HashMap<>(); // guarded by recordingColor
+	private final RecordingQueue recordingQueue = new RecordingQueue();
+	private long droppedRecordsAtRecordingStart = 0; // guarded by recordingColor
+	private final Thread recordingShutdownHook = new Thread(this::shutdownRecording, "recording-shutdown");
 	private void startRecording() {
 		synchronized (recordingColor) {
 			String recordingName = openStringDialog(
@@ -169,6 +215,10 @@ public class GenericStatusUI extends UIComponentWindow {
 			}
 
 			recordingFolder = Optional.of(recordingPath);
+
+			sequenceStatisticsAtRecordingStart.clear();
+			DataClient.getClients().forEach(c -> sequenceStatisticsAtRecordingStart.put(c, c.getSequenceTracker().getStatistics()));
+			droppedRecordsAtRecordingStart = recordingQueue.getDroppedRecords();
 		}
 
 		try {
@@ -188,34 +238,90 @@ public class GenericStatusUI extends UIComponentWindow {
 
 		this.setBackground(backgroundColor);
 
+		finishRecording();
+	}
+
+	/**
+	 * saves the sequence statistics and closes the recordings once their queued records have been written
+	 */
+	private void finishRecording() {
 		synchronized (recordingColor) {
+			if(! recordingFolder.isPresent()) {
+				return;
+			}
+			saveSequenceStatistics(recordingFolder.get());
 			recordingFolder = Optional.empty();
+
+			recordings.values().forEach(recordingQueue::close);
+			recordings.clear();
+
+			long dropped = recordingQueue.getDroppedRecords() - droppedRecordsAtRecordingStart;
+			Logger.info("Recording stopped, %d records (%d KB) still queued, %d dropped, write latency avg %.1f us, max %.1f us",
+					recordingQueue.getQueuedRecords(), recordingQueue.getQueuedBytes() / 1024, dropped,
+					recordingQueue.getAverageWriteLatencyMicros(), recordingQueue.getMaxWriteLatencyMicros());
+			if(dropped > 0) {
+				Logger.warn("Recording queue full, %d records dropped", dropped);
+			}
+		}
+	}
+
+	/**
+	 * finishes a running recording and waits for the queued records to be written
+	 */
+	private void shutdownRecording() {
+		finishRecording();
+		recordingQueue.shutdown(RECORDING_SHUTDOWN_TIMEOUT_MS);
+	}
+
+	@Override
+	public void destroy() {
+		refreshTask.cancel(false);
+		super.destroy();
+		shutdownRecording();
+		try {
+			Runtime.getRuntime().removeShutdownHook(recordingShutdownHook);
+		} catch(IllegalStateException e) {
+			// already shutting down
+		}
+	}
+
+	/**
+	 * stores the loss statistics and the gaps that occurred during the recording, used by the replay to show them
+	 */
+	private void saveSequenceStatistics(Path folder) {
+		for(Station station : ROOM.getStations()) {
+			DataClient client = DataClient.getClient(station);
+			if(client == null || ! sequenceStatisticsAtRecordingStart.containsKey(client)) {
+				continue;
+			}
+
+			try {
+				Serialization.serialize(CSIReplay.getSequenceStatisticsFile(folder, station), false,
+						client.getSequenceTracker().getStatistics(sequenceStatisticsAtRecordingStart.get(client)));
+			} catch(IOException e) {
+				Logger.error("Could not save sequence statistics of %s", station.getIP_ADDRESS());
+			}
 		}
 	}
 
 	@Override
 	public void onDataInfo(Station station, DataInfo dataInfo) {
-		if(dataInfo instanceof CSIInfo || dataInfo instanceof EcgInfo || dataInfo instanceof AndroidInfo) {
-			recordingFolder.ifPresent(folder -> {
-				try {
-					String file = "";
-					if(dataInfo instanceof CSIInfo) {
-						file = station.getHW_ADDRESS() + "-" + dataInfo.getMessageId() + ".csi";
-					} else if(dataInfo instanceof EcgInfo) {
-						file = station.getIP_ADDRESS().replace("/", "_") + "-" + dataInfo.getMessageId() + ".ecg";
-					} else {
-						file = station.getHW_ADDRESS() + "-" + dataInfo.getMessageId() + ".accel";
-					}
-
-					file = file + ".deflate";
-
-					// looses type information, dataInfo type is present in station inside room config
-					Serialization.save(folder.resolve(file), dataInfo);
-				} catch (IOException e) {
-					Logger.error("Could not serialize csi", e);
-				}
-			});
+		RecordCodec codec = RecordCodec.forData(dataInfo);
+		if(codec == null) {
+			return;
+		}
+
+		RecordingQueue.Recording recording;
+		synchronized (recordingColor) {
+			if(! recordingFolder.isPresent()) {
+				return;
+			}
+			// the writer is created on the writer thread, see RecordingQueue
+			recording = recordings.computeIfAbsent(station, s -> recordingQueue.open(recordingFolder.get(), s.getHW_ADDRESS(), codec));
 		}
+
+		// a record offered after the recording was stopped is dropped
+		recordingQueue.offer(recording, dataInfo);
 	}
 
 	private void initPreviewSelector() {
@@ -31,6 +31,7 @@ public class ReplayUI extends UIComponentWindow {
     private final JLabel replayInfoLabel = new JLabel("filename");
     private final JLabel progressLabel = new JLabel("Packets: 0 / 0");
     private final JLabel timeProgressLabel = new JLabel("Time: 0.0s / 0.0s");
+    private final JLabel gapsLabel = new JLabel("Gaps: 0 / 0");
 //    private final JProgressBar progressBar = new JProgressBar();
     private final JSlider progressSlider = new JSlider();
     private final JButton toStartButton = new JButton("|<<");
@@ -75,9 +76,11 @@ public class ReplayUI extends UIComponentWindow {
             return;
         }
 
-        replayInfoLabel.setBounds(10, 50, 400, 20);
+        replayInfoLabel.setBounds(10, 50, 290, 20);
         this.add(replayInfoLabel);
         replayInfoLabel.setText(csiUserInterface.getReplay().getFolder().getFileName().toString());
+        gapsLabel.setBounds(300, 50, 110, 20);
+        this.add(gapsLabel);
 
         progressLabel.setBounds(10, 90, 200, 30);
         this.add(progressLabel);
@@ -147,6 +150,9 @@ public class ReplayUI extends UIComponentWindow {
                     Duration.between(replay.getStartTime(), replay.getCurrentReplayTime()).toMillis() / 1000.0f,
                     replay.getTotalRuntime().toMillis() / 1000.0f));
             progressSlider.setValue((int) Duration.between(replay.getStartTime(), replay.getCurrentReplayTime()).toMillis());
+            gapsLabel.setText(String.format("Gaps:   %d / %d",
+                    replay.getNumberOfPastGaps(),
+                    replay.getTotalNumberOfGaps()));
         });
     }
 
@@ -1,11 +1,9 @@
 package de.putterer.indloc.util;
 
-import de.putterer.indloc.csi.CSIInfo;
 import de.putterer.indloc.csi.CSIInfo.Complex;
 
 import java.security.InvalidParameterException;
 import java.util.Arrays;
-import java.util.stream.IntStream;
 
 /**
  * Utility code for processing CSI
@@ -94,27 +92,25 @@ public class CSIUtil {
             throw new InvalidParameterException(String.format("Lengths of arrays l: %d, r: %d, do not match", l.length, r.length));
         }
 
-        return IntStream.range(0, l.length).mapToObj(i -> new Complex(
-                l[i].getReal() + r[i].getReal(),
-                l[i].getImag() + r[i].getImag()
-        )).toArray(Complex[]::new);
+        double[] re = real(l), im = imag(l);
+        ComplexKernels.add(re, im, real(r), imag(r), l.length);
+        return toComplex(re, im);
     }
 
     public static Complex[] scale(Complex[] c, double v) {
-        return Arrays.stream(c).map(it -> it.scale(v)).toArray(Complex[]::new);
+        double[] re = real(c), im = imag(c);
+        ComplexKernels.scale(re, im, v, c.length);
+        return toComplex(re, im);
     }
 
     public static Complex mean(Complex[] c) {
-        return Arrays.stream(c).reduce(CSIInfo.Complex::add).orElse(new CSIInfo.Complex(0,0)).scale(1.0 / c.length);
+        double[] mean = new double[2];
+        ComplexKernels.mean(real(c), imag(c), c.length, mean);
+        return new Complex((int) Math.round(mean[0]), (int) Math.round(mean[1]));
     }
 
     public static double variance(Complex[] c) {
-        Complex mean = mean(c);
-        return Arrays.stream(c)
-                .map(it -> Math.pow(it.sub(mean).getAmplitude(), 2))
-                .reduce(Double::sum)
-                .orElse(0.0)
-                / c.length;
+        return ComplexKernels.variance(real(c), imag(c), c.length);
     }
 
     public static double stddev(Complex[] c) {
@@ -128,9 +124,42 @@ public class CSIUtil {
      * @return the shifted data
      */
     public static Complex[] shift(Complex[] c, double phaseOffset) {
-        return Arrays.stream(c)
-                .map(it -> Complex.fromAmplitudePhase(it.getAmplitude(), it.getPhase() + phaseOffset))
-                .toArray(Complex[]::new);
+        double[] re = real(c), im = imag(c);
+        ComplexKernels.rotate(re, im, phaseOffset, re, im, c.length);
+        return toComplex(re, im);
+    }
+
+    /**
+     * @return the real parts of the given values
+     */
+    public static double[] real(Complex[] c) {
+        double[] re = new double[c.length];
+        for(int i = 0;i < c.length;i++) {
+            re[i] = c[i].getReal();
+        }
+        return re;
+    }
+
+    /**
+     * @return the imaginary parts of the given values
+     */
+    public static double[] imag(Complex[] c) {
+        double[] im = new double[c.length];
+        for(int i = 0;i < c.length;i++) {
+            im[i] = c[i].getImag();
+        }
+        return im;
+    }
+
+    /**
+     * @return complex values of the given parts, rounded like Complex.scale
+     */
+    public static Complex[] toComplex(double[] re, double[] im) {
+        Complex[] c = new Complex[re.length];
+        for(int i = 0;i < c.length;i++) {
+            c[i] = new Complex((int) Math.round(re[i]), (int) Math.round(im[i]));
+        }
+        return c;
     }
 
     /**
@@ -0,0 +1,115 @@
+package de.putterer.indloc.util;
+
+/**
+ * Complex arithmetic on split arrays of real and imaginary parts, without allocating
+ * All kernels process the first length entries, destination arrays may be the same as the source arrays
+ */
+public class ComplexKernels {
+
+    /**
+     * dst = l + r
+     */
+    public static void sum(double[] lRe, double[] lIm, double[] rRe, double[] rIm, double[] dstRe, double[] dstIm, int length) {
+        for(int i = 0;i < length;i++) {
+            dstRe[i] = lRe[i] + rRe[i];
+            dstIm[i] = lIm[i] + rIm[i];
+        }
+    }
+
+    /**
+     * acc += v, in place
+     */
+    public static void add(double[] accRe, double[] accIm, double[] re, double[] im, int length) {
+        sum(accRe, accIm, re, im, accRe, accIm, length);
+    }
+
+    /**
+     * dst = v * s
+     */
+    public static void scale(double[] re, double[] im, double s, double[] dstRe, double[] dstIm, int length) {
+        for(int i = 0;i < length;i++) {
+            dstRe[i] = re[i] * s;
+            dstIm[i] = im[i] * s;
+        }
+    }
+
+    /**
+     * v *= s, in place
+     */
+    public static void scale(double[] re, double[] im, double s, int length) {
+        scale(re, im, s, re, im, length);
+    }
+
+    /**
+     * @param result receives the real part at index 0 and the imaginary part at index 1
+     */
+    public static void mean(double[] re, double[] im, int length, double[] result) {
+        double sumRe = 0.0, sumIm = 0.0;
+        for(int i = 0;i < length;i++) {
+            sumRe += re[i];
+            sumIm += im[i];
+        }
+        double factor = 1.0 / length;
+        result[0] = sumRe * factor;
+        result[1] = sumIm * factor;
+    }
+
+    /**
+     * @return the mean squared distance of the values to their mean
+     */
+    public static double variance(double[] re, double[] im, int length) {
+        double sumRe = 0.0, sumIm = 0.0;
+        for(int i = 0;i < length;i++) {
+            sumRe += re[i];
+            sumIm += im[i];
+        }
+        double meanRe = sumRe / length;
+        double meanIm = sumIm / length;
+
+        double sum = 0.0;
+        for(int i = 0;i < length;i++) {
+            double dRe = re[i] - meanRe;
+            double dIm = im[i] - meanIm;
+            sum += dRe * dRe + dIm * dIm;
+        }
+        return sum / length;
+    }
+
+    /**
+     * dst = l * conj(r)
+     */
+    public static void conjugateMultiply(double[] lRe, double[] lIm, double[] rRe, double[] rIm, double[] dstRe, double[] dstIm, int length) {
+        for(int i = 0;i < length;i++) {
+            double re = lRe[i] * rRe[i] + lIm[i] * rIm[i];
+            double im = lIm[i] * rRe[i] - lRe[i] * rIm[i];
+            dstRe[i] = re;
+            dstIm[i] = im;
+        }
+    }
+
+    /**
+     * dst = l * conj(r), reading l and r from the given offsets, e.g. two antenna pairs of a CSIMatrix
+     */
+    public static void conjugateMultiply(int[] lRe, int[] lIm, int lOffset, int[] rRe, int[] rIm, int rOffset, double[] dstRe, double[] dstIm, int length) {
+        for(int i = 0;i < length;i++) {
+            double aRe = lRe[lOffset + i], aIm = lIm[lOffset + i];
+            double bRe = rRe[rOffset + i], bIm = rIm[rOffset + i];
+            dstRe[i] = aRe * bRe + aIm * bIm;
+            dstIm[i] = aIm * bRe - aRe * bIm;
+        }
+    }
+
+    /**
+     * dst = v * e^(i * phase), rotating every value by the same phase
+     */
+    public static void rotate(double[] re, double[] im, double phase, double[] dstRe, double[] dstIm, int length) {
+        double cos = Math.cos(phase);
+        double sin = Math.sin(phase);
+        for(int i = 0;i < length;i++) {
+            double r = re[i] * cos - im[i] * sin;
+            double m = re[i] * sin + im[i] * cos;
+            dstRe[i] = r;
+            dstIm[i] = m;
+        }
+    }
+}
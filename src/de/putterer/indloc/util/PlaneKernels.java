@@ -0,0 +1,82 @@
+package de.putterer.indloc.util;
+
+import de.putterer.indloc.Config;
+
+/**
+ * Kernels deriving amplitude and phase planes and conjugate products from split csi arrays
+ * This is the scalar implementation, a vectorized one using jdk.incubator.vector is used instead if the module is available,
+ * see getInstance
+ * The scalar phases are exact, the vectorized ones approximate atan2, see VectorPlaneKernels
+ */
+public class PlaneKernels {
+
+    private static final String VECTOR_IMPLEMENTATION = "de.putterer.indloc.util.VectorPlaneKernels";
+
+    private static final PlaneKernels instance = load();
+
+    private static PlaneKernels load() {
+        PlaneKernels kernels = Config.USE_VECTOR_KERNELS ? vectorized() : null;
+        if(kernels != null) {
+            Logger.debug("Using vectorized kernels");
+        }
+        return kernels != null ? kernels : new PlaneKernels();
+    }
+
+    /**
+     * @return the vectorized kernels regardless of Config.USE_VECTOR_KERNELS, null if they aren't available
+     */
+    public static PlaneKernels vectorized() {
+        try {
+            return (PlaneKernels) Class.forName(VECTOR_IMPLEMENTATION).getDeclaredConstructor().newInstance();
+        } catch(Throwable e) {
+            // module not added or not supported by the vm
+            Logger.debug("Vectorized kernels not available (%s)", e.toString());
+            return null;
+        }
+    }
+
+    /**
+     * @return the vectorized kernels if enabled and available, the scalar ones otherwise
+     */
+    public static PlaneKernels getInstance() {
+        return instance;
+    }
+
+    /**
+     * @return the scalar kernels
+     */
+    public static PlaneKernels scalar() {
+        return new PlaneKernels();
+    }
+
+    public String getName() {
+        return "scalar";
+    }
+
+    /**
+     * dst[i] = |v[offset + i]|
+     */
+    public void amplitudes(int[] re, int[] im, int offset, double[] dst, int length) {
+        for(int i = 0;i < length;i++) {
+            double r = re[offset + i], m = im[offset + i];
+            dst[i] = Math.sqrt(r * r + m * m);
+        }
+    }
+
+    /**
+     * dst[i] = phase of v[offset + i] in [0, 2pi), like Complex.getPhase
+     */
+    public void phases(int[] re, int[] im, int offset, double[] dst, int length) {
+        for(int i = 0;i < length;i++) {
+            double angle = Math.atan2(im[offset + i], re[offset + i]);
+            dst[i] = angle < 0 ? angle + Math.PI * 2 : angle;
+        }
+    }
+
+    /**
+     * dst = l * conj(r), see ComplexKernels
+     */
+    public void conjugateMultiply(int[] lRe, int[] lIm, int lOffset, int[] rRe, int[] rIm, int rOffset, double[] dstRe, double[] dstIm, int length) {
+        ComplexKernels.conjugateMultiply(lRe, lIm, lOffset, rRe, rIm, rOffset, dstRe, dstIm, length);
+    }
+}
@@ -0,0 +1,132 @@
+package de.putterer.indloc.util;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorShape;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Vectorized plane kernels using jdk.incubator.vector
+ * Only loaded by PlaneKernels.getInstance, requires --add-modules jdk.incubator.vector at compile and run time
+ * Amplitudes and conjugate products are computed like the scalar kernels,
+ * phases are approximated by a polynomial within ATAN_MAX_ERROR instead of Math.atan2, see fastAtan2
+ */
+public class VectorPlaneKernels extends PlaneKernels {
+
+    // odd minimax polynomial for atan on [0, 1], evaluated in s = a^2
+    private static final double ATAN_C1 = 0.99997726;
+    private static final double ATAN_C3 = -0.33262347;
+    private static final double ATAN_C5 = 0.19354346;
+    private static final double ATAN_C7 = -0.11643287;
+    private static final double ATAN_C9 = 0.05265332;
+    private static final double ATAN_C11 = -0.01172120;
+
+    /**
+     * the maximum absolute error of the approximated phases in radians
+     */
+    public static final double ATAN_MAX_ERROR = 1e-5;
+
+    private static final VectorSpecies<Double> DOUBLES = DoubleVector.SPECIES_PREFERRED;
+    // ints with as many lanes as DOUBLES, converted after loading
+    private static final VectorSpecies<Integer> INTS = VectorSpecies.of(int.class, VectorShape.forBitSize(DOUBLES.vectorBitSize() / 2));
+
+    public VectorPlaneKernels() {
+        if(DOUBLES.length() < 2) {
+            throw new UnsupportedOperationException("No vector support");
+        }
+    }
+
+    @Override
+    public String getName() {
+        return "vector (" + DOUBLES.length() + " lanes)";
+    }
+
+    private static DoubleVector load(int[] values, int offset) {
+        return (DoubleVector) IntVector.fromArray(INTS, values, offset).convertShape(VectorOperators.I2D, DOUBLES, 0);
+    }
+
+    @Override
+    public void amplitudes(int[] re, int[] im, int offset, double[] dst, int length) {
+        int bound = DOUBLES.loopBound(length);
+        int i = 0;
+        for(;i < bound;i += DOUBLES.length()) {
+            DoubleVector r = load(re, offset + i);
+            DoubleVector m = load(im, offset + i);
+            r.mul(r).add(m.mul(m)).lanewise(VectorOperators.SQRT).intoArray(dst, i);
+        }
+        for(;i < length;i++) {
+            double r = re[offset + i], m = im[offset + i];
+            dst[i] = Math.sqrt(r * r + m * m);
+        }
+    }
+
+    @Override
+    public void phases(int[] re, int[] im, int offset, double[] dst, int length) {
+        int bound = DOUBLES.loopBound(length);
+        int i = 0;
+        for(;i < bound;i += DOUBLES.length()) {
+            DoubleVector x = load(re, offset + i);
+            DoubleVector y = load(im, offset + i);
+
+            DoubleVector ax = x.abs(), ay = y.abs();
+            DoubleVector max = ax.max(ay), min = ax.min(ay);
+            VectorMask<Double> zero = max.eq(0.0);
+            DoubleVector a = min.div(max).blend(0.0, zero);
+            DoubleVector s = a.mul(a);
+            DoubleVector poly = s.mul(ATAN_C11).add(ATAN_C9);
+            poly = s.mul(poly).add(ATAN_C7);
+            poly = s.mul(poly).add(ATAN_C5);
+            poly = s.mul(poly).add(ATAN_C3);
+            poly = s.mul(poly).add(ATAN_C1);
+            DoubleVector r = a.mul(poly);
+
+            r = r.blend(DoubleVector.broadcast(DOUBLES, Math.PI / 2).sub(r), ay.compare(VectorOperators.GT, ax));
+            r = r.blend(DoubleVector.broadcast(DOUBLES, Math.PI).sub(r), x.lt(0.0));
+            r = r.blend(r.neg(), y.lt(0.0));
+            r = r.blend(r.add(Math.PI * 2), r.lt(0.0));
+            r.intoArray(dst, i);
+        }
+        for(;i < length;i++) {
+            double angle = fastAtan2(im[offset + i], re[offset + i]);
+            dst[i] = angle < 0 ? angle + Math.PI * 2 : angle;
+        }
+    }
+
+    /**
+     * approximates Math.atan2 within ATAN_MAX_ERROR, the remaining elements of phases are computed the same way
+     */
+    public static double fastAtan2(double y, double x) {
+        double ax = Math.abs(x), ay = Math.abs(y);
+        double max = Math.max(ax, ay), min = Math.min(ax, ay);
+        double a = max == 0.0 ? 0.0 : min / max;
+        double s = a * a;
+        double r = a * (ATAN_C1 + s * (ATAN_C3 + s * (ATAN_C5 + s * (ATAN_C7 + s * (ATAN_C9 + s * ATAN_C11)))));
+        if(ay > ax) {
+            r = Math.PI / 2 - r;
+        }
+        if(x < 0) {
+            r = Math.PI - r;
+        }
+        return y < 0 ? -r : r;
+    }
+
+    @Override
+    public void conjugateMultiply(int[] lRe, int[] lIm, int lOffset, int[] rRe, int[] rIm, int rOffset, double[] dstRe, double[] dstIm, int length) {
+        int bound = DOUBLES.loopBound(length);
+        int i = 0;
+        for(;i < bound;i += DOUBLES.length()) {
+            DoubleVector aRe = load(lRe, lOffset + i), aIm = load(lIm, lOffset + i);
+            DoubleVector bRe = load(rRe, rOffset + i), bIm = load(rIm, rOffset + i);
+            aRe.mul(bRe).add(aIm.mul(bIm)).intoArray(dstRe, i);
+            aIm.mul(bRe).sub(aRe.mul(bIm)).intoArray(dstIm, i);
+        }
+        for(;i < length;i++) {
+            double aRe = lRe[lOffset + i], aIm = lIm[lOffset + i];
+            double bRe = rRe[rOffset + i], bIm = rIm[rOffset + i];
+            dstRe[i] = aRe * bRe + aIm * bIm;
+            dstIm[i] = aIm * bRe - aRe * bIm;
+        }
+    }
+}
@@ -1,60 +1,403 @@
 package de.putterer.indloc.util.serialization;
 
 import com.google.gson.*;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import de.putterer.indloc.csi.CSIInfo;
+import de.putterer.indloc.csi.CSIMatrix;
 import de.putterer.indloc.csi.atheros.AthCSIInfo;
+import de.putterer.indloc.csi.atheros.AthCSIInfo.AthCSIStatus;
 import de.putterer.indloc.csi.calibration.AndroidInfo;
 import de.putterer.indloc.csi.esp.EspCSIInfo;
 import de.putterer.indloc.csi.intel.IntCSIInfo;
+import de.putterer.indloc.csi.intel.IntCSIInfo.IntCSINotification;
 import de.putterer.indloc.data.DataInfo;
 import de.putterer.indloc.data.ecg.EcgInfo;
 
-import java.lang.reflect.Type;
+import java.io.IOException;
+import java.util.Arrays;
 import java.util.Optional;
 
-public class DataInfoInterfaceAdapter implements JsonDeserializer<DataInfo>, JsonSerializer<DataInfo> {
+/**
+ * Streaming json (de-)serialization of all DataInfo types, registered for the whole hierarchy
+ *
+ * Written objects start with the format version and type, followed by the fields of the type, e.g.
+ *   {"v":2,"type":"ath","clientTimestamp":..,"messageId":..,"atherosCsiStatus":{..},"csi":[rx,tx,tones,real0,imag0,real1,..]}
+ * the csi matrix is a flat array of its dimensions and the interleaved values, see CSIMatrix
+ *
+ * Objects without version were written reflectively, identified by the csiInfoType class name or their properties,
+ * and are read by the former tree based path, including the nested complex matrices of old recordings
+ */
+public class DataInfoInterfaceAdapter extends TypeAdapter<DataInfo> {
+
+	public static final int VERSION = 2; // 1: reflective serialization
+	private static final String VERSION_FIELD = "v";
+	private static final String TYPE_FIELD = "type";
+
+	private static final Gson reflectiveGson = new Gson();
 
 	@Override
-	public DataInfo deserialize(JsonElement jsonElement, Type type, JsonDeserializationContext jsonDeserializationContext) throws JsonParseException {
-		Optional<Class<?>> clazz = Optional.ofNullable(jsonElement.getAsJsonObject().get("csiInfoType"))
+	public void write(JsonWriter out, DataInfo info) throws IOException {
+		if(info == null) {
+			out.nullValue();
+			return;
+		}
+		String type = typeName(info.getClass());
+		if(type == null) { // unknown type, written reflectively with its class name like before
+			JsonObject obj = reflectiveGson.toJsonTree(info).getAsJsonObject();
+			obj.addProperty("csiInfoType", info.getClass().toString());
+			reflectiveGson.toJson(obj, out);
+			return;
+		}
+
+		out.beginObject();
+		out.name(VERSION_FIELD).value(VERSION);
+		out.name(TYPE_FIELD).value(type);
+		out.name("clientTimestamp").value(info.getClientTimestamp());
+		out.name("messageId").value(info.getMessageId());
+
+		if(info instanceof AthCSIInfo) {
+			AthCSIStatus status = ((AthCSIInfo) info).getAtherosCsiStatus();
+			out.name("atherosCsiStatus").beginObject();
+			out.name("tstamp").value(status.getTstamp());
+			out.name("channel").value(status.getChannel());
+			out.name("chanBW").value(status.getChanBW());
+			out.name("rate").value(status.getRate());
+			out.name("nr").value(status.getNr());
+			out.name("nc").value(status.getNc());
+			out.name("num_tones").value(status.getNum_tones());
+			out.name("noise").value(status.getNoise());
+			out.name("phyerr").value(status.getPhyerr());
+			out.name("rssi").value(status.getRssi());
+			out.name("rssi_0").value(status.getRssi_0());
+			out.name("rssi_1").value(status.getRssi_1());
+			out.name("rssi_2").value(status.getRssi_2());
+			out.name("payload_len").value(status.getPayload_len());
+			out.name("csi_len").value(status.getCsi_len());
+			out.name("buf_len").value(status.getBuf_len());
+			out.endObject();
+		} else if(info instanceof IntCSIInfo) {
+			IntCSINotification notification = ((IntCSIInfo) info).getIntelCsiNotification();
+			out.name("intelCsiNotification").beginObject();
+			out.name("timestamp_low").value(notification.getTimestamp_low());
+			out.name("bfee_count").value(notification.getBfee_count());
+			out.name("Nrx").value(notification.getNrx());
+			out.name("Ntx").value(notification.getNtx());
+			out.name("rssi_a").value(notification.getRssi_a());
+			out.name("rssi_b").value(notification.getRssi_b());
+			out.name("rssi_c").value(notification.getRssi_c());
+			out.name("noise").value(notification.getNoise());
+			out.name("agc").value(notification.getAgc());
+			out.name("antenna_sel").value(notification.getAntenna_sel());
+			out.name("perm").beginArray();
+			for(byte p : notification.getPerm()) {
+				out.value(p);
+			}
+			out.endArray();
+			out.name("len").value(notification.getLen());
+			out.name("fake_rate_n_flags").value(notification.getFake_rate_n_flags());
+			out.endObject();
+		} else if(info instanceof EspCSIInfo) {
+			EspCSIInfo esp = (EspCSIInfo) info;
+			out.name("sourceMac").value(esp.getSourceMac());
+			out.name("length").value(esp.getLength());
+			out.name("firstWordInvalid").value(esp.isFirstWordInvalid());
+			out.name("rssi").value(esp.getRssi());
+			out.name("mcs").value(esp.getMcs());
+			out.name("channelBandwidth").value(esp.getChannelBandwidth().name());
+			out.name("spaceTimeBlockCode").value(esp.isSpaceTimeBlockCode());
+			out.name("guardInterval").value(esp.getGuardInterval().name());
+			out.name("channel").value(esp.getChannel());
+			out.name("secondaryChannel").value(esp.getSecondaryChannel().name());
+			out.name("timestamp").value(esp.getTimestamp());
+			out.name("antenna").value(esp.getAntenna());
+		} else if(info instanceof AndroidInfo) {
+			AndroidInfo android = (AndroidInfo) info;
+			out.name("serverTimestamp").value(android.getServerTimestamp());
+			writeFloats(out.name("data"), android.getData());
+			writeFloats(out.name("calibration"), android.getCalibration());
+		} else if(info instanceof EcgInfo) {
+			out.name("value").value(Float.valueOf(((EcgInfo) info).getValue()));
+		}
+
+		if(info instanceof CSIInfo) {
+			writeMatrix(out.name("csi"), ((CSIInfo) info).getCsi());
+		}
+		out.endObject();
+	}
+
+	@Override
+	public DataInfo read(JsonReader in) throws IOException {
+		if(in.peek() == JsonToken.NULL) {
+			in.nextNull();
+			return null;
+		}
+
+		in.beginObject();
+		if(! in.hasNext()) {
+			in.endObject();
+			return new DataInfo(0, 0);
+		}
+		String name = in.nextName();
+		if(! name.equals(VERSION_FIELD)) {
+			return readReflective(in, name);
+		}
+
+		int version = in.nextInt();
+		if(version != VERSION) {
+			throw new JsonParseException("Unsupported data format version " + version);
+		}
+		if(! in.nextName().equals(TYPE_FIELD)) {
+			throw new JsonParseException("Missing data type");
+		}
+		String type = in.nextString();
+
+		long clientTimestamp = 0;
+		int messageId = 0;
+		CSIMatrix csi = null;
+		AthCSIStatus status = null;
+		IntCSINotification notification = null;
+		String sourceMac = null;
+		int length = 0, rssi = 0, mcs = 0;
+		boolean firstWordInvalid = false, spaceTimeBlockCode = false;
+		EspCSIInfo.ChannelBandwidth channelBandwidth = null;
+		EspCSIInfo.GuardInterval guardInterval = null;
+		EspCSIInfo.SecondaryChannel secondaryChannel = null;
+		byte channel = 0, antenna = 0;
+		long timestamp = 0, serverTimestamp = 0;
+		float[] data = null, calibration = null;
+		float value = 0;
+
+		while(in.hasNext()) {
+			switch(in.nextName()) {
+				case "clientTimestamp": clientTimestamp = in.nextLong(); break;
+				case "messageId": messageId = in.nextInt(); break;
+				case "csi": csi = readMatrix(in); break;
+				case "atherosCsiStatus": status = readAthStatus(in); break;
+				case "intelCsiNotification": notification = readIntNotification(in); break;
+				case "sourceMac": sourceMac = in.nextString(); break;
+				case "length": length = in.nextInt(); break;
+				case "firstWordInvalid": firstWordInvalid = in.nextBoolean(); break;
+				case "rssi": rssi = in.nextInt(); break;
+				case "mcs": mcs = in.nextInt(); break;
+				case "channelBandwidth": channelBandwidth = EspCSIInfo.ChannelBandwidth.valueOf(in.nextString()); break;
+				case "spaceTimeBlockCode": spaceTimeBlockCode = in.nextBoolean(); break;
+				case "guardInterval": guardInterval = EspCSIInfo.GuardInterval.valueOf(in.nextString()); break;
+				case "channel": channel = (byte) in.nextInt(); break;
+				case "secondaryChannel": secondaryChannel = EspCSIInfo.SecondaryChannel.valueOf(in.nextString()); break;
+				case "timestamp": timestamp = in.nextLong(); break;
+				case "antenna": antenna = (byte) in.nextInt(); break;
+				case "serverTimestamp": serverTimestamp = in.nextLong(); break;
+				case "data": data = readFloats(in); break;
+				case "calibration": calibration = readFloats(in); break;
+				case "value": value = (float) in.nextDouble(); break;
+				default: in.skipValue();
+			}
+		}
+		in.endObject();
+
+		switch(type) {
+			case "ath": return new AthCSIInfo(clientTimestamp, messageId, csi, status);
+			case "int": return new IntCSIInfo(clientTimestamp, messageId, csi, notification);
+			case "esp": return new EspCSIInfo(clientTimestamp, messageId, sourceMac, length, firstWordInvalid, rssi, mcs,
+					channelBandwidth, spaceTimeBlockCode, guardInterval, channel, secondaryChannel, timestamp, antenna, csi);
+			case "android": return new AndroidInfo(clientTimestamp, messageId, serverTimestamp, data, calibration);
+			case "ecg": return new EcgInfo(clientTimestamp, messageId, value);
+			case "data": return new DataInfo(clientTimestamp, messageId);
+			default: throw new JsonParseException("Unknown data type " + type);
+		}
+	}
+
+	private static String typeName(Class<?> clazz) {
+		if(clazz == AthCSIInfo.class) {
+			return "ath";
+		} else if(clazz == IntCSIInfo.class) {
+			return "int";
+		} else if(clazz == EspCSIInfo.class) {
+			return "esp";
+		} else if(clazz == AndroidInfo.class) {
+			return "android";
+		} else if(clazz == EcgInfo.class) {
+			return "ecg";
+		} else if(clazz == DataInfo.class) {
+			return "data";
+		}
+		return null;
+	}
+
+	private static void writeMatrix(JsonWriter out, CSIMatrix csi) throws IOException {
+		if(csi == null) {
+			out.nullValue();
+			return;
+		}
+		int[] real = csi.getReal();
+		int[] imag = csi.getImag();
+		out.beginArray();
+		out.value(csi.getRxAntennas()).value(csi.getTxAntennas()).value(csi.getTones());
+		for(int i = 0;i < real.length;i++) {
+			out.value(real[i]).value(imag[i]);
+		}
+		out.endArray();
+	}
+
+	private static CSIMatrix readMatrix(JsonReader in) throws IOException {
+		if(in.peek() == JsonToken.NULL) {
+			in.nextNull();
+			return null;
+		}
+		in.beginArray();
+		CSIMatrix csi = new CSIMatrix(in.nextInt(), in.nextInt(), in.nextInt());
+		int[] real = csi.getReal();
+		int[] imag = csi.getImag();
+		for(int i = 0;i < real.length;i++) {
+			real[i] = in.nextInt();
+			imag[i] = in.nextInt();
+		}
+		in.endArray();
+		return csi;
+	}
+
+	private static AthCSIStatus readAthStatus(JsonReader in) throws IOException {
+		AthCSIStatus status = new AthCSIStatus();
+		in.beginObject();
+		while(in.hasNext()) {
+			switch(in.nextName()) {
+				case "tstamp": status.setTstamp(in.nextLong()); break;
+				case "channel": status.setChannel(in.nextInt()); break;
+				case "chanBW": status.setChanBW((byte) in.nextInt()); break;
+				case "rate": status.setRate((short) in.nextInt()); break;
+				case "nr": status.setNr((byte) in.nextInt()); break;
+				case "nc": status.setNc((byte) in.nextInt()); break;
+				case "num_tones": status.setNum_tones((byte) in.nextInt()); break;
+				case "noise": status.setNoise((short) in.nextInt()); break;
+				case "phyerr": status.setPhyerr((short) in.nextInt()); break;
+				case "rssi": status.setRssi((short) in.nextInt()); break;
+				case "rssi_0": status.setRssi_0((short) in.nextInt()); break;
+				case "rssi_1": status.setRssi_1((short) in.nextInt()); break;
+				case "rssi_2": status.setRssi_2((short) in.nextInt()); break;
+				case "payload_len": status.setPayload_len(in.nextInt()); break;
+				case "csi_len": status.setCsi_len(in.nextInt()); break;
+				case "buf_len": status.setBuf_len(in.nextInt()); break;
+				default: in.skipValue();
+			}
+		}
+		in.endObject();
+		return status;
+	}
+
+	private static IntCSINotification readIntNotification(JsonReader in) throws IOException {
+		IntCSINotification notification = new IntCSINotification();
+		in.beginObject();
+		while(in.hasNext()) {
+			switch(in.nextName()) {
+				case "timestamp_low": notification.setTimestamp_low(in.nextLong()); break;
+				case "bfee_count": notification.setBfee_count(in.nextInt()); break;
+				case "Nrx": notification.setNrx((byte) in.nextInt()); break;
+				case "Ntx": notification.setNtx((byte) in.nextInt()); break;
+				case "rssi_a": notification.setRssi_a((short) in.nextInt()); break;
+				case "rssi_b": notification.setRssi_b((short) in.nextInt()); break;
+				case "rssi_c": notification.setRssi_c((short) in.nextInt()); break;
+				case "noise": notification.setNoise((short) in.nextInt()); break;
+				case "agc": notification.setAgc((short) in.nextInt()); break;
+				case "antenna_sel": notification.setAntenna_sel((short) in.nextInt()); break;
+				case "perm": {
+					byte[] perm = new byte[3];
+					int i = 0;
+					in.beginArray();
+					while(in.hasNext()) {
+						byte p = (byte) in.nextInt();
+						if(i < perm.length) {
+							perm[i++] = p;
+						}
+					}
+					in.endArray();
+					notification.setPerm(perm);
+					break;
+				}
+				case "len": notification.setLen(in.nextInt()); break;
+				case "fake_rate_n_flags": notification.setFake_rate_n_flags(in.nextInt()); break;
+				default: in.skipValue();
+			}
+		}
+		in.endObject();
+		return notification;
+	}
+
+	private static void writeFloats(JsonWriter out, float[] values) throws IOException {
+		if(values == null) {
+			out.nullValue();
+			return;
+		}
+		out.beginArray();
+		for(float value : values) {
+			out.value(Float.valueOf(value));
+		}
+		out.endArray();
+	}
+
+	private static float[] readFloats(JsonReader in) throws IOException {
+		if(in.peek() == JsonToken.NULL) {
+			in.nextNull();
+			return null;
+		}
+		float[] values = new float[8];
+		int length = 0;
+		in.beginArray();
+		while(in.hasNext()) {
+			if(length == values.length) {
+				values = Arrays.copyOf(values, length * 2);
+			}
+			values[length++] = (float) in.nextDouble();
+		}
+		in.endArray();
+		return Arrays.copyOf(values, length);
+	}
+
+	/**
+	 * reads an object written before the streaming format as a tree and deserializes it reflectively
+	 * @param firstName the already consumed name of the first property
+	 */
+	private DataInfo readReflective(JsonReader in, String firstName) throws IOException {
+		JsonParser parser = new JsonParser();
+		JsonObject obj = new JsonObject();
+		obj.add(firstName, parser.parse(in));
+		while(in.hasNext()) {
+			String name = in.nextName();
+			obj.add(name, parser.parse(in));
+		}
+		in.endObject();
+
+		Optional<Class<?>> clazz = Optional.ofNullable(obj.get("csiInfoType"))
 				.map(JsonElement::getAsString)
 				.map(it -> it.replace("class ", ""))
 				.map(DataInfoInterfaceAdapter::classForName);
 
-
 		if(clazz.isPresent()) {
-			jsonElement.getAsJsonObject().remove("csiInfoType");
+			obj.remove("csiInfoType");
 		} else {
-			clazz = Optional.of(getClassBasedOnProperties(jsonElement));
+			clazz = Optional.of(getClassBasedOnProperties(obj));
 		}
 
-		return jsonDeserializationContext.deserialize(jsonElement, clazz.get());
+		return (DataInfo) reflectiveGson.fromJson(obj, clazz.get());
 	}
 
-	private Class<?> getClassBasedOnProperties(JsonElement jsonElement) {
-		if(jsonElement.getAsJsonObject().get("atherosCsiStatus") != null) {
+	private static Class<?> getClassBasedOnProperties(JsonObject obj) {
+		if(obj.get("atherosCsiStatus") != null) {
 			return AthCSIInfo.class;
-		} else if(jsonElement.getAsJsonObject().get("intelCsiNotification") != null) {
+		} else if(obj.get("intelCsiNotification") != null) {
 			return IntCSIInfo.class;
-		} else if(jsonElement.getAsJsonObject().get("firstWordInvalid") != null) {
+		} else if(obj.get("firstWordInvalid") != null) {
 			return EspCSIInfo.class;
-		} else if(jsonElement.getAsJsonObject().get("calibration") != null) {
+		} else if(obj.get("calibration") != null) {
 			return AndroidInfo.class;
-		} else if(jsonElement.getAsJsonObject().get("value") != null) {
+		} else if(obj.get("value") != null) {
 			return EcgInfo.class;
 		} else {
 			return DataInfo.class;
 		}
 	}
 
-	@Override
-	public JsonElement serialize(DataInfo info, Type type, JsonSerializationContext jsonSerializationContext) {
-		JsonElement obj = jsonSerializationContext.serialize(info);
-		if(obj instanceof JsonObject) {
-			obj.getAsJsonObject().addProperty("csiInfoType", info.getClass().toString());
-		}
-		return obj;
-	}
-
 	private static Class<?> classForName(String name) {
 		try {
 			return Class.forName(name);
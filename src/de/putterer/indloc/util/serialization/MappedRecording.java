@@ -0,0 +1,149 @@
+package de.putterer.indloc.util.serialization;
+
+import de.putterer.indloc.csi.ReplayDataSource;
+import de.putterer.indloc.data.DataInfo;
+import de.putterer.indloc.util.Logger;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Memory mapped view of the binary recording of one station, see RecordingWriter
+ * Records are ordered by timestamp using the time index of the recording, see RecordingIndex,
+ * the index is generated by scanning the record headers if it's missing or outdated
+ * Only the index is kept on heap, records are decoded when they are accessed
+ */
+public class MappedRecording implements ReplayDataSource.Track {
+
+	private final String station;
+	private final ByteBuffer[] segments;
+	private final RecordCodec[] codecs;
+	private final RecordingIndex index;
+
+	private MappedRecording(Path folder, String station, List<Path> files) throws IOException {
+		this.station = station;
+		this.segments = new ByteBuffer[files.size()];
+		this.codecs = new RecordCodec[files.size()];
+
+		for(int i = 0;i < files.size();i++) {
+			try(FileChannel channel = FileChannel.open(files.get(i), StandardOpenOption.READ)) {
+				segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			}
+			codecs[i] = RecordingSegment.readHeader(segments[i].duplicate()).getCodec();
+		}
+
+		this.index = loadIndex(RecordingIndex.getFile(folder, station), files);
+	}
+
+	/**
+	 * maps the binary recording of the station
+	 * @return the recording, null if the folder contains no binary recording of the station
+	 */
+	public static MappedRecording open(Path folder, String station) throws IOException {
+		List<Path> files = RecordingSegment.list(folder, station);
+		return files.isEmpty() ? null : new MappedRecording(folder, station, new ArrayList<>(files));
+	}
+
+	private RecordingIndex loadIndex(Path file, List<Path> files) throws IOException {
+		if(Files.exists(file)) {
+			try {
+				RecordingIndex index = RecordingIndex.read(file);
+				if(index.matches(files)) {
+					return index;
+				}
+				Logger.debug("Time index of %s is outdated", station);
+			} catch(IOException e) {
+				Logger.warn("Could not read time index of %s: %s", station, e.getMessage());
+			}
+		}
+
+		RecordingIndex index = new RecordingIndex();
+		for(int i = 0;i < segments.length;i++) {
+			scan(index, i, files.get(i));
+		}
+		index.sort();
+		try {
+			index.write(file);
+			Logger.debug("Generated time index of %s, %d records", station, index.size());
+		} catch(IOException e) {
+			Logger.warn("Could not store time index of %s: %s", station, e.getMessage());
+		}
+		return index;
+	}
+
+	/**
+	 * adds the position of every complete record in the segment to the index, the crc is checked once a record is decoded
+	 */
+	private void scan(RecordingIndex index, int segment, Path file) {
+		ByteBuffer buffer = segments[segment];
+		int position = RecordingSegment.HEADER_LENGTH;
+		while(buffer.limit() - position >= RecordingSegment.RECORD_OVERHEAD + Long.BYTES) {
+			int length = buffer.getInt(position);
+			if(length < Long.BYTES || length > buffer.limit() - position - RecordingSegment.RECORD_OVERHEAD) {
+				Logger.warn("Incomplete record at the end of %s, %d bytes ignored", file, buffer.limit() - position);
+				break;
+			}
+
+			index.add(buffer.getLong(position + Integer.BYTES), segment, position); // every record starts with the client timestamp
+			position += length + RecordingSegment.RECORD_OVERHEAD;
+		}
+		index.endSegment(buffer.limit());
+	}
+
+	public String getStation() {
+		return station;
+	}
+
+	@Override
+	public int size() {
+		return index.size();
+	}
+
+	@Override
+	public long getTimestamp(int index) {
+		return this.index.getTimestamp(index);
+	}
+
+	/**
+	 * @return the index of the first record at or after the timestamp, size() if there is none
+	 */
+	public int indexOf(long timestamp) {
+		return index.indexOf(timestamp);
+	}
+
+	/**
+	 * reads the message id from the record without decoding it, the crc isn't checked
+	 */
+	@Override
+	public int getMessageId(int index) {
+		// every record starts with the client timestamp followed by the message id, see RecordCodec
+		return segments[this.index.getSegment(index)].getInt(this.index.getOffset(index) + Integer.BYTES + Long.BYTES);
+	}
+
+	/**
+	 * decodes the record, safe to be called concurrently
+	 * @return the record, null if it's corrupt
+	 */
+	@Override
+	public DataInfo get(int index) {
+		int segmentIndex = this.index.getSegment(index);
+		ByteBuffer segment = segments[segmentIndex];
+		int offset = this.index.getOffset(index);
+		int length = segment.getInt(offset);
+		int body = offset + Integer.BYTES;
+		if(segment.getInt(body + length) != RecordingSegment.crc(segment, body, length)) {
+			Logger.warn("Corrupt record %d of %s", index, station);
+			return null;
+		}
+
+		ByteBuffer record = segment.duplicate();
+		record.limit(body + length).position(body);
+		return codecs[segmentIndex].decode(record.slice());
+	}
+}
@@ -0,0 +1,309 @@
+package de.putterer.indloc.util.serialization;
+
+import de.putterer.indloc.csi.CSIInfo;
+import de.putterer.indloc.csi.CSIMatrix;
+import de.putterer.indloc.csi.atheros.AthCSIInfo;
+import de.putterer.indloc.csi.atheros.AthCSIInfo.AthCSIStatus;
+import de.putterer.indloc.csi.calibration.AndroidInfo;
+import de.putterer.indloc.csi.esp.EspCSIInfo;
+import de.putterer.indloc.csi.intel.IntCSIInfo;
+import de.putterer.indloc.csi.intel.IntCSIInfo.IntCSINotification;
+import de.putterer.indloc.data.DataInfo;
+import de.putterer.indloc.data.ecg.EcgInfo;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Binary encoding of the data types stored in recording segments, see RecordingWriter
+ * Every record starts with client timestamp and message id, followed by the metadata of the type
+ * and the csi matrix, real and imaginary parts stored as the difference to the previous subcarrier,
+ * zigzag and varint encoded, most values take one byte as the channel changes slowly across subcarriers
+ */
+public enum RecordCodec {
+	ATH(1, AthCSIInfo.class),
+	INT(2, IntCSIInfo.class),
+	ESP(3, EspCSIInfo.class),
+	ECG(4, EcgInfo.class),
+	ANDROID(5, AndroidInfo.class);
+
+	private static final int MAX_VARINT_LENGTH = 5; // 32 bits, 7 per byte
+
+	private final byte id;
+	private final Class<? extends DataInfo> type;
+
+	RecordCodec(int id, Class<? extends DataInfo> type) {
+		this.id = (byte) id;
+		this.type = type;
+	}
+
+	public byte getId() {
+		return id;
+	}
+
+	public Class<? extends DataInfo> getType() {
+		return type;
+	}
+
+	public static RecordCodec forId(byte id) {
+		for(RecordCodec codec : values()) {
+			if(codec.id == id) {
+				return codec;
+			}
+		}
+		throw new IllegalArgumentException("Unknown record type " + id);
+	}
+
+	/**
+	 * @return the codec for the given data, null if it can't be recorded
+	 */
+	public static RecordCodec forData(DataInfo info) {
+		return forType(info.getClass());
+	}
+
+	/**
+	 * @return the codec for the given data type, null if it can't be recorded
+	 */
+	public static RecordCodec forType(Class<?> type) {
+		for(RecordCodec codec : values()) {
+			if(codec.type == type) {
+				return codec;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @return an upper bound of the encoded size of the given data
+	 */
+	public int maxLength(DataInfo info) {
+		int length = 256; // metadata
+		if(info instanceof CSIInfo) {
+			length += ((CSIInfo) info).getCsi().size() * 2 * MAX_VARINT_LENGTH;
+		}
+		return length;
+	}
+
+	public void encode(ByteBuffer buffer, DataInfo info) {
+		buffer.putLong(info.getClientTimestamp());
+		buffer.putInt(info.getMessageId());
+
+		switch(this) {
+			case ATH: {
+				AthCSIStatus status = ((AthCSIInfo) info).getAtherosCsiStatus();
+				buffer.putLong(status.getTstamp());
+				buffer.putInt(status.getChannel());
+				buffer.put(status.getChanBW());
+				buffer.putShort(status.getRate());
+				buffer.put(status.getNr());
+				buffer.put(status.getNc());
+				buffer.put(status.getNum_tones());
+				buffer.putShort(status.getNoise());
+				buffer.putShort(status.getPhyerr());
+				buffer.putShort(status.getRssi());
+				buffer.putShort(status.getRssi_0());
+				buffer.putShort(status.getRssi_1());
+				buffer.putShort(status.getRssi_2());
+				buffer.putInt(status.getPayload_len());
+				buffer.putInt(status.getCsi_len());
+				buffer.putInt(status.getBuf_len());
+				putMatrix(buffer, ((CSIInfo) info).getCsi());
+				break;
+			}
+			case INT: {
+				IntCSINotification notification = ((IntCSIInfo) info).getIntelCsiNotification();
+				buffer.putLong(notification.getTimestamp_low());
+				buffer.putInt(notification.getBfee_count());
+				buffer.put(notification.getNrx());
+				buffer.put(notification.getNtx());
+				buffer.putShort(notification.getRssi_a());
+				buffer.putShort(notification.getRssi_b());
+				buffer.putShort(notification.getRssi_c());
+				buffer.putShort(notification.getNoise());
+				buffer.putShort(notification.getAgc());
+				buffer.putShort(notification.getAntenna_sel());
+				buffer.put(notification.getPerm(), 0, 3);
+				buffer.putInt(notification.getLen());
+				buffer.putInt(notification.getFake_rate_n_flags());
+				putMatrix(buffer, ((CSIInfo) info).getCsi());
+				break;
+			}
+			case ESP: {
+				EspCSIInfo esp = (EspCSIInfo) info;
+				byte[] mac = esp.getSourceMac().getBytes(StandardCharsets.UTF_8);
+				buffer.put((byte) mac.length);
+				buffer.put(mac);
+				buffer.putInt(esp.getLength());
+				buffer.put((byte) (esp.isFirstWordInvalid() ? 1 : 0));
+				buffer.putInt(esp.getRssi());
+				buffer.putInt(esp.getMcs());
+				buffer.put((byte) esp.getChannelBandwidth().ordinal());
+				buffer.put((byte) (esp.isSpaceTimeBlockCode() ? 1 : 0));
+				buffer.put((byte) esp.getGuardInterval().ordinal());
+				buffer.put(esp.getChannel());
+				buffer.put((byte) esp.getSecondaryChannel().ordinal());
+				buffer.putLong(esp.getTimestamp());
+				buffer.put(esp.getAntenna());
+				putMatrix(buffer, esp.getCsi());
+				break;
+			}
+			case ECG:
+				buffer.putFloat(((EcgInfo) info).getValue());
+				break;
+			case ANDROID: {
+				AndroidInfo android = (AndroidInfo) info;
+				buffer.putLong(android.getServerTimestamp());
+				putFloats(buffer, android.getData());
+				putFloats(buffer, android.getCalibration());
+				break;
+			}
+		}
+	}
+
+	public DataInfo decode(ByteBuffer buffer) {
+		long clientTimestamp = buffer.getLong();
+		int messageId = buffer.getInt();
+
+		switch(this) {
+			case ATH: {
+				AthCSIStatus status = new AthCSIStatus();
+				status.setTstamp(buffer.getLong());
+				status.setChannel(buffer.getInt());
+				status.setChanBW(buffer.get());
+				status.setRate(buffer.getShort());
+				status.setNr(buffer.get());
+				status.setNc(buffer.get());
+				status.setNum_tones(buffer.get());
+				status.setNoise(buffer.getShort());
+				status.setPhyerr(buffer.getShort());
+				status.setRssi(buffer.getShort());
+				status.setRssi_0(buffer.getShort());
+				status.setRssi_1(buffer.getShort());
+				status.setRssi_2(buffer.getShort());
+				status.setPayload_len(buffer.getInt());
+				status.setCsi_len(buffer.getInt());
+				status.setBuf_len(buffer.getInt());
+				return new AthCSIInfo(clientTimestamp, messageId, getMatrix(buffer), status);
+			}
+			case INT: {
+				IntCSINotification notification = new IntCSINotification();
+				notification.setTimestamp_low(buffer.getLong());
+				notification.setBfee_count(buffer.getInt());
+				notification.setNrx(buffer.get());
+				notification.setNtx(buffer.get());
+				notification.setRssi_a(buffer.getShort());
+				notification.setRssi_b(buffer.getShort());
+				notification.setRssi_c(buffer.getShort());
+				notification.setNoise(buffer.getShort());
+				notification.setAgc(buffer.getShort());
+				notification.setAntenna_sel(buffer.getShort());
+				byte[] perm = new byte[3];
+				buffer.get(perm);
+				notification.setPerm(perm);
+				notification.setLen(buffer.getInt());
+				notification.setFake_rate_n_flags(buffer.getInt());
+				return new IntCSIInfo(clientTimestamp, messageId, getMatrix(buffer), notification);
+			}
+			case ESP: {
+				byte[] mac = new byte[buffer.get() & 0xFF];
+				buffer.get(mac);
+				return new EspCSIInfo(clientTimestamp, messageId,
+						new String(mac, StandardCharsets.UTF_8),
+						buffer.getInt(),
+						buffer.get() == 1,
+						buffer.getInt(),
+						buffer.getInt(),
+						EspCSIInfo.ChannelBandwidth.values()[buffer.get()],
+						buffer.get() == 1,
+						EspCSIInfo.GuardInterval.values()[buffer.get()],
+						buffer.get(),
+						EspCSIInfo.SecondaryChannel.values()[buffer.get()],
+						buffer.getLong(),
+						buffer.get(),
+						getMatrix(buffer)
+				);
+			}
+			case ECG:
+				return new EcgInfo(clientTimestamp, messageId, buffer.getFloat());
+			case ANDROID:
+				return new AndroidInfo(clientTimestamp, messageId, buffer.getLong(), getFloats(buffer), getFloats(buffer));
+			default:
+				throw new IllegalStateException();
+		}
+	}
+
+	private static void putMatrix(ByteBuffer buffer, CSIMatrix csi) {
+		int[] real = csi.getReal();
+		int[] imag = csi.getImag();
+		buffer.put((byte) csi.getRxAntennas());
+		buffer.put((byte) csi.getTxAntennas());
+		buffer.putShort((short) csi.getTones());
+
+		int previousReal = 0, previousImag = 0;
+		for(int i = 0;i < real.length;i++) {
+			putVarint(buffer, real[i] - previousReal);
+			putVarint(buffer, imag[i] - previousImag);
+			previousReal = real[i];
+			previousImag = imag[i];
+		}
+	}
+
+	private static CSIMatrix getMatrix(ByteBuffer buffer) {
+		CSIMatrix csi = new CSIMatrix(buffer.get(), buffer.get(), buffer.getShort());
+		int[] real = csi.getReal();
+		int[] imag = csi.getImag();
+		int previousReal = 0, previousImag = 0;
+		for(int i = 0;i < real.length;i++) {
+			real[i] = previousReal += getVarint(buffer);
+			imag[i] = previousImag += getVarint(buffer);
+		}
+		return csi;
+	}
+
+	/**
+	 * writes a zigzag encoded varint, 7 bits per byte, small positive and negative values take one byte
+	 */
+	private static void putVarint(ByteBuffer buffer, int value) {
+		int zigzag = (value << 1) ^ (value >> 31);
+		while((zigzag & ~0x7F) != 0) {
+			buffer.put((byte) ((zigzag & 0x7F) | 0x80));
+			zigzag >>>= 7;
+		}
+		buffer.put((byte) zigzag);
+	}
+
+	private static int getVarint(ByteBuffer buffer) {
+		int zigzag = 0;
+		for(int i = 0;i < MAX_VARINT_LENGTH;i++) {
+			byte b = buffer.get();
+			zigzag |= (b & 0x7F) << (7 * i);
+			if(b >= 0) {
+				return (zigzag >>> 1) ^ -(zigzag & 1);
+			}
+		}
+		throw new IllegalArgumentException("Varint longer than " + MAX_VARINT_LENGTH + " bytes");
+	}
+
+	private static void putFloats(ByteBuffer buffer, float[] values) {
+		if(values == null) {
+			buffer.put((byte) -1);
+			return;
+		}
+		buffer.put((byte) values.length);
+		for(float value : values) {
+			buffer.putFloat(value);
+		}
+	}
+
+	private static float[] getFloats(ByteBuffer buffer) {
+		int length = buffer.get();
+		if(length < 0) {
+			return null;
+		}
+		float[] values = new float[length];
+		for(int i = 0;i < length;i++) {
+			values[i] = buffer.getFloat();
+		}
+		return values;
+	}
+}
@@ -0,0 +1,213 @@
+package de.putterer.indloc.util.serialization;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.IntStream;
+
+/**
+ * Time index of the binary recording of one station, stored next to the segments
+ * Maps the records, ordered by client timestamp, to their segment and offset
+ * Written by RecordingWriter on close, generated by MappedRecording if it's missing or outdated
+ *
+ * file layout:
+ *   int magic, short version, short reserved, int segment count, long length of every indexed segment,
+ *   int record count, followed by records: long timestamp, int segment, int offset, then int crc32 of the preceding bytes
+ */
+public class RecordingIndex {
+
+	public static final String EXTENSION = ".idx";
+	public static final int MAGIC = 0x43534958; // "CSIX"
+	public static final short VERSION = 1;
+	private static final int ENTRY_LENGTH = Long.BYTES + 2 * Integer.BYTES;
+
+	private long[] segmentLengths = new long[0];
+	private int size = 0;
+	private long[] timestamps;
+	private int[] segments;
+	private int[] offsets;
+
+	public RecordingIndex() {
+		this(1024);
+	}
+
+	private RecordingIndex(int capacity) {
+		timestamps = new long[capacity];
+		segments = new int[capacity];
+		offsets = new int[capacity];
+	}
+
+	/**
+	 * @return the index file of the station in the folder
+	 */
+	public static Path getFile(Path folder, String station) {
+		return folder.resolve(RecordingSegment.fileSafe(station) + EXTENSION);
+	}
+
+	/**
+	 * adds a record in the order it was written
+	 * @param offset the offset of the record in its segment
+	 */
+	public void add(long timestamp, int segment, int offset) {
+		if(size == timestamps.length) {
+			int capacity = Math.max(16, size * 2);
+			timestamps = Arrays.copyOf(timestamps, capacity);
+			segments = Arrays.copyOf(segments, capacity);
+			offsets = Arrays.copyOf(offsets, capacity);
+		}
+		timestamps[size] = timestamp;
+		segments[size] = segment;
+		offsets[size] = offset;
+		size++;
+	}
+
+	/**
+	 * marks the end of a segment, the index is only valid as long as the segment has this length
+	 */
+	public void endSegment(long length) {
+		segmentLengths = Arrays.copyOf(segmentLengths, segmentLengths.length + 1);
+		segmentLengths[segmentLengths.length - 1] = length;
+	}
+
+	/**
+	 * orders the records by timestamp, records with the same timestamp keep their order
+	 */
+	public void sort() {
+		boolean sorted = true;
+		for(int i = 1;i < size && sorted;i++) {
+			sorted = timestamps[i - 1] <= timestamps[i];
+		}
+		if(sorted) { // the usual case, clocks rarely go backwards
+			return;
+		}
+
+		int[] order = IntStream.range(0, size).boxed()
+				.sorted(Comparator.comparingLong(i -> timestamps[i]))
+				.mapToInt(Integer::intValue)
+				.toArray();
+		long[] sortedTimestamps = new long[size];
+		int[] sortedSegments = new int[size];
+		int[] sortedOffsets = new int[size];
+		for(int i = 0;i < size;i++) {
+			sortedTimestamps[i] = timestamps[order[i]];
+			sortedSegments[i] = segments[order[i]];
+			sortedOffsets[i] = offsets[order[i]];
+		}
+		timestamps = sortedTimestamps;
+		segments = sortedSegments;
+		offsets = sortedOffsets;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public long getTimestamp(int index) {
+		return timestamps[index];
+	}
+
+	public int getSegment(int index) {
+		return segments[index];
+	}
+
+	public int getOffset(int index) {
+		return offsets[index];
+	}
+
+	/**
+	 * @return the index of the first record at or after the timestamp, size() if there is none, requires a sorted index
+	 */
+	public int indexOf(long timestamp) {
+		int low = 0, high = size;
+		while(low < high) {
+			int mid = (low + high) >>> 1;
+			if(timestamps[mid] < timestamp) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+		return low;
+	}
+
+	/**
+	 * @return whether the index covers exactly the given segment files
+	 */
+	public boolean matches(List<Path> segmentFiles) throws IOException {
+		if(segmentFiles.size() != segmentLengths.length) {
+			return false;
+		}
+		for(int i = 0;i < segmentLengths.length;i++) {
+			if(Files.size(segmentFiles.get(i)) != segmentLengths[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	public void write(Path file) throws IOException {
+		int length = 3 * Integer.BYTES + segmentLengths.length * Long.BYTES + Integer.BYTES + size * ENTRY_LENGTH + Integer.BYTES;
+		ByteBuffer buffer = ByteBuffer.allocate(length);
+		buffer.putInt(MAGIC);
+		buffer.putShort(VERSION);
+		buffer.putShort((short) 0);
+		buffer.putInt(segmentLengths.length);
+		for(long segmentLength : segmentLengths) {
+			buffer.putLong(segmentLength);
+		}
+		buffer.putInt(size);
+		for(int i = 0;i < size;i++) {
+			buffer.putLong(timestamps[i]);
+			buffer.putInt(segments[i]);
+			buffer.putInt(offsets[i]);
+		}
+		buffer.putInt(RecordingSegment.crc(buffer, 0, buffer.position()));
+		buffer.flip();
+
+		// replaced atomically, a reader never sees a partially written index
+		Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+		try(FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			while(buffer.hasRemaining()) {
+				channel.write(buffer);
+			}
+		}
+		Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * @throws IOException if the index can't be read or is corrupt
+	 */
+	public static RecordingIndex read(Path file) throws IOException {
+		ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(file));
+		if(buffer.remaining() < 4 * Integer.BYTES || buffer.getInt() != MAGIC) {
+			throw new IOException("Not a recording index");
+		}
+		short version = buffer.getShort();
+		if(version != VERSION) {
+			throw new IOException("Unsupported recording index version " + version);
+		}
+		if(buffer.getInt(buffer.limit() - Integer.BYTES) != RecordingSegment.crc(buffer, 0, buffer.limit() - Integer.BYTES)) {
+			throw new IOException("Corrupt recording index");
+		}
+		buffer.getShort();
+
+		long[] segmentLengths = new long[buffer.getInt()];
+		for(int i = 0;i < segmentLengths.length;i++) {
+			segmentLengths[i] = buffer.getLong();
+		}
+		int size = buffer.getInt();
+		RecordingIndex index = new RecordingIndex(size);
+		index.segmentLengths = segmentLengths;
+		for(int i = 0;i < size;i++) {
+			index.add(buffer.getLong(), buffer.getInt(), buffer.getInt());
+		}
+		return index;
+	}
+}
@@ -0,0 +1,330 @@
+package de.putterer.indloc.util.serialization;
+
+import de.putterer.indloc.Config;
+import de.putterer.indloc.data.DataInfo;
+import de.putterer.indloc.util.Logger;
+import lombok.Getter;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Writes recordings on a background thread so recording never blocks the threads producing the data
+ * Records of all writers are queued in one bounded queue, the writer thread drains it in batches,
+ * writes each writer's records in one sequential write and forces them to disk at the flush interval
+ * Records are dropped if the queue is full
+ * Writers are created and closed on the writer thread, offering and closing never block, see open
+ */
+public class RecordingQueue {
+
+	private static final int MAX_BATCH_SIZE = 1024;
+
+	@Getter private final int capacity;
+	@Getter private final long flushIntervalMillis;
+	private final ArrayBlockingQueue<Entry> queue;
+	private final ConcurrentLinkedQueue<Recording> closing = new ConcurrentLinkedQueue<>();
+	private final Thread writerThread;
+	private volatile boolean running = true;
+
+	private final AtomicLong queuedBytes = new AtomicLong();
+	private final LongAdder droppedRecords = new LongAdder();
+	private final LongAdder writtenRecords = new LongAdder();
+	private final LongAdder writeErrors = new LongAdder();
+	private final LongAdder totalLatencyNanos = new LongAdder();
+	private volatile long maxLatencyNanos = 0;
+
+	public RecordingQueue() {
+		this(Config.RECORDING_QUEUE_CAPACITY, Config.RECORDING_FLUSH_INTERVAL_MS);
+	}
+
+	/**
+	 * @param capacity the maximum number of queued records
+	 * @param flushIntervalMillis the interval at which written records are forced to the storage device
+	 */
+	public RecordingQueue(int capacity, long flushIntervalMillis) {
+		this.capacity = capacity;
+		this.flushIntervalMillis = flushIntervalMillis;
+		this.queue = new ArrayBlockingQueue<>(capacity);
+		this.writerThread = new Thread(this::writerThread, "recording-writer");
+		this.writerThread.setDaemon(true);
+		this.writerThread.start();
+	}
+
+	/**
+	 * creates a recording of one station, the writer is created on the writer thread once the first record arrives
+	 */
+	public Recording open(Path folder, String station, RecordCodec codec) {
+		return open(station, codec, () -> Serialization.openRecording(folder, station, codec));
+	}
+
+	/**
+	 * @param writerFactory creates the writer, called on the writer thread
+	 */
+	public Recording open(String station, RecordCodec codec, Supplier<RecordingWriter> writerFactory) {
+		return new Recording(station, codec, writerFactory);
+	}
+
+	/**
+	 * queues a record, never blocks
+	 * @return false if the record was dropped because the queue is full or the recording is closed
+	 */
+	public boolean offer(Recording recording, DataInfo info) {
+		int bytes = recording.codec.maxLength(info);
+		recording.queued.incrementAndGet(); // before checking closing, see closeRecordings
+		if(! running || recording.closing || ! queue.offer(new Entry(recording, info, bytes, System.nanoTime()))) {
+			recording.queued.decrementAndGet();
+			droppedRecords.increment();
+			return false;
+		}
+		queuedBytes.addAndGet(bytes);
+		return true;
+	}
+
+	/**
+	 * closes the recording once all records queued for it have been written, never blocks
+	 * records offered afterwards are dropped
+	 */
+	public void close(Recording recording) {
+		recording.closing = true;
+		closing.add(recording);
+	}
+
+	/**
+	 * writes all queued records and stops the writer thread
+	 * @param timeoutMillis the maximum time to wait for the queue to be drained
+	 */
+	public void shutdown(long timeoutMillis) {
+		running = false;
+		try {
+			writerThread.join(timeoutMillis);
+		} catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private void writerThread() {
+		List<Entry> batch = new ArrayList<>(MAX_BATCH_SIZE);
+		Set<Recording> opened = new LinkedHashSet<>(); // writer created and not yet closed
+		Set<RecordingWriter> pending = new LinkedHashSet<>(); // written since the last batch
+		Set<RecordingWriter> unforced = new LinkedHashSet<>(); // written since the last force
+		long lastForce = System.currentTimeMillis();
+
+		while(running || ! queue.isEmpty()) {
+			try {
+				Entry first = queue.poll(Math.max(1, flushIntervalMillis), TimeUnit.MILLISECONDS);
+				if(first != null) {
+					batch.add(first);
+					queue.drainTo(batch, MAX_BATCH_SIZE - 1);
+				}
+			} catch(InterruptedException e) {
+				break;
+			}
+
+			for(Entry entry : batch) {
+				queuedBytes.addAndGet(-entry.bytes);
+				RecordingWriter writer = getWriter(entry.recording, opened);
+				try {
+					if(writer != null) {
+						writer.append(entry.info);
+						pending.add(writer);
+					}
+				} catch(IOException e) {
+					writeError(entry.recording, e);
+				} finally {
+					entry.recording.queued.decrementAndGet();
+				}
+			}
+
+			for(RecordingWriter writer : pending) {
+				flush(writer);
+			}
+			unforced.addAll(pending);
+			pending.clear();
+
+			long now = System.nanoTime();
+			for(Entry entry : batch) {
+				long latency = now - entry.queuedAt;
+				totalLatencyNanos.add(latency);
+				maxLatencyNanos = Math.max(maxLatencyNanos, latency);
+				writtenRecords.increment();
+			}
+			batch.clear();
+
+			closeRecordings(opened, unforced, false);
+
+			if(System.currentTimeMillis() - lastForce >= flushIntervalMillis) {
+				for(RecordingWriter writer : unforced) {
+					try {
+						writer.force();
+					} catch(IOException e) {
+						writeError(writer.getStation(), e);
+					}
+				}
+				unforced.clear();
+				lastForce = System.currentTimeMillis();
+			}
+		}
+
+		// every writer is closed, also those of recordings never closed, so their index is written
+		closeRecordings(opened, unforced, true);
+		Logger.debug("Recording writer thread stopped, %d records written, %d dropped", getWrittenRecords(), getDroppedRecords());
+	}
+
+	/**
+	 * @return the writer of the recording, created on first use, null if it can't be created
+	 */
+	private RecordingWriter getWriter(Recording recording, Set<Recording> opened) {
+		if(recording.writer == null && ! recording.failed) {
+			try {
+				recording.writer = recording.writerFactory.get();
+				opened.add(recording);
+			} catch(RuntimeException e) {
+				recording.failed = true;
+				Logger.error("Could not open recording of %s: %s", recording.station, e.getMessage());
+			}
+		}
+		if(recording.writer == null) {
+			writeErrors.increment();
+		}
+		return recording.writer;
+	}
+
+	/**
+	 * closes the recordings requested to be closed that have no records queued anymore
+	 * @param all whether to close all opened recordings, when the writer thread stops
+	 */
+	private void closeRecordings(Set<Recording> opened, Set<RecordingWriter> unforced, boolean all) {
+		// offer increments queued before checking closing, a recording without queued records stays empty once closing
+		for(Iterator<Recording> iterator = closing.iterator();iterator.hasNext();) {
+			Recording recording = iterator.next();
+			if(recording.queued.get() == 0 || all) {
+				iterator.remove();
+				closeWriter(recording, opened, unforced);
+			}
+		}
+		if(all) {
+			for(Recording recording : new ArrayList<>(opened)) {
+				closeWriter(recording, opened, unforced);
+			}
+		}
+	}
+
+	private void closeWriter(Recording recording, Set<Recording> opened, Set<RecordingWriter> unforced) {
+		if(! opened.remove(recording)) {
+			return; // no record was written
+		}
+		unforced.remove(recording.writer);
+		try {
+			recording.writer.close();
+		} catch(IOException e) {
+			writeError(recording, e);
+		}
+	}
+
+	private void flush(RecordingWriter writer) {
+		try {
+			writer.flush();
+		} catch(IOException e) {
+			writeError(writer.getStation(), e);
+		}
+	}
+
+	private void writeError(Recording recording, IOException e) {
+		writeError(recording.station, e);
+	}
+
+	private void writeError(String station, IOException e) {
+		writeErrors.increment();
+		Logger.error("Could not write recording of %s: %s", station, e.getMessage());
+	}
+
+	/**
+	 * @return the number of records waiting to be written
+	 */
+	public int getQueuedRecords() {
+		return queue.size();
+	}
+
+	/**
+	 * @return the estimated size of the queued records
+	 */
+	public long getQueuedBytes() {
+		return queuedBytes.get();
+	}
+
+	public long getDroppedRecords() {
+		return droppedRecords.sum();
+	}
+
+	public long getWrittenRecords() {
+		return writtenRecords.sum();
+	}
+
+	public long getWriteErrors() {
+		return writeErrors.sum();
+	}
+
+	/**
+	 * @return the average time from queueing a record until it was written, in microseconds
+	 */
+	public double getAverageWriteLatencyMicros() {
+		long written = writtenRecords.sum();
+		return written == 0 ? 0 : totalLatencyNanos.sum() / 1e3 / written;
+	}
+
+	public double getMaxWriteLatencyMicros() {
+		return maxLatencyNanos / 1e3;
+	}
+
+	/**
+	 * The recording of one station, written through this queue
+	 */
+	public static class Recording {
+		@Getter private final String station;
+		private final RecordCodec codec;
+		private final Supplier<RecordingWriter> writerFactory;
+		private final AtomicInteger queued = new AtomicInteger();
+		private volatile boolean closing = false;
+		private volatile RecordingWriter writer; // created on the writer thread
+		private boolean failed = false; // only accessed on the writer thread
+
+		private Recording(String station, RecordCodec codec, Supplier<RecordingWriter> writerFactory) {
+			this.station = station;
+			this.codec = codec;
+			this.writerFactory = writerFactory;
+		}
+
+		/**
+		 * @return the writer, null until the first record has been written
+		 */
+		public RecordingWriter getWriter() {
+			return writer;
+		}
+	}
+
+	private static class Entry {
+		private final Recording recording;
+		private final DataInfo info;
+		private final int bytes;
+		private final long queuedAt;
+
+		private Entry(Recording recording, DataInfo info, int bytes, long queuedAt) {
+			this.recording = recording;
+			this.info = info;
+			this.bytes = bytes;
+			this.queuedAt = queuedAt;
+		}
+	}
+}
@@ -0,0 +1,66 @@
+package de.putterer.indloc.util.serialization;
+
+import de.putterer.indloc.data.DataInfo;
+import de.putterer.indloc.util.Logger;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Reads segmented binary recordings written by RecordingWriter
+ */
+public class RecordingReader {
+
+	/**
+	 * @return whether the folder contains a binary recording of the station
+	 */
+	public static boolean exists(Path folder, String station) throws IOException {
+		return ! RecordingSegment.list(folder, station).isEmpty();
+	}
+
+	/**
+	 * reads all segments of the station in the order they were written
+	 */
+	public static List<DataInfo> read(Path folder, String station) throws IOException {
+		List<DataInfo> data = new ArrayList<>();
+		for(Path segment : RecordingSegment.list(folder, station)) {
+			read(segment, data::add);
+		}
+		return data;
+	}
+
+	/**
+	 * reads the records of one segment, stops at the first incomplete or corrupt record
+	 * @param consumer called for every record in order
+	 * @return the header of the segment
+	 */
+	public static RecordingSegment read(Path segment, Consumer<DataInfo> consumer) throws IOException {
+		ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(segment));
+		RecordingSegment header = RecordingSegment.readHeader(buffer);
+		RecordCodec codec = header.getCodec();
+
+		while(buffer.remaining() >= RecordingSegment.RECORD_OVERHEAD) {
+			int start = buffer.position();
+			int length = buffer.getInt();
+			if(length < 0 || length > buffer.remaining() - Integer.BYTES) {
+				Logger.warn("Incomplete record at the end of %s, %d bytes ignored", segment, buffer.remaining() + Integer.BYTES);
+				break;
+			}
+			if(buffer.getInt(buffer.position() + length) != RecordingSegment.crc(buffer, buffer.position(), length)) {
+				Logger.warn("Corrupt record in %s at offset %d, ignoring the rest of the segment", segment, start);
+				break;
+			}
+
+			ByteBuffer body = buffer.slice();
+			body.limit(length);
+			consumer.accept(codec.decode(body));
+			buffer.position(buffer.position() + length + Integer.BYTES);
+		}
+		return header;
+	}
+}
@@ -0,0 +1,142 @@
+package de.putterer.indloc.util.serialization;
+
+import lombok.Getter;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * Layout of the segment files of a binary recording, one sequence of segments per station
+ *
+ * header (HEADER_LENGTH bytes):
+ *   int magic, short version, byte record type, byte reserved, int segment index, long creation time (millis),
+ *   short station length, station (utf-8, zero padded to MAX_STATION_LENGTH), int crc32 of the preceding bytes
+ * followed by records:
+ *   int body length, body (see RecordCodec), int crc32 of the body
+ *
+ * Segments are append only, a record cut off at the end of a segment (e.g. on a crash) is ignored when reading
+ */
+@Getter
+public class RecordingSegment {
+
+	public static final String EXTENSION = ".rec";
+	public static final int MAGIC = 0x43534952; // "CSIR"
+	public static final short VERSION = 1;
+	public static final int HEADER_LENGTH = 128;
+	public static final int MAX_STATION_LENGTH = 102;
+	public static final int RECORD_OVERHEAD = 2 * Integer.BYTES; // length and crc
+
+	private static final String FILE_PATTERN = "%s\\.(\\d+)\\" + EXTENSION;
+
+	private final RecordCodec codec;
+	private final String station;
+	private final int index;
+	private final long createdAt;
+
+	public RecordingSegment(RecordCodec codec, String station, int index, long createdAt) {
+		this.codec = codec;
+		this.station = station;
+		this.index = index;
+		this.createdAt = createdAt;
+	}
+
+	/**
+	 * @param station the station id, the hardware address or, for serial stations, the port
+	 * @return the file name of the given segment
+	 */
+	public static String getFileName(String station, int index) {
+		return String.format("%s.%06d%s", fileSafe(station), index, EXTENSION);
+	}
+
+	/**
+	 * @return the segment files of the station in the folder, ordered by index
+	 */
+	public static List<Path> list(Path folder, String station) throws IOException {
+		Pattern pattern = Pattern.compile(String.format(FILE_PATTERN, Pattern.quote(fileSafe(station))));
+		try(Stream<Path> files = Files.list(folder)) {
+			return files
+					.filter(p -> pattern.matcher(p.getFileName().toString()).matches())
+					.sorted((a, b) -> Integer.compare(segmentIndex(pattern, a), segmentIndex(pattern, b)))
+					.collect(Collectors.toList());
+		}
+	}
+
+	private static int segmentIndex(Pattern pattern, Path path) {
+		Matcher matcher = pattern.matcher(path.getFileName().toString());
+		matcher.matches();
+		return Integer.parseInt(matcher.group(1));
+	}
+
+	static String fileSafe(String station) {
+		return station.replace("/", "_").replace(":", "_");
+	}
+
+	public void writeHeader(ByteBuffer buffer) {
+		int start = buffer.position();
+		byte[] stationBytes = station.getBytes(StandardCharsets.UTF_8);
+		if(stationBytes.length > MAX_STATION_LENGTH) {
+			throw new IllegalArgumentException("Station id too long: " + station);
+		}
+
+		buffer.putInt(MAGIC);
+		buffer.putShort(VERSION);
+		buffer.put(codec.getId());
+		buffer.put((byte) 0);
+		buffer.putInt(index);
+		buffer.putLong(createdAt);
+		buffer.putShort((short) stationBytes.length);
+		buffer.put(stationBytes);
+		buffer.position(start + HEADER_LENGTH - Integer.BYTES);
+		buffer.putInt(crc(buffer, start, HEADER_LENGTH - Integer.BYTES));
+	}
+
+	/**
+	 * reads and validates a segment header
+	 * @throws IOException if the header is invalid
+	 */
+	public static RecordingSegment readHeader(ByteBuffer buffer) throws IOException {
+		int start = buffer.position();
+		if(buffer.remaining() < HEADER_LENGTH) {
+			throw new IOException("Recording segment too short");
+		}
+		if(buffer.getInt() != MAGIC) {
+			throw new IOException("Not a recording segment");
+		}
+		short version = buffer.getShort();
+		if(version != VERSION) {
+			throw new IOException("Unsupported recording segment version " + version);
+		}
+		if(buffer.getInt(start + HEADER_LENGTH - Integer.BYTES) != crc(buffer, start, HEADER_LENGTH - Integer.BYTES)) {
+			throw new IOException("Corrupt recording segment header");
+		}
+
+		RecordCodec codec = RecordCodec.forId(buffer.get());
+		buffer.get();
+		int index = buffer.getInt();
+		long createdAt = buffer.getLong();
+		byte[] stationBytes = new byte[buffer.getShort()];
+		buffer.get(stationBytes);
+		buffer.position(start + HEADER_LENGTH);
+		return new RecordingSegment(codec, new String(stationBytes, StandardCharsets.UTF_8), index, createdAt);
+	}
+
+	/**
+	 * @return the crc32 of the given range, the position of the buffer is not changed
+	 */
+	public static int crc(ByteBuffer buffer, int offset, int length) {
+		CRC32 crc = new CRC32();
+		ByteBuffer range = buffer.duplicate();
+		range.limit(offset + length).position(offset);
+		crc.update(range);
+		return (int) crc.getValue();
+	}
+}
@@ -0,0 +1,197 @@
+package de.putterer.indloc.util.serialization;
+
+import de.putterer.indloc.Config;
+import de.putterer.indloc.data.DataInfo;
+import de.putterer.indloc.util.Logger;
+import lombok.Getter;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Appends the data of one station to a segmented binary recording, see RecordingSegment
+ * A new segment is started once the current one exceeds the maximum size or duration
+ * Records can be appended to a buffer and written together, see append and flush, or one by one using write
+ * The time index of the recording is written on close, see RecordingIndex
+ */
+public class RecordingWriter implements Closeable {
+
+	private static final int BUFFER_SIZE = 1024 * 1024; // appended records are written in chunks of up to this size
+
+	@Getter private final Path folder;
+	@Getter private final String station;
+	@Getter private final RecordCodec codec;
+	private final long maxSegmentBytes;
+	private final long maxSegmentDurationMillis;
+
+	private FileChannel channel;
+	private int segmentIndex = -1;
+	private long segmentBytes;
+	private long segmentStart;
+	private ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+	private boolean closed = false;
+	private final RecordingIndex index = new RecordingIndex();
+
+	@Getter private long recordsWritten = 0;
+	@Getter private long bytesWritten = 0;
+
+	public RecordingWriter(Path folder, String station, RecordCodec codec) {
+		this(folder, station, codec, Config.RECORDING_SEGMENT_MAX_BYTES, Config.RECORDING_SEGMENT_MAX_DURATION_MS);
+	}
+
+	/**
+	 * @param folder the recording folder
+	 * @param station the station id stored in the segment headers
+	 * @param codec the type of the recorded data
+	 * @param maxSegmentBytes the size after which a new segment is started
+	 * @param maxSegmentDurationMillis the time after which a new segment is started
+	 */
+	public RecordingWriter(Path folder, String station, RecordCodec codec, long maxSegmentBytes, long maxSegmentDurationMillis) {
+		this.folder = folder;
+		this.station = station;
+		this.codec = codec;
+		this.maxSegmentBytes = maxSegmentBytes;
+		this.maxSegmentDurationMillis = maxSegmentDurationMillis;
+	}
+
+	/**
+	 * appends a record and writes it to the segment
+	 * @param info data of the type of this writer
+	 */
+	public synchronized void write(DataInfo info) throws IOException {
+		append(info);
+		flush();
+	}
+
+	/**
+	 * encodes a record into the write buffer, it is written once the buffer is full or on flush
+	 * @param info data of the type of this writer
+	 */
+	public synchronized void append(DataInfo info) throws IOException {
+		if(closed) {
+			throw new IOException("Recording writer already closed");
+		}
+
+		int required = codec.maxLength(info) + RecordingSegment.RECORD_OVERHEAD;
+		if(buffer.remaining() < required) {
+			flush();
+			if(buffer.capacity() < required) {
+				buffer = ByteBuffer.allocateDirect(required);
+			}
+		}
+
+		int start = buffer.position();
+		encode(info);
+		int length = buffer.position() - start;
+
+		long now = System.currentTimeMillis();
+		if(channel == null || segmentBytes + length > maxSegmentBytes || now - segmentStart >= maxSegmentDurationMillis) {
+			writeBuffer(start); // the preceding records belong to the current segment
+			startSegment(now);
+		}
+		index.add(info.getClientTimestamp(), segmentIndex, (int) segmentBytes);
+		segmentBytes += length;
+		recordsWritten++;
+	}
+
+	/**
+	 * writes all appended records to the segment
+	 */
+	public synchronized void flush() throws IOException {
+		writeBuffer(buffer.position());
+	}
+
+	/**
+	 * flushes and forces the segment to the storage device
+	 */
+	public synchronized void force() throws IOException {
+		flush();
+		if(channel != null) {
+			channel.force(false);
+		}
+	}
+
+	/**
+	 * @return the number of appended bytes not yet written
+	 */
+	public synchronized int getBufferedBytes() {
+		return buffer.position();
+	}
+
+	// writes the first end bytes of the buffer, moves the rest to the start
+	private void writeBuffer(int end) throws IOException {
+		if(end == 0) {
+			return;
+		}
+		int position = buffer.position();
+		buffer.position(0).limit(end);
+		while(buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+		bytesWritten += end;
+		buffer.limit(position);
+		buffer.compact();
+	}
+
+	/**
+	 * encodes a record including length and crc into the buffer
+	 */
+	private void encode(DataInfo info) {
+		int start = buffer.position();
+		buffer.position(start + Integer.BYTES);
+		codec.encode(buffer, info);
+		int length = buffer.position() - start - Integer.BYTES;
+		buffer.putInt(start, length);
+		buffer.putInt(RecordingSegment.crc(buffer, start + Integer.BYTES, length));
+	}
+
+	private void startSegment(long now) throws IOException {
+		closeSegment();
+
+		segmentIndex++;
+		segmentStart = now;
+		Path file = folder.resolve(RecordingSegment.getFileName(station, segmentIndex));
+		channel = FileChannel.open(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+
+		ByteBuffer header = ByteBuffer.allocate(RecordingSegment.HEADER_LENGTH);
+		new RecordingSegment(codec, station, segmentIndex, now).writeHeader(header);
+		header.flip();
+		while(header.hasRemaining()) {
+			channel.write(header);
+		}
+		segmentBytes = RecordingSegment.HEADER_LENGTH;
+		bytesWritten += RecordingSegment.HEADER_LENGTH;
+		Logger.debug("Started recording segment %s", file);
+	}
+
+	private void closeSegment() throws IOException {
+		if(channel != null) {
+			index.endSegment(segmentBytes);
+			channel.close();
+			channel = null;
+		}
+	}
+
+	public synchronized int getSegmentCount() {
+		return segmentIndex + 1;
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		if(closed) {
+			return;
+		}
+		closed = true;
+		flush();
+		closeSegment();
+
+		if(index.size() > 0) {
+			index.sort();
+			index.write(RecordingIndex.getFile(folder, station));
+		}
+	}
+}
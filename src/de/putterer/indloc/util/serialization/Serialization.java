@@ -2,6 +2,7 @@ package de.putterer.indloc.util.serialization;
 
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
+import com.google.gson.JsonParseException;
 import de.putterer.indloc.Station;
 import de.putterer.indloc.csi.CSIInfo;
 import de.putterer.indloc.data.DataInfo;
@@ -11,22 +12,25 @@ import java.io.*;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.Arrays;
-import java.util.zip.DataFormatException;
+import java.util.List;
 import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
 import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
 
 /**
  * Utility code for (de-)serializing objects
  */
 public class Serialization {
 
+	private static final int STREAM_BUFFER_SIZE = 64 * 1024;
+
 	private static final Gson gson;
 
 	static {
 		// StationSerializationAdapter internally USES ITS OWN GSON
 		gson = new GsonBuilder()
-				.registerTypeAdapter(DataInfo.class, new DataInfoInterfaceAdapter())
+				.registerTypeHierarchyAdapter(DataInfo.class, new DataInfoInterfaceAdapter())
 				.registerTypeAdapter(Station.class, new StationSerializationAdapter())
 				.create();
 	}
@@ -39,6 +43,31 @@ public class Serialization {
 		save(path, true, info);
 	}
 
+	/**
+	 * opens a segmented binary recording of the station, see RecordingWriter
+	 * @param folder the recording folder
+	 * @param station the station id, e.g. its hardware address
+	 * @param codec the type of the recorded data
+	 */
+	public static RecordingWriter openRecording(Path folder, String station, RecordCodec codec) {
+		return new RecordingWriter(folder, station, codec);
+	}
+
+	/**
+	 * @return all data of the station in the binary recording in the folder, empty if there is none
+	 */
+	public static List<DataInfo> readRecording(Path folder, String station) throws IOException {
+		return RecordingReader.read(folder, station);
+	}
+
+	/**
+	 * maps the binary recording of the station for lazy reading, see MappedRecording
+	 * @return the recording, null if there is none
+	 */
+	public static MappedRecording mapRecording(Path folder, String station) throws IOException {
+		return MappedRecording.open(folder, station);
+	}
+
 	public static void saveLegacy(Path path, CSIInfo... csi) throws IOException {
 		serializeLegacy(path, csi);
 	}
@@ -51,49 +80,44 @@ public class Serialization {
 		return deserializeLegacy(path);
 	}
 
+	/**
+	 * writes the object as json, streamed through the compressor if compress is set
+	 */
 	public static void serialize(Path path, boolean compress, Object obj) throws IOException {
-		String json = gson.toJson(obj);
-		byte[] serializedData = json.getBytes(StandardCharsets.UTF_8);
-
-		if(compress) {
-			byte[] compressedData = new byte[64000];
-			Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
-			deflater.setInput(serializedData);
-			deflater.finish();
-			int n = deflater.deflate(compressedData);
-			deflater.end();
-			compressedData = Arrays.copyOfRange(compressedData, 0, n);
-
-			Files.write(path, compressedData);
-		} else {
-			Files.write(path, serializedData);
+		Deflater deflater = compress ? new Deflater(Deflater.BEST_COMPRESSION) : null;
+		try(OutputStream out = compress
+				? new DeflaterOutputStream(Files.newOutputStream(path), deflater, STREAM_BUFFER_SIZE)
+				: new BufferedOutputStream(Files.newOutputStream(path), STREAM_BUFFER_SIZE);
+			Writer writer = new OutputStreamWriter(out, StandardCharsets.UTF_8)) {
+			gson.toJson(obj, writer);
+		} finally {
+			if(deflater != null) {
+				deflater.end();
+			}
 		}
 	}
 
+	/**
+	 * reads json written by serialize, files ending in .deflate are decompressed while parsing
+	 */
 	public static <T> T deserialize(Path path, Class<T> clazz) throws IOException {
-		byte[] data = Files.readAllBytes(path);
-
-		if(path.getFileName().toString().endsWith(".deflate")) {
-			byte[] uncompressedData = new byte[64000];
-			Inflater inflater = new Inflater();
-			inflater.setInput(data);
-			int n = 0;
-			try {
-				n = inflater.inflate(uncompressedData);
-			} catch (DataFormatException e) {
-				Logger.error("Couldn't detect format of compressed data", e);
+		boolean compressed = path.getFileName().toString().endsWith(".deflate");
+		Inflater inflater = compressed ? new Inflater() : null;
+		try(InputStream in = compressed
+				? new InflaterInputStream(Files.newInputStream(path), inflater, STREAM_BUFFER_SIZE)
+				: new BufferedInputStream(Files.newInputStream(path), STREAM_BUFFER_SIZE);
+			Reader reader = new InputStreamReader(in, StandardCharsets.UTF_8)) {
+			return gson.fromJson(reader, clazz);
+		} catch(JsonParseException e) {
+			if(e.getCause() instanceof IOException) { // e.g. corrupt compressed data
+				throw (IOException) e.getCause();
 			}
-			inflater.end();
-
-			data = Arrays.copyOfRange(uncompressedData, 0, n);
-		}
-
-		String json = new String(data, StandardCharsets.UTF_8);
-		try {
-			return gson.fromJson(json, clazz);
-		} catch(Exception e) {
-			Logger.error("Error while deserializing: " + json);
+			Logger.error("Error while deserializing %s", path);
 			throw e;
+		} finally {
+			if(inflater != null) {
+				inflater.end();
+			}
 		}
 	}
 	
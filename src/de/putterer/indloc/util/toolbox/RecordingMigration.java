@@ -0,0 +1,344 @@
+package de.putterer.indloc.util.toolbox;
+
+import de.putterer.indloc.Config;
+import de.putterer.indloc.Station;
+import de.putterer.indloc.csi.CSIReplay;
+import de.putterer.indloc.data.DataInfo;
+import de.putterer.indloc.data.SequenceTracker;
+import de.putterer.indloc.util.ArgumentParser;
+import de.putterer.indloc.util.Logger;
+import de.putterer.indloc.util.serialization.RecordCodec;
+import de.putterer.indloc.util.serialization.RecordingIndex;
+import de.putterer.indloc.util.serialization.RecordingReader;
+import de.putterer.indloc.util.serialization.RecordingSegment;
+import de.putterer.indloc.util.serialization.RecordingWriter;
+import de.putterer.indloc.util.serialization.Serialization;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * Converts recordings with one file per packet into binary recordings, see RecordingWriter
+ * Walks the input for recording directories and decodes their files on a work stealing pool,
+ * the data of every station is merged in time order into segments with their time index
+ * and the loss statistics derived from its message ids, see CSIReplay.getSequenceStatisticsFile
+ * Every converted station is read back and compared by record count and checksum
+ * Files that can't be converted are copied unchanged, as are all other files of a recording (room, sequence statistics, ...)
+ */
+public class RecordingMigration {
+
+    private static final Pattern DATA_FILE = Pattern.compile("(.+)-\\d+\\.(csi|ecg|accel)(\\.deflate)?");
+
+    private final ForkJoinPool pool;
+
+    private final LongAdder recordings = new LongAdder();
+    private final LongAdder convertedFiles = new LongAdder();
+    private final LongAdder copiedFiles = new LongAdder();
+    private final LongAdder records = new LongAdder();
+    private final LongAdder inputBytes = new LongAdder();
+    private final LongAdder outputBytes = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+
+    /**
+     * @param threads the number of threads decoding and writing
+     */
+    public RecordingMigration(int threads) {
+        this.pool = new ForkJoinPool(threads);
+    }
+
+    /**
+     * converts all recording directories below the input, the directory structure is kept in the output
+     */
+    public void convertAll(Path input, Path output) throws IOException {
+        List<Path> directories;
+        try(Stream<Path> paths = Files.walk(input)) {
+            directories = paths.filter(Files::isDirectory).filter(RecordingMigration::isLegacyRecording).collect(Collectors.toList());
+        }
+        Logger.info("Found %d recordings in %s", directories.size(), input);
+
+        for(Path directory : directories) {
+            convert(directory, output.resolve(input.relativize(directory).toString()));
+        }
+    }
+
+    private static boolean isLegacyRecording(Path directory) {
+        try(Stream<Path> files = Files.list(directory)) {
+            return files.anyMatch(p -> DATA_FILE.matcher(p.getFileName().toString()).matches());
+        } catch(IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * converts one recording directory
+     */
+    public void convert(Path input, Path output) throws IOException {
+        Files.createDirectories(output);
+        Config.RoomConfig room = Files.exists(input.resolve("room.cfg"))
+                ? Serialization.deserialize(input.resolve("room.cfg"), Config.RoomConfig.class) : null;
+
+        List<Path> files;
+        try(Stream<Path> paths = Files.list(input)) {
+            files = paths.filter(Files::isRegularFile).sorted().collect(Collectors.toList());
+        }
+
+        Map<String, List<Path>> filesByStation = new TreeMap<>();
+        for(Path file : files) {
+            Matcher matcher = DATA_FILE.matcher(file.getFileName().toString());
+            if(matcher.matches()) {
+                filesByStation.computeIfAbsent(stationId(room, matcher.group(1)), s -> new ArrayList<>()).add(file);
+            } else {
+                copy(file, output);
+            }
+        }
+
+        Map<Path, ForkJoinTask<DataInfo[]>> decoding = new LinkedHashMap<>();
+        filesByStation.values().forEach(stationFiles -> stationFiles.forEach(file -> decoding.put(file, pool.submit(() -> decode(file)))));
+
+        List<ForkJoinTask<?>> writing = new ArrayList<>();
+        for(Map.Entry<String, List<Path>> entry : filesByStation.entrySet()) {
+            List<DataInfo> data = new ArrayList<>();
+            List<Path> convertible = new ArrayList<>();
+            for(Path file : entry.getValue()) {
+                DataInfo[] decoded = decoding.remove(file).join(); // released once merged
+                if(decoded == null) {
+                    copy(file, output);
+                } else {
+                    data.addAll(Arrays.asList(decoded));
+                    convertible.add(file);
+                }
+            }
+            writing.add(pool.submit(() -> {
+                try {
+                    convertStation(output, entry.getKey(), data, convertible);
+                } finally {
+                    data.clear(); // the finished task is kept until the whole directory is written
+                }
+            }));
+        }
+        writing.forEach(ForkJoinTask::join);
+
+        recordings.increment();
+        Logger.info("Converted %s, %d stations", input, filesByStation.size());
+    }
+
+    /**
+     * @return the hardware address of the station of the room the file prefix belongs to, the prefix itself if there's none
+     */
+    private static String stationId(Config.RoomConfig room, String prefix) {
+        if(room != null) {
+            for(Station station : room.getStations()) {
+                if(prefix.equals(station.getHW_ADDRESS()) || prefix.equals(station.getIP_ADDRESS().replace("/", "_"))) {
+                    return station.getHW_ADDRESS();
+                }
+            }
+        }
+        return prefix;
+    }
+
+    /**
+     * @return the data in the file, null if it can't be read
+     */
+    private DataInfo[] decode(Path file) {
+        try {
+            DataInfo[] data = Serialization.deserialize(file, DataInfo[].class);
+            if(data == null) {
+                Logger.warn("%s is empty", file);
+            }
+            return data;
+        } catch(Exception e) {
+            Logger.warn("Could not read %s: %s", file, e.getMessage());
+            return null;
+        }
+    }
+
+    private void convertStation(Path output, String station, List<DataInfo> data, List<Path> files) {
+        if(data.isEmpty()) {
+            return;
+        }
+        RecordCodec codec = RecordCodec.forData(data.get(0));
+        if(codec == null || data.stream().anyMatch(d -> RecordCodec.forData(d) != codec)) {
+            Logger.error("%s contains data that can't be converted, copying its files", station);
+            files.forEach(file -> copy(file, output));
+            failures.increment();
+            return;
+        }
+
+        data.sort(Comparator.comparingLong(DataInfo::getClientTimestamp));
+        Path sequenceStatisticsFile = CSIReplay.getSequenceStatisticsFile(output, station);
+        try {
+            try(RecordingWriter writer = new RecordingWriter(output, station, codec)) {
+                for(DataInfo info : data) {
+                    writer.append(info);
+                }
+            }
+            // the replay would otherwise have to read every message id on first open, kept if the recording has one
+            SequenceTracker.Statistics statistics = null;
+            if(! Files.exists(sequenceStatisticsFile)) {
+                statistics = SequenceTracker.analyze(data);
+                Serialization.serialize(sequenceStatisticsFile, false, statistics);
+            }
+            verify(output, station, codec, data, statistics);
+        } catch(IOException e) {
+            Logger.error("Could not convert %s: %s", station, e.getMessage());
+            failures.increment();
+            return;
+        }
+
+        long stationInputBytes = 0;
+        for(Path file : files) {
+            stationInputBytes += size(file);
+        }
+        long stationOutputBytes = size(RecordingIndex.getFile(output, station)) + size(sequenceStatisticsFile);
+        try {
+            for(Path segment : RecordingSegment.list(output, station)) {
+                stationOutputBytes += size(segment);
+            }
+        } catch(IOException e) {
+            Logger.warn("Could not list segments of %s", station);
+        }
+
+        convertedFiles.add(files.size());
+        records.add(data.size());
+        inputBytes.add(stationInputBytes);
+        outputBytes.add(stationOutputBytes);
+        Logger.debug("%s: %d files, %d records, %d -> %d bytes", station, files.size(), data.size(), stationInputBytes, stationOutputBytes);
+    }
+
+    /**
+     * reads the converted station back and compares it to the source data
+     * @param statistics the generated sequence statistics, null if they were taken over from the input
+     */
+    private void verify(Path output, String station, RecordCodec codec, List<DataInfo> data, SequenceTracker.Statistics statistics) throws IOException {
+        List<Path> segments = RecordingSegment.list(output, station);
+        List<DataInfo> written = RecordingReader.read(output, station);
+        RecordingIndex index = RecordingIndex.read(RecordingIndex.getFile(output, station));
+        SequenceTracker.Statistics writtenStatistics = Serialization.deserialize(CSIReplay.getSequenceStatisticsFile(output, station), SequenceTracker.Statistics.class);
+
+        if(written.size() != data.size() || index.size() != data.size() || ! index.matches(segments)) {
+            throw new IOException(String.format("verification failed, %d records, %d written, %d indexed", data.size(), written.size(), index.size()));
+        }
+        if(writtenStatistics == null || (statistics != null && ! statistics.equals(writtenStatistics))) {
+            throw new IOException("verification failed, sequence statistics missing or different");
+        }
+        if(checksum(codec, written) != checksum(codec, data)) {
+            throw new IOException("verification failed, checksum mismatch");
+        }
+    }
+
+    /**
+     * @return the crc32 of the binary encoding of the data
+     */
+    private static long checksum(RecordCodec codec, List<DataInfo> data) {
+        CRC32 crc = new CRC32();
+        ByteBuffer buffer = ByteBuffer.allocate(0);
+        for(DataInfo info : data) {
+            if(buffer.capacity() < codec.maxLength(info)) {
+                buffer = ByteBuffer.allocate(codec.maxLength(info));
+            }
+            buffer.clear();
+            codec.encode(buffer, info);
+            buffer.flip();
+            crc.update(buffer);
+        }
+        return crc.getValue();
+    }
+
+    private void copy(Path file, Path output) {
+        try {
+            Files.copy(file, output.resolve(file.getFileName().toString()), StandardCopyOption.REPLACE_EXISTING);
+            copiedFiles.increment();
+        } catch(IOException e) {
+            Logger.error("Could not copy %s: %s", file, e.getMessage());
+            failures.increment();
+        }
+    }
+
+    private static long size(Path file) {
+        try {
+            return Files.size(file);
+        } catch(IOException e) {
+            return 0;
+        }
+    }
+
+    public void shutdown() {
+        pool.shutdown();
+    }
+
+    public long getRecordings() {
+        return recordings.sum();
+    }
+
+    public long getConvertedFiles() {
+        return convertedFiles.sum();
+    }
+
+    public long getCopiedFiles() {
+        return copiedFiles.sum();
+    }
+
+    public long getRecords() {
+        return records.sum();
+    }
+
+    public long getInputBytes() {
+        return inputBytes.sum();
+    }
+
+    public long getOutputBytes() {
+        return outputBytes.sum();
+    }
+
+    public long getFailures() {
+        return failures.sum();
+    }
+
+    public static void main(String[] args) throws IOException {
+        Map<String, String> arguments = ArgumentParser.parse(args);
+        if(arguments.containsKey("help") || arguments.get("input") == null || arguments.get("output") == null) {
+            help();
+            return;
+        }
+        Logger.setLogLevel(Logger.Level.getByName(arguments.getOrDefault("log-level", "INFO")));
+
+        RecordingMigration migration = new RecordingMigration(Integer.parseInt(
+                arguments.getOrDefault("threads", String.valueOf(Runtime.getRuntime().availableProcessors()))));
+        long start = System.nanoTime();
+        migration.convertAll(Paths.get(arguments.get("input")), Paths.get(arguments.get("output")));
+        migration.shutdown();
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        Logger.info("Converted %d recordings, %d files, %d records in %.1f s (%.0f files/s), %d files copied",
+                migration.getRecordings(), migration.getConvertedFiles(), migration.getRecords(), seconds,
+                migration.getConvertedFiles() / seconds, migration.getCopiedFiles());
+        Logger.info("%d -> %d bytes, compression ratio %.2f",
+                migration.getInputBytes(), migration.getOutputBytes(),
+                migration.getOutputBytes() == 0 ? 0 : (double) migration.getInputBytes() / migration.getOutputBytes());
+        if(migration.getFailures() > 0) {
+            Logger.error("%d failures", migration.getFailures());
+            System.exit(1);
+        }
+    }
+
+    private static void help() {
+        System.out.println("Usage: RecordingMigration --input [path] --output [path] [options]\n" +
+                "   (--input [path])       a recording or a directory containing recordings with one file per packet\n" +
+                "   (--output [path])      the directory to write the converted recordings to, the structure of the input is kept\n" +
+                "   (--threads [n])        number of decoding and writing threads (default: number of cores)\n" +
+                "   (--log-level [level])  (default: INFO)");
+    }
+}
@@ -0,0 +1,133 @@
+package test;
+
+import de.putterer.indloc.csi.atheros.AthCSIInfo;
+import de.putterer.indloc.data.BufferPool;
+import de.putterer.indloc.data.DataClient;
+import de.putterer.indloc.data.simulator.SyntheticSource;
+import de.putterer.indloc.data.ssh.Base64FrameDecoder;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+
+import static test.ComplexTest.assertEquals;
+
+// Decodes generated csi-server stdout (atheros frames from SyntheticSource, base64 encoded in <athCSI> tags)
+// with Base64FrameDecoder and with the previous char by char approach of SSHDataClient
+// Usage: Base64FrameDecoderBenchmark [frames] [rounds]
+public class Base64FrameDecoderBenchmark {
+
+    private static long sink = 0;
+
+    public static void main(String[] args) throws IOException {
+        int frameCount = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+        SyntheticSource source = new SyntheticSource(SyntheticSource.Type.ATH, 100, 15, 0);
+        List<byte[]> payloads = new ArrayList<>();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write("Starting CSI server\nDumping (atheros) csi data to stdout\n".getBytes(StandardCharsets.US_ASCII));
+        for(int i = 0;i < frameCount;i++) {
+            ByteBuffer buffer = ByteBuffer.allocate(DataClient.MAX_MESSAGE_LENGTH);
+            source.write(buffer);
+            buffer.flip();
+            byte[] payload = new byte[buffer.remaining()];
+            buffer.get(payload);
+            payloads.add(payload);
+            out.write(("<athCSI>" + Base64.getMimeEncoder().encodeToString(payload) + "</athCSI>\n").getBytes(StandardCharsets.US_ASCII));
+            if(i % 50 == 0) {
+                out.write("log line between frames\n".getBytes(StandardCharsets.US_ASCII));
+            }
+        }
+        byte[] stdout = out.toByteArray();
+        System.out.printf("%d frames, %d bytes of output, %d bytes per frame%n", frameCount, stdout.length, stdout.length / frameCount);
+
+        // compare the decoded payloads and the parsed csi
+        List<ByteBuffer> decoded = new ArrayList<>();
+        List<String> lines = new ArrayList<>();
+        Base64FrameDecoder decoder = new Base64FrameDecoder("athCSI", new BufferPool(2, DataClient.MAX_MESSAGE_LENGTH), new Base64FrameDecoder.FrameListener() {
+            @Override
+            public void onFrame(ByteBuffer frame) {
+                ByteBuffer copy = ByteBuffer.allocate(frame.remaining());
+                copy.put(frame).flip();
+                decoded.add(copy);
+            }
+
+            @Override
+            public void onLine(String line) {
+                lines.add(line);
+            }
+        });
+        for(int offset = 0;offset < stdout.length;offset += 1000) {
+            decoder.decode(stdout, offset, Math.min(1000, stdout.length - offset));
+        }
+        assertEquals(decoded.size(), frameCount);
+        assertEquals(decoder.getMalformedFrames(), 0L);
+        assertEquals(lines.size(), 2 + (frameCount + 49) / 50);
+        for(int i = 0;i < frameCount;i++) {
+            assertEquals(decoded.get(i), ByteBuffer.wrap(payloads.get(i)));
+            ByteBuffer frame = decoded.get(i);
+            frame.get();
+            assertEquals(new AthCSIInfo(frame).getCsi(), new AthCSIInfo(ByteBuffer.wrap(payloads.get(i), 1, payloads.get(i).length - 1)).getCsi());
+        }
+
+        Base64FrameDecoder benchmarkDecoder = new Base64FrameDecoder("athCSI", new BufferPool(2, DataClient.MAX_MESSAGE_LENGTH), new Base64FrameDecoder.FrameListener() {
+            @Override
+            public void onFrame(ByteBuffer frame) {
+                frame.get();
+                sink += new AthCSIInfo(frame).getMessageId();
+            }
+
+            @Override
+            public void onLine(String line) {
+            }
+        });
+        byte[] chunk = new byte[16 * 1024];
+        for(int round = 0;round < rounds;round++) {
+            boolean print = round == rounds - 1;
+
+            long start = System.nanoTime();
+            ByteArrayInputStream in = new ByteArrayInputStream(stdout);
+            int read;
+            while((read = in.read(chunk)) > 0) {
+                benchmarkDecoder.decode(chunk, 0, read);
+            }
+            report("streaming decoder", start, stdout.length, frameCount, print);
+
+            start = System.nanoTime();
+            previousDecoder(stdout);
+            report("char by char", start, stdout.length, frameCount, print);
+        }
+    }
+
+    private static void report(String name, long start, int bytes, int frames, boolean print) {
+        double seconds = (System.nanoTime() - start) / 1e9;
+        if(print) {
+            System.out.printf("%-20s %8.1f MB/s %10.0f frames/s%n", name, bytes / seconds / 1e6, frames / seconds);
+        }
+    }
+
+    // the decoding previously done in SSHDataClient.scannerThread
+    private static void previousDecoder(byte[] stdout) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new ByteArrayInputStream(stdout)));
+        String line;
+        while((line = reader.readLine()) != null) {
+            if(line.startsWith("<athCSI>")) {
+                StringBuilder sb = new StringBuilder(line);
+                while(! sb.toString().endsWith("</athCSI>")) {
+                    sb.append((char) reader.read());
+                }
+                String csiData = sb.toString().replace("<athCSI>", "").replace("</athCSI>", "").replace("\n", "").replace("\r", "");
+                byte[] data = Base64.getDecoder().decode(csiData);
+                sink += new AthCSIInfo(ByteBuffer.wrap(data, 1, data.length - 1)).getMessageId();
+            }
+        }
+    }
+}
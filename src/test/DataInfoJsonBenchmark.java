@@ -0,0 +1,97 @@
+package test;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import de.putterer.indloc.csi.calibration.AndroidInfo;
+import de.putterer.indloc.csi.esp.EspCSIInfo;
+import de.putterer.indloc.data.DataInfo;
+import de.putterer.indloc.data.ecg.EcgInfo;
+import de.putterer.indloc.data.simulator.SyntheticSource;
+import de.putterer.indloc.util.serialization.DataInfoInterfaceAdapter;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static test.ComplexTest.assertEquals;
+import static test.ComplexTest.assertTrue;
+
+// Reads json recordings written reflectively (the former format) and with the streaming adapter, compares decode throughput
+// Usage: DataInfoJsonBenchmark [packets] [rounds]
+public class DataInfoJsonBenchmark {
+
+    private static long sink = 0;
+
+    public static void main(String[] args) {
+        int packets = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+        Gson gson = new GsonBuilder().registerTypeHierarchyAdapter(DataInfo.class, new DataInfoInterfaceAdapter()).create();
+
+        List<DataInfo> data = new ArrayList<>();
+        data.addAll(RecordingFormatTest.generate(SyntheticSource.Type.ATH, packets / 2));
+        data.addAll(RecordingFormatTest.generate(SyntheticSource.Type.INT, packets / 2));
+        List<DataInfo> other = new ArrayList<>();
+        Random random = new Random(0);
+        for(int i = 0;i < 100;i++) {
+            byte[] csi = new byte[256];
+            random.nextBytes(csi);
+            other.add(new EspCSIInfo(1000 + i, i, "01:02:03:04:05:06", csi.length, i % 2 == 0, -40 - i % 30, 7,
+                    EspCSIInfo.ChannelBandwidth.BW_20MHZ, false, EspCSIInfo.GuardInterval.LONG_GI, (byte) 6,
+                    EspCSIInfo.SecondaryChannel.ABOVE, random.nextInt(Integer.MAX_VALUE), (byte) 1, csi));
+            other.add(new AndroidInfo(1000 + i, i, 5000 + i, new float[] {i / 7f, -i, 0.1f}, i % 2 == 0 ? null : new float[] {1, 2, 3}));
+            other.add(new EcgInfo(1000 + i, i, i / 300f));
+        }
+
+        // both formats decode to the same data
+        for(List<DataInfo> list : Arrays.asList(data, other)) {
+            String legacyJson = legacyJson(list);
+            String json = gson.toJson(list.toArray(new DataInfo[0]), DataInfo[].class);
+            assertTrue(json.startsWith("[{\"v\":2,\"type\":"));
+            assertEquals(Arrays.asList(gson.fromJson(json, DataInfo[].class)), list);
+            assertEquals(Arrays.asList(gson.fromJson(legacyJson, DataInfo[].class)), list);
+        }
+        assertEquals(gson.fromJson(gson.toJson(data.get(0)), DataInfo.class), data.get(0));
+
+        String legacyJson = legacyJson(data);
+        String json = gson.toJson(data.toArray(new DataInfo[0]), DataInfo[].class);
+        System.out.printf("%d packets, reflective format %d bytes, streaming format %d bytes%n", data.size(),
+                legacyJson.getBytes(StandardCharsets.UTF_8).length, json.getBytes(StandardCharsets.UTF_8).length);
+
+        for(int round = 0;round < rounds;round++) {
+            long start = System.nanoTime();
+            sink += gson.fromJson(legacyJson, DataInfo[].class).length;
+            double legacySeconds = (System.nanoTime() - start) / 1e9;
+
+            start = System.nanoTime();
+            sink += gson.fromJson(json, DataInfo[].class).length;
+            double streamingSeconds = (System.nanoTime() - start) / 1e9;
+
+            start = System.nanoTime();
+            sink += gson.toJson(data.toArray(new DataInfo[0]), DataInfo[].class).length();
+            double writeSeconds = (System.nanoTime() - start) / 1e9;
+
+            System.out.printf("round %d: decode reflective %.0f packets/s, streaming %.0f packets/s (%.1fx), encode %.0f packets/s%n", round,
+                    data.size() / legacySeconds, data.size() / streamingSeconds, legacySeconds / streamingSeconds, data.size() / writeSeconds);
+        }
+        if(sink == 42) {
+            System.out.println();
+        }
+    }
+
+    // as written by the former reflective serializer, the class name added to every object
+    private static String legacyJson(List<DataInfo> data) {
+        Gson reflective = new Gson();
+        JsonArray array = new JsonArray();
+        for(DataInfo info : data) {
+            JsonObject obj = reflective.toJsonTree(info).getAsJsonObject();
+            obj.addProperty("csiInfoType", info.getClass().toString());
+            array.add(obj);
+        }
+        return reflective.toJson(array);
+    }
+}
@@ -0,0 +1,115 @@
+package test;
+
+import de.putterer.indloc.csi.esp.EspCSIInfo;
+import de.putterer.indloc.csi.esp.EspClient;
+import de.putterer.indloc.csi.esp.EspFrameParser;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Matcher;
+
+import static test.ComplexTest.assertEquals;
+import static test.ComplexTest.assertTrue;
+
+// Compares EspFrameParser against the regex based parsing on generated serial output split into random chunks
+// and measures the parser throughput
+public class EspFrameParserTest {
+
+    private static final int LENGTH = 256; // lltf and ht-ltf, no secondary channel
+
+    public static void main(String[] args) {
+        Random random = new Random(0);
+        List<String> lines = new ArrayList<>();
+        for(int i = 0;i < 200;i++) {
+            lines.add(frame(random));
+        }
+
+        StringBuilder stream = new StringBuilder("boot messages\r\n<CSI><addr>garbage\r\n");
+        lines.forEach(l -> stream.append(l).append("\r\n"));
+        stream.append("<CSI><addr>01:02:03:04:05:06</addr><len>4</len>\r\n"); // truncated
+        stream.append(lines.get(0).replace("<rssi>", "<rssi>x")).append("\r\n"); // invalid value
+        stream.append(lines.get(0).replace("<len>256", "<len>255")).append("\r\n"); // length mismatch
+        stream.append(lines.get(1)).append("\r\n");
+        byte[] bytes = stream.toString().getBytes(StandardCharsets.US_ASCII);
+
+        List<EspCSIInfo> parsed = new ArrayList<>();
+        EspFrameParser parser = new EspFrameParser(p -> parsed.add(toCsi(p)));
+        for(int offset = 0;offset < bytes.length;) {
+            int length = Math.min(bytes.length - offset, 1 + random.nextInt(300));
+            parser.parse(bytes, offset, length);
+            offset += length;
+        }
+
+        assertEquals(parsed.size(), lines.size() + 1);
+        assertEquals(parser.getMalformedFrames(), 4L);
+        for(int i = 0;i < parsed.size();i++) {
+            EspCSIInfo expected = fromRegex(lines.get(i < lines.size() ? i : 1));
+            EspCSIInfo actual = parsed.get(i);
+            assertEquals(actual.getSourceMac(), expected.getSourceMac());
+            assertEquals(actual.getRssi(), expected.getRssi());
+            assertEquals(actual.getChannel(), expected.getChannel());
+            assertEquals(actual.getGuardInterval(), expected.getGuardInterval());
+            assertEquals(actual.getTimestamp(), expected.getTimestamp());
+            assertEquals(actual.getCsi(), expected.getCsi());
+        }
+
+        benchmark(bytes);
+        System.exit(0); // loading EspClient starts the data client threads
+    }
+
+    private static void benchmark(byte[] bytes) {
+        long[] frames = new long[1];
+        EspFrameParser parser = new EspFrameParser(p -> frames[0] += p.getData()[0]);
+        int rounds = 2000;
+        long start = System.nanoTime();
+        for(int round = 0;round < rounds;round++) {
+            for(int offset = 0;offset < bytes.length;offset += 4096) {
+                parser.parse(bytes, offset, Math.min(4096, bytes.length - offset));
+            }
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        assertTrue(parser.getFrames() == 201L * rounds);
+        System.out.printf("parser: %.1f MB/s, %.0f frames/s%n", bytes.length * (double) rounds / seconds / 1e6, parser.getFrames() / seconds);
+    }
+
+    private static String frame(Random random) {
+        StringBuilder sb = new StringBuilder("<CSI><addr>");
+        for(int i = 0;i < 6;i++) {
+            sb.append(String.format(i == 0 ? "%02x" : ":%02x", random.nextInt(256)));
+        }
+        sb.append("</addr><len>").append(LENGTH).append("</len><inv>0</inv>")
+                .append("<rssi>").append(-random.nextInt(100)).append("</rssi>")
+                .append("<mcs>").append(random.nextInt(8)).append("</mcs>")
+                .append("<cwb>0</cwb><stbc>0</stbc>")
+                .append("<sgi>").append(random.nextInt(2)).append("</sgi>")
+                .append("<chl>").append(1 + random.nextInt(13)).append("</chl>")
+                .append("<sec_chl>0</sec_chl>")
+                .append("<t>").append(random.nextInt(Integer.MAX_VALUE)).append("</t>")
+                .append("<ant>0</ant>");
+        for(int i = 0;i < LENGTH;i++) {
+            sb.append(Integer.toHexString(random.nextInt(256))).append(' ');
+        }
+        return sb.append("</CSI>").toString();
+    }
+
+    private static EspCSIInfo toCsi(EspFrameParser p) {
+        return new EspCSIInfo(0, 0, p.getSourceMac(), p.getLength(), p.isFirstWordInvalid(), p.getRssi(), p.getMcs(),
+                p.isBandwidth40MHz() ? EspCSIInfo.ChannelBandwidth.BW_40MHZ : EspCSIInfo.ChannelBandwidth.BW_20MHZ,
+                p.isSpaceTimeBlockCode(),
+                p.isShortGuardInterval() ? EspCSIInfo.GuardInterval.SHORT_GI : EspCSIInfo.GuardInterval.LONG_GI,
+                p.getChannel(), EspCSIInfo.SecondaryChannel.NONE, p.getTimestamp(), p.getAntenna(), p.getData());
+    }
+
+    private static EspCSIInfo fromRegex(String line) {
+        Matcher m = EspClient.ESP_CSI_SERIAL_PATTERN.matcher(line);
+        assertTrue(m.matches());
+        return new EspCSIInfo(0, 0, m.group(1), Integer.parseInt(m.group(2)), m.group(3).equals("1"),
+                Integer.parseInt(m.group(4)), Integer.parseInt(m.group(5)), EspCSIInfo.ChannelBandwidth.BW_20MHZ,
+                m.group(7).equals("1"),
+                m.group(8).equals("0") ? EspCSIInfo.GuardInterval.LONG_GI : EspCSIInfo.GuardInterval.SHORT_GI,
+                Byte.parseByte(m.group(9)), EspCSIInfo.SecondaryChannel.NONE, Long.parseUnsignedLong(m.group(11)),
+                Byte.parseByte(m.group(12)), m.group(13));
+    }
+}
@@ -0,0 +1,92 @@
+package test;
+
+import de.putterer.indloc.csi.CSIMatrix;
+import de.putterer.indloc.csi.intel.IntCSIInfo;
+import de.putterer.indloc.csi.intel.IntCSIInfo.IntCSINotification;
+import de.putterer.indloc.data.DataClient;
+import de.putterer.indloc.data.simulator.PayloadEncoder;
+import de.putterer.indloc.util.Util;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import static test.ComplexTest.assertTrue;
+
+// Checks the fused scaling of IntCSIInfo against the previous stepwise scaling with rounding in between
+public class IntCSIScalingTest {
+
+    private static final int TONES = 30;
+
+    public static void main(String[] args) {
+        Random random = new Random(0);
+        for(int ntx = 1;ntx <= 3;ntx++) {
+            int maxDifference = 0;
+            for(int packet = 0;packet < 200;packet++) {
+                IntCSINotification notification = new IntCSINotification();
+                notification.setNrx((byte) 3);
+                notification.setNtx((byte) ntx);
+                notification.setRssi_a((short) (20 + random.nextInt(30)));
+                notification.setRssi_b((short) (packet % 5 == 0 ? 0 : 20 + random.nextInt(30)));
+                notification.setRssi_c((short) (20 + random.nextInt(30)));
+                notification.setNoise((short) (packet % 7 == 0 ? -127 : -95 + random.nextInt(10)));
+                notification.setAgc((short) (20 + random.nextInt(40)));
+                notification.setPerm(new byte[] {0, 1, 2});
+
+                int entries = 3 * ntx * TONES;
+                double[] raw = new double[entries * 2];
+                ByteBuffer buffer = ByteBuffer.allocate(DataClient.MAX_MESSAGE_LENGTH);
+                PayloadEncoder.putIntHeader(buffer, packet, notification);
+                for(int i = 0;i < entries;i++) {
+                    raw[i * 2] = random.nextInt(256) - 128 + random.nextDouble();
+                    raw[i * 2 + 1] = random.nextInt(256) - 128 + random.nextDouble();
+                    PayloadEncoder.putIntCsi(buffer, raw[i * 2], raw[i * 2 + 1]);
+                }
+                buffer.flip();
+                buffer.get(); // type
+
+                CSIMatrix fused = new IntCSIInfo(buffer).getCsi();
+                CSIMatrix stepwise = stepwise(notification, raw);
+                for(int i = 0;i < entries;i++) {
+                    maxDifference = Math.max(maxDifference, Math.abs(fused.getReal()[i] - stepwise.getReal()[i]));
+                    maxDifference = Math.max(maxDifference, Math.abs(fused.getImag()[i] - stepwise.getImag()[i]));
+                }
+            }
+
+            int tolerance = ntx == 1 ? 8 : (int) (8 * (1 + IntCSIInfo.txScale(ntx)) + 0.5); // see IntCSIInfo.channelScale
+            System.out.printf("ntx %d: max difference %d, tolerance %d%n", ntx, maxDifference, tolerance);
+            assertTrue(maxDifference <= tolerance);
+        }
+    }
+
+    // the scaling as previously done by IntCSIInfo
+    private static CSIMatrix stepwise(IntCSINotification notification, double[] raw) {
+        CSIMatrix csi = new CSIMatrix(notification.getNrx(), notification.getNtx(), TONES);
+        double csi_pwr = 0;
+        for(int i = 0;i < raw.length / 2;i++) {
+            csi.getReal()[i] = (int) raw[i * 2];
+            csi.getImag()[i] = (int) raw[i * 2 + 1];
+            csi_pwr += Math.pow(csi.getReal()[i], 2) + Math.pow(csi.getImag()[i], 2);
+        }
+
+        double total_rss = 0.0;
+        if(notification.getRssi_a() != 0.0) total_rss += Util.dbinv(notification.getRssi_a());
+        if(notification.getRssi_b() != 0.0) total_rss += Util.dbinv(notification.getRssi_b());
+        if(notification.getRssi_c() != 0.0) total_rss += Util.dbinv(notification.getRssi_c());
+        total_rss = Util.db(total_rss) - 44 - notification.getAgc();
+        double rssi_pwr = Util.dbinv(total_rss);
+
+        double scale = rssi_pwr / (csi_pwr / TONES);
+        double noise_db = notification.getNoise() == -127 ? -92 : notification.getNoise();
+        double total_noise_pwr = Util.dbinv(noise_db) + scale * (notification.getNrx() * notification.getNtx());
+
+        csi.scale(Math.sqrt(scale / total_noise_pwr));
+        if(notification.getNtx() == 2) {
+            csi.scale(Math.sqrt(2));
+        }
+        if(notification.getNtx() == 3) {
+            csi.scale(Math.sqrt(Util.dbinv(4.5)));
+        }
+        csi.scale(16.0);
+        return csi;
+    }
+}
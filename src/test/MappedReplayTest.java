@@ -0,0 +1,134 @@
+package test;
+
+import de.putterer.indloc.Station;
+import de.putterer.indloc.csi.ReplayDataSource;
+import de.putterer.indloc.csi.atheros.AthCSIInfo;
+import de.putterer.indloc.data.DataInfo;
+import de.putterer.indloc.data.simulator.SyntheticSource;
+import de.putterer.indloc.util.FileUtils;
+import de.putterer.indloc.util.Logger;
+import de.putterer.indloc.util.serialization.MappedRecording;
+import de.putterer.indloc.util.serialization.RecordCodec;
+import de.putterer.indloc.util.serialization.RecordingIndex;
+import de.putterer.indloc.util.serialization.RecordingReader;
+import de.putterer.indloc.util.serialization.RecordingSegment;
+import de.putterer.indloc.util.serialization.RecordingWriter;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static test.ComplexTest.assertEquals;
+import static test.ComplexTest.assertTrue;
+
+// Replays two interleaved station recordings from memory mapped segments and their time index, compares opening them to reading them completely
+public class MappedReplayTest {
+
+    private static final int PACKETS = 20000;
+
+    public static void main(String[] args) throws Exception {
+        Logger.setLogLevel(Logger.Level.WARNING);
+        Path folder = Files.createTempDirectory("mapped-replay");
+        try {
+            List<DataInfo> packets = RecordingFormatTest.generate(SyntheticSource.Type.ATH, 100);
+            Station first = new Station("00:00:00:00:00:01", "10.0.0.1", AthCSIInfo.class, null, null);
+            Station second = new Station("00:00:00:00:00:02", "10.0.0.2", AthCSIInfo.class, null, null);
+            List<DataInfo> firstData = record(folder, first, packets, 0);
+            List<DataInfo> secondData = record(folder, second, packets, 5);
+
+            long start = System.nanoTime();
+            MappedRecording firstRecording = MappedRecording.open(folder, first.getHW_ADDRESS());
+            MappedRecording secondRecording = MappedRecording.open(folder, second.getHW_ADDRESS());
+            ReplayDataSource source = new ReplayDataSource(Arrays.asList(first, second), Arrays.asList(firstRecording, secondRecording));
+            double mappedMillis = (System.nanoTime() - start) / 1e6;
+
+            assertEquals(source.size(), 2 * PACKETS);
+            for(int i = 1;i < source.size();i++) {
+                assertTrue(source.getTimestamp(i - 1) <= source.getTimestamp(i));
+            }
+            for(int i = 0;i < source.size();i++) {
+                List<DataInfo> expected = source.getStation(i) == first ? firstData : secondData;
+                assertEquals(source.get(i), expected.get(i / 2));
+            }
+
+            assertEquals(source.indexOf(0), 0);
+            assertEquals(source.indexOf(1000 + 10L * PACKETS), source.size());
+            assertEquals(source.indexOf(1005), 1);
+            assertEquals(source.getStation(source.nearest(second, 1000)), second);
+            assertEquals(source.getTimestamp(source.nearest(second, 1000)), 1005L);
+            assertEquals(source.getTimestamp(source.nearest(first, 1006)), 1010L);
+            assertEquals(source.nearest(new Station("unknown", "", AthCSIInfo.class, null, null), 1000), -1);
+
+            start = System.nanoTime();
+            RecordingReader.read(folder, first.getHW_ADDRESS());
+            RecordingReader.read(folder, second.getHW_ADDRESS());
+            double readMillis = (System.nanoTime() - start) / 1e6;
+
+            Files.delete(RecordingIndex.getFile(folder, first.getHW_ADDRESS()));
+            start = System.nanoTime();
+            MappedRecording scanned = MappedRecording.open(folder, first.getHW_ADDRESS());
+            double scanMillis = (System.nanoTime() - start) / 1e6;
+            assertTrue(Files.exists(RecordingIndex.getFile(folder, first.getHW_ADDRESS())));
+            assertEquals(scanned.size(), PACKETS);
+            assertEquals(scanned.get(PACKETS - 1), firstData.get(PACKETS - 1));
+
+            start = System.nanoTime();
+            MappedRecording indexed = MappedRecording.open(folder, first.getHW_ADDRESS());
+            double indexedMillis = (System.nanoTime() - start) / 1e6;
+            assertEquals(indexed.size(), PACKETS);
+
+            System.out.printf("%d records: replay opened in %.1f ms, read completely in %.1f ms%n", source.size(), mappedMillis, readMillis);
+            System.out.printf("one station: %.1f ms using the time index, %.1f ms scanning the segments%n", indexedMillis, scanMillis);
+
+            outOfOrder(folder, packets);
+        } finally {
+            FileUtils.deleteRecursiveIfExists(folder);
+        }
+    }
+
+    // a clock jump during the recording and a segment extended after the index was written
+    private static void outOfOrder(Path folder, List<DataInfo> packets) throws Exception {
+        AthCSIInfo packet = (AthCSIInfo) packets.get(0);
+        long[] timestamps = {100, 200, 50, 300, 250};
+        try(RecordingWriter writer = new RecordingWriter(folder, "jump", RecordCodec.ATH)) {
+            for(int i = 0;i < timestamps.length;i++) {
+                writer.write(new AthCSIInfo(timestamps[i], i, packet.getCsi(), packet.getAtherosCsiStatus()));
+            }
+        }
+        RecordingIndex index = RecordingIndex.read(RecordingIndex.getFile(folder, "jump"));
+        assertEquals(index.size(), timestamps.length);
+        assertEquals(index.getTimestamp(0), 50L);
+        assertEquals(index.getTimestamp(4), 300L);
+        assertEquals(index.indexOf(201), 3);
+
+        MappedRecording recording = MappedRecording.open(folder, "jump");
+        assertEquals(recording.get(0).getMessageId(), 2);
+        assertEquals(recording.get(3).getMessageId(), 4);
+        for(int i = 0;i < recording.size();i++) {
+            assertEquals(recording.getMessageId(i), recording.get(i).getMessageId());
+        }
+
+        Path segment = RecordingSegment.list(folder, "jump").get(0);
+        Files.write(segment, new byte[] {1, 2, 3}, StandardOpenOption.APPEND);
+        assertTrue(! RecordingIndex.read(RecordingIndex.getFile(folder, "jump")).matches(RecordingSegment.list(folder, "jump")));
+        assertEquals(MappedRecording.open(folder, "jump").size(), timestamps.length);
+        assertTrue(RecordingIndex.read(RecordingIndex.getFile(folder, "jump")).matches(RecordingSegment.list(folder, "jump")));
+    }
+
+    // one packet every 10 ms, starting at 1000 + offset
+    private static List<DataInfo> record(Path folder, Station station, List<DataInfo> packets, int offset) throws Exception {
+        List<DataInfo> data = new ArrayList<>();
+        try(RecordingWriter writer = new RecordingWriter(folder, station.getHW_ADDRESS(), RecordCodec.ATH, 4 * 1024 * 1024, Long.MAX_VALUE)) {
+            for(int i = 0;i < PACKETS;i++) {
+                AthCSIInfo packet = (AthCSIInfo) packets.get(i % packets.size());
+                AthCSIInfo info = new AthCSIInfo(1000 + offset + 10L * i, i, packet.getCsi(), packet.getAtherosCsiStatus());
+                writer.append(info);
+                data.add(info);
+            }
+        }
+        return data;
+    }
+}
@@ -0,0 +1,115 @@
+package test;
+
+import de.putterer.indloc.util.PlaneKernels;
+import de.putterer.indloc.util.VectorPlaneKernels;
+
+import java.util.Random;
+
+// Compares the scalar and vectorized plane kernels on 3 x 3 x 114 csi frames and checks the error of the vectorized atan2 approximation
+// Run with --add-modules jdk.incubator.vector, otherwise only the scalar kernels are available
+// Usage: PlaneKernelBenchmark [frames] [rounds]
+public class PlaneKernelBenchmark {
+
+    private static final int ENTRIES = 3 * 3 * 114;
+    private static final int TONES = 114;
+
+    private static double sink = 0;
+
+    public static void main(String[] args) {
+        int frames = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+
+        PlaneKernels scalar = PlaneKernels.scalar();
+        PlaneKernels vector = PlaneKernels.vectorized();
+        if(vector == null) {
+            System.out.println("Vectorized kernels not available, add --add-modules jdk.incubator.vector");
+        } else {
+            checkAtan2Error(scalar, vector);
+        }
+
+        Random random = new Random(0);
+        int[][] real = new int[frames][ENTRIES];
+        int[][] imag = new int[frames][ENTRIES];
+        for(int f = 0;f < frames;f++) {
+            for(int i = 0;i < ENTRIES;i++) {
+                real[f][i] = random.nextInt(1024) - 512;
+                imag[f][i] = random.nextInt(1024) - 512;
+            }
+        }
+
+        for(int round = 0;round < rounds;round++) {
+            boolean print = round == rounds - 1; // earlier rounds warm up
+            double exact = run("Math.atan2 / sqrt", null, real, imag, print);
+            double scalarTime = run(scalar.getName(), scalar, real, imag, print);
+            if(vector != null) {
+                double vectorTime = run(vector.getName(), vector, real, imag, print);
+                if(print) {
+                    System.out.printf("speedup: %.2fx over scalar kernels, %.2fx over Math.atan2%n", scalarTime / vectorTime, exact / vectorTime);
+                }
+            }
+        }
+        System.out.println(sink == 42 ? "" : "done");
+    }
+
+    // returns nanoseconds per frame for amplitude plane, phase plane and one conjugate multiplication of two antenna pairs
+    private static double run(String name, PlaneKernels kernels, int[][] real, int[][] imag, boolean print) {
+        double[] amplitudes = new double[ENTRIES];
+        double[] phases = new double[ENTRIES];
+        double[] cmRe = new double[TONES];
+        double[] cmIm = new double[TONES];
+
+        long start = System.nanoTime();
+        for(int f = 0;f < real.length;f++) {
+            if(kernels == null) {
+                for(int i = 0;i < ENTRIES;i++) {
+                    amplitudes[i] = Math.sqrt(real[f][i] * real[f][i] + imag[f][i] * imag[f][i]);
+                    double angle = Math.atan2(imag[f][i], real[f][i]);
+                    phases[i] = angle < 0 ? angle + Math.PI * 2 : angle;
+                }
+                for(int i = 0;i < TONES;i++) {
+                    int a = i, b = 2 * 3 * TONES + i;
+                    cmRe[i] = real[f][a] * real[f][b] + imag[f][a] * imag[f][b];
+                    cmIm[i] = imag[f][a] * real[f][b] - real[f][a] * imag[f][b];
+                }
+            } else {
+                kernels.amplitudes(real[f], imag[f], 0, amplitudes, ENTRIES);
+                kernels.phases(real[f], imag[f], 0, phases, ENTRIES);
+                kernels.conjugateMultiply(real[f], imag[f], 0, real[f], imag[f], 2 * 3 * TONES, cmRe, cmIm, TONES);
+            }
+            sink += amplitudes[f % ENTRIES] + phases[f % ENTRIES] + cmRe[f % TONES];
+        }
+        double nanosPerFrame = (System.nanoTime() - start) / (double) real.length;
+
+        if(print) {
+            System.out.printf("%-24s %8.0f ns/frame%n", name, nanosPerFrame);
+        }
+        return nanosPerFrame;
+    }
+
+    private static void checkAtan2Error(PlaneKernels scalar, PlaneKernels vector) {
+        double maxError = 0;
+        for(int y = -600;y <= 600;y++) {
+            for(int x = -600;x <= 600;x++) {
+                maxError = Math.max(maxError, Math.abs(VectorPlaneKernels.fastAtan2(y, x) - Math.atan2(y, x)));
+            }
+        }
+
+        int[] re = new int[1201 * 1201], im = new int[re.length];
+        for(int i = 0;i < re.length;i++) {
+            re[i] = i % 1201 - 600;
+            im[i] = i / 1201 - 600;
+        }
+        double[] exact = new double[re.length], approximated = new double[re.length];
+        scalar.phases(re, im, 0, exact, re.length);
+        vector.phases(re, im, 0, approximated, re.length);
+        double maxPhaseError = 0;
+        for(int i = 0;i < re.length;i++) {
+            double error = Math.abs(exact[i] - approximated[i]);
+            maxPhaseError = Math.max(maxPhaseError, Math.min(error, Math.PI * 2 - error)); // 0 and 2pi are the same phase
+        }
+
+        System.out.printf("max atan2 error: %.2e rad, phase plane error: %.2e rad (bound %.0e), %s%n",
+                maxError, maxPhaseError, VectorPlaneKernels.ATAN_MAX_ERROR,
+                Math.max(maxError, maxPhaseError) <= VectorPlaneKernels.ATAN_MAX_ERROR ? "ok" : "EXCEEDED");
+    }
+}
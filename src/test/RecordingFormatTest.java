@@ -0,0 +1,154 @@
+package test;
+
+import de.putterer.indloc.csi.atheros.AthCSIInfo;
+import de.putterer.indloc.csi.calibration.AndroidInfo;
+import de.putterer.indloc.csi.esp.EspCSIInfo;
+import de.putterer.indloc.csi.intel.IntCSIInfo;
+import de.putterer.indloc.data.DataClient;
+import de.putterer.indloc.data.DataInfo;
+import de.putterer.indloc.data.ecg.EcgInfo;
+import de.putterer.indloc.data.simulator.SyntheticSource;
+import de.putterer.indloc.util.FileUtils;
+import de.putterer.indloc.util.Logger;
+import de.putterer.indloc.util.serialization.RecordCodec;
+import de.putterer.indloc.util.serialization.RecordingReader;
+import de.putterer.indloc.util.serialization.RecordingSegment;
+import de.putterer.indloc.util.serialization.RecordingWriter;
+import de.putterer.indloc.util.serialization.Serialization;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static test.ComplexTest.assertEquals;
+import static test.ComplexTest.assertTrue;
+
+// Writes all recordable types to segmented binary recordings, reads them back and compares the write cost to the per packet files
+public class RecordingFormatTest {
+
+    public static void main(String[] args) throws Exception {
+        Logger.setLogLevel(Logger.Level.WARNING);
+        Path folder = Files.createTempDirectory("recording");
+        try {
+            roundTrip(folder, RecordCodec.ATH, generate(SyntheticSource.Type.ATH, 500));
+            roundTrip(folder, RecordCodec.INT, generate(SyntheticSource.Type.INT, 500));
+            roundTrip(folder, RecordCodec.ESP, esp(200));
+
+            List<DataInfo> ecg = new ArrayList<>();
+            List<DataInfo> android = new ArrayList<>();
+            for(int i = 0;i < 1000;i++) {
+                ecg.add(new EcgInfo(1000 + i, i, i / 1000f));
+                android.add(new AndroidInfo(1000 + i, i, 5000 + i, new float[] {i, -i, 0.5f}, i % 2 == 0 ? null : new float[] {1, 2, 3}));
+            }
+            roundTrip(folder, RecordCodec.ECG, ecg);
+            roundTrip(folder, RecordCodec.ANDROID, android);
+
+            extremeValues();
+            truncatedTail(folder);
+            benchmark(folder, generate(SyntheticSource.Type.ATH, 1000));
+        } finally {
+            FileUtils.deleteRecursiveIfExists(folder);
+        }
+    }
+
+    private static void roundTrip(Path folder, RecordCodec codec, List<DataInfo> data) throws Exception {
+        String station = "station-" + codec;
+        try(RecordingWriter writer = new RecordingWriter(folder, station, codec, 64 * 1024, Long.MAX_VALUE)) {
+            for(DataInfo info : data) {
+                writer.write(info);
+            }
+            assertTrue(writer.getSegmentCount() > 1 || writer.getBytesWritten() < 64 * 1024);
+        }
+        assertEquals(Serialization.readRecording(folder, station), data);
+    }
+
+    private static void extremeValues() {
+        AthCSIInfo info = (AthCSIInfo) generate(SyntheticSource.Type.ATH, 1).get(0);
+        int[] real = info.getCsi().getReal();
+        int[] imag = info.getCsi().getImag();
+        real[0] = Integer.MIN_VALUE;
+        imag[0] = Integer.MAX_VALUE;
+        real[1] = Integer.MAX_VALUE;
+        imag[1] = Integer.MIN_VALUE;
+        real[2] = -1;
+
+        ByteBuffer buffer = ByteBuffer.allocate(RecordCodec.ATH.maxLength(info));
+        RecordCodec.ATH.encode(buffer, info);
+        buffer.flip();
+        assertEquals(RecordCodec.ATH.decode(buffer), info);
+        assertEquals(buffer.remaining(), 0);
+    }
+
+    private static void truncatedTail(Path folder) throws Exception {
+        List<DataInfo> data = generate(SyntheticSource.Type.ATH, 10);
+        try(RecordingWriter writer = new RecordingWriter(folder, "truncated", RecordCodec.ATH)) {
+            for(DataInfo info : data) {
+                writer.write(info);
+            }
+        }
+        Path segment = RecordingSegment.list(folder, "truncated").get(0);
+        try(FileChannel channel = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+            channel.truncate(channel.size() - 10);
+        }
+        assertEquals(RecordingReader.read(folder, "truncated"), data.subList(0, 9));
+    }
+
+    private static void benchmark(Path folder, List<DataInfo> data) throws Exception {
+        long start = System.nanoTime();
+        try(RecordingWriter writer = new RecordingWriter(folder, "benchmark", RecordCodec.ATH)) {
+            for(DataInfo info : data) {
+                writer.write(info);
+            }
+        }
+        double segmentMicros = (System.nanoTime() - start) / 1e3 / data.size();
+        long segmentBytes = Files.size(RecordingSegment.list(folder, "benchmark").get(0));
+
+        Path legacy = Files.createDirectory(folder.resolve("legacy"));
+        int legacyPackets = Math.min(100, data.size());
+        long legacyBytes = 0;
+        start = System.nanoTime();
+        for(int i = 0;i < legacyPackets;i++) {
+            Path file = legacy.resolve("benchmark-" + i + ".csi.deflate");
+            Serialization.save(file, data.get(i));
+        }
+        double legacyMicros = (System.nanoTime() - start) / 1e3 / legacyPackets;
+        for(int i = 0;i < legacyPackets;i++) {
+            legacyBytes += Files.size(legacy.resolve("benchmark-" + i + ".csi.deflate"));
+        }
+
+        System.out.printf("segments: %.1f us/packet, %d bytes/packet%n", segmentMicros, segmentBytes / data.size());
+        System.out.printf("per packet files: %.1f us/packet, %d bytes/packet%n", legacyMicros, legacyBytes / legacyPackets);
+    }
+
+    static List<DataInfo> generate(SyntheticSource.Type type, int count) {
+        SyntheticSource source = new SyntheticSource(type, 100, 15, 0);
+        List<DataInfo> data = new ArrayList<>();
+        ByteBuffer buffer = ByteBuffer.allocate(DataClient.MAX_MESSAGE_LENGTH);
+        for(int i = 0;i < count;i++) {
+            buffer.clear();
+            source.write(buffer);
+            buffer.flip();
+            buffer.get();
+            data.add(type == SyntheticSource.Type.ATH ? new AthCSIInfo(buffer) : new IntCSIInfo(buffer));
+        }
+        return data;
+    }
+
+    private static List<DataInfo> esp(int count) {
+        Random random = new Random(0);
+        List<DataInfo> data = new ArrayList<>();
+        for(int i = 0;i < count;i++) {
+            byte[] csi = new byte[256];
+            random.nextBytes(csi);
+            data.add(new EspCSIInfo(1000 + i, i, "01:02:03:04:05:06", csi.length, false, -40 - i % 30, 7,
+                    EspCSIInfo.ChannelBandwidth.BW_20MHZ, false, EspCSIInfo.GuardInterval.SHORT_GI, (byte) 6,
+                    EspCSIInfo.SecondaryChannel.NONE, random.nextInt(Integer.MAX_VALUE), (byte) 0, csi));
+        }
+        return data;
+    }
+}
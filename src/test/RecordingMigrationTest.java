@@ -0,0 +1,93 @@
+package test;
+
+import de.putterer.indloc.csi.CSIReplay;
+import de.putterer.indloc.data.DataInfo;
+import de.putterer.indloc.data.SequenceTracker;
+import de.putterer.indloc.data.ecg.EcgInfo;
+import de.putterer.indloc.data.simulator.SyntheticSource;
+import de.putterer.indloc.util.FileUtils;
+import de.putterer.indloc.util.Logger;
+import de.putterer.indloc.util.serialization.RecordingReader;
+import de.putterer.indloc.util.serialization.Serialization;
+import de.putterer.indloc.util.toolbox.RecordingMigration;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import static test.ComplexTest.assertEquals;
+import static test.ComplexTest.assertTrue;
+
+// Converts two directories of per packet files and checks the merged, time ordered binary recordings
+public class RecordingMigrationTest {
+
+    public static void main(String[] args) throws Exception {
+        Logger.setLogLevel(Logger.Level.ERROR);
+        Path folder = Files.createTempDirectory("migration");
+        try {
+            Path input = folder.resolve("archive");
+            Path first = Files.createDirectories(input.resolve("day1").resolve("csi-recording"));
+            Path second = Files.createDirectories(input.resolve("day2"));
+
+            List<DataInfo> csi = RecordingFormatTest.generate(SyntheticSource.Type.ATH, 300);
+            List<DataInfo> ecg = new ArrayList<>();
+            for(int i = 0;i < 300;i++) {
+                ecg.add(new EcgInfo(2000 + i, i, i / 300f));
+            }
+            writePerPacket(first, "00:11:22:33:44:55", ".csi.deflate", csi);
+            writePerPacket(second, "_192.168.0.5", ".ecg", ecg);
+            Files.write(first.resolve("notes.txt"), "not a recording".getBytes(StandardCharsets.UTF_8));
+            Files.write(first.resolve("00:11:22:33:44:55-9999.csi.deflate"), new byte[] {1, 2, 3});
+
+            Path output = folder.resolve("converted");
+            long start = System.nanoTime();
+            RecordingMigration migration = new RecordingMigration(4);
+            migration.convertAll(input, output);
+            migration.shutdown();
+            double seconds = (System.nanoTime() - start) / 1e9;
+
+            assertEquals(migration.getRecordings(), 2L);
+            assertEquals(migration.getConvertedFiles(), 600L);
+            assertEquals(migration.getRecords(), 600L);
+            assertEquals(migration.getCopiedFiles(), 2L); // the notes and the corrupt file
+            assertEquals(migration.getFailures(), 0L);
+
+            Path firstOutput = output.resolve("day1").resolve("csi-recording");
+            List<DataInfo> convertedCsi = RecordingReader.read(firstOutput, "00:11:22:33:44:55");
+            for(int i = 1;i < convertedCsi.size();i++) {
+                assertTrue(convertedCsi.get(i - 1).getClientTimestamp() <= convertedCsi.get(i).getClientTimestamp());
+            }
+            Comparator<DataInfo> order = Comparator.comparingLong(DataInfo::getClientTimestamp).thenComparingInt(DataInfo::getMessageId);
+            List<DataInfo> sortedCsi = new ArrayList<>(csi);
+            sortedCsi.sort(order);
+            convertedCsi.sort(order);
+            assertEquals(convertedCsi, sortedCsi);
+            assertEquals(RecordingReader.read(output.resolve("day2"), "_192.168.0.5"), ecg);
+            SequenceTracker.Statistics statistics = Serialization.deserialize(
+                    CSIReplay.getSequenceStatisticsFile(firstOutput, "00:11:22:33:44:55"), SequenceTracker.Statistics.class);
+            assertEquals(statistics.getReceivedPackets() + statistics.getDuplicatePackets(), (long) csi.size());
+            assertTrue(Files.exists(CSIReplay.getSequenceStatisticsFile(output.resolve("day2"), "_192.168.0.5")));
+            assertTrue(Files.exists(firstOutput.resolve("notes.txt")));
+            assertTrue(Files.exists(firstOutput.resolve("00:11:22:33:44:55-9999.csi.deflate")));
+
+            System.out.printf("%.0f files/s, compression ratio %.2f%n", migration.getConvertedFiles() / seconds,
+                    (double) migration.getInputBytes() / migration.getOutputBytes());
+        } finally {
+            FileUtils.deleteRecursiveIfExists(folder);
+        }
+    }
+
+    // one file per packet in random order, like the files listed by the old recorder
+    private static void writePerPacket(Path folder, String prefix, String extension, List<DataInfo> data) throws Exception {
+        List<DataInfo> shuffled = new ArrayList<>(data);
+        Collections.shuffle(shuffled, new Random(0));
+        for(int i = 0;i < shuffled.size();i++) {
+            Serialization.serialize(folder.resolve(prefix + "-" + i + extension), extension.endsWith(".deflate"), new DataInfo[] {shuffled.get(i)});
+        }
+    }
+}
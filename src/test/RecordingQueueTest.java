@@ -0,0 +1,108 @@
+package test;
+
+import de.putterer.indloc.data.DataInfo;
+import de.putterer.indloc.data.simulator.SyntheticSource;
+import de.putterer.indloc.util.FileUtils;
+import de.putterer.indloc.util.Logger;
+import de.putterer.indloc.util.serialization.RecordCodec;
+import de.putterer.indloc.util.serialization.RecordingIndex;
+import de.putterer.indloc.util.serialization.RecordingQueue;
+import de.putterer.indloc.util.serialization.RecordingReader;
+import de.putterer.indloc.util.serialization.RecordingWriter;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static test.ComplexTest.assertEquals;
+import static test.ComplexTest.assertTrue;
+
+// Records from several producer threads through the recording queue and checks that every record is written in order
+public class RecordingQueueTest {
+
+    private static final int STATIONS = 4;
+    private static final int PACKETS = 5000;
+
+    public static void main(String[] args) throws Exception {
+        Logger.setLogLevel(Logger.Level.WARNING);
+        Path folder = Files.createTempDirectory("recording-queue");
+        try {
+            groupCommit(folder);
+            overflow(folder);
+        } finally {
+            FileUtils.deleteRecursiveIfExists(folder);
+        }
+    }
+
+    private static void groupCommit(Path folder) throws Exception {
+        List<DataInfo> data = RecordingFormatTest.generate(SyntheticSource.Type.ATH, PACKETS);
+        RecordingQueue queue = new RecordingQueue(2 * STATIONS * PACKETS, 100);
+        List<RecordingQueue.Recording> recordings = new ArrayList<>();
+        List<Thread> producers = new ArrayList<>();
+        long[] maxOfferNanos = new long[STATIONS];
+
+        for(int s = 0;s < STATIONS;s++) {
+            String name = "station-" + s;
+            RecordingQueue.Recording recording = queue.open(name, RecordCodec.ATH,
+                    () -> new RecordingWriter(folder, name, RecordCodec.ATH, 1024 * 1024, Long.MAX_VALUE));
+            recordings.add(recording);
+            int station = s;
+            producers.add(new Thread(() -> {
+                for(DataInfo info : data) {
+                    long start = System.nanoTime();
+                    assertTrue(queue.offer(recording, info));
+                    maxOfferNanos[station] = Math.max(maxOfferNanos[station], System.nanoTime() - start);
+                }
+            }));
+        }
+
+        long start = System.nanoTime();
+        producers.forEach(Thread::start);
+        for(Thread producer : producers) {
+            producer.join();
+        }
+        double offerMillis = (System.nanoTime() - start) / 1e6;
+        recordings.forEach(queue::close);
+        queue.shutdown(60_000);
+        double totalMillis = (System.nanoTime() - start) / 1e6;
+
+        assertEquals(queue.getWrittenRecords(), (long) STATIONS * PACKETS);
+        assertEquals(queue.getDroppedRecords(), 0L);
+        assertEquals(queue.getWriteErrors(), 0L);
+        assertEquals(queue.getQueuedRecords(), 0);
+        assertEquals(queue.getQueuedBytes(), 0L);
+        for(RecordingQueue.Recording recording : recordings) {
+            assertTrue(recording.getWriter().getSegmentCount() > 1);
+            assertEquals(RecordingReader.read(folder, recording.getStation()), data);
+            assertTrue(Files.exists(RecordingIndex.getFile(folder, recording.getStation())));
+        }
+
+        long maxOffer = 0;
+        for(long nanos : maxOfferNanos) {
+            maxOffer = Math.max(maxOffer, nanos);
+        }
+        System.out.printf("%d records queued in %.1f ms (max offer %.1f us), written after %.1f ms, latency avg %.1f us, max %.1f us%n",
+                STATIONS * PACKETS, offerMillis, maxOffer / 1e3, totalMillis, queue.getAverageWriteLatencyMicros(), queue.getMaxWriteLatencyMicros());
+    }
+
+    private static void overflow(Path folder) throws Exception {
+        List<DataInfo> data = RecordingFormatTest.generate(SyntheticSource.Type.ATH, 1000);
+        RecordingQueue queue = new RecordingQueue(16, 100);
+        RecordingQueue.Recording recording = queue.open(folder, "overflow", RecordCodec.ATH);
+        int accepted = 0;
+        for(DataInfo info : data) {
+            if(queue.offer(recording, info)) {
+                accepted++;
+            }
+        }
+        queue.close(recording);
+        assertTrue(! queue.offer(recording, data.get(0))); // closed, dropped instead of failing in the writer
+        queue.shutdown(60_000);
+
+        assertEquals(accepted + queue.getDroppedRecords(), (long) data.size() + 1);
+        assertEquals(queue.getWriteErrors(), 0L);
+        assertEquals(queue.getWrittenRecords(), (long) accepted);
+        assertEquals(RecordingReader.read(folder, "overflow").size(), accepted);
+    }
+}
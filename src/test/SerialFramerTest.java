@@ -0,0 +1,71 @@
+package test;
+
+import de.putterer.indloc.data.serial.SerialFramer;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static test.ComplexTest.assertEquals;
+import static test.ComplexTest.assertTrue;
+
+// Feeds delimited lines to SerialFramer in random chunks and measures its throughput
+public class SerialFramerTest {
+
+    public static void main(String[] args) throws Exception {
+        Random random = new Random(0);
+        List<String> lines = new ArrayList<>();
+        StringBuilder stream = new StringBuilder();
+        for(int i = 0;i < 1000;i++) {
+            String line = Integer.toString(random.nextInt(4096));
+            lines.add(line);
+            stream.append(line).append("\r\n");
+        }
+        stream.append("x".repeat(100)).append("\r\n"); // longer than the buffer, dropped
+        stream.append("\r\n");
+        stream.append("last\r");
+
+        byte[] bytes = stream.toString().getBytes(StandardCharsets.US_ASCII);
+        List<String> frames = new ArrayList<>();
+        SerialFramer framer = new SerialFramer(SerialFramer.CRLF, 64,
+                frame -> frames.add(StandardCharsets.US_ASCII.decode(frame).toString()));
+        int[] position = {0};
+        while(framer.read((buffer, offset, length) -> {
+            int read = Math.min(Math.min(length, 1 + random.nextInt(20)), bytes.length - position[0]);
+            if(read == 0) {
+                return -1;
+            }
+            System.arraycopy(bytes, position[0], buffer, offset, read);
+            position[0] += read;
+            return read;
+        }) >= 0);
+
+        lines.add("");
+        assertEquals(frames, lines);
+        assertEquals(framer.getOversizedFrames(), 1L);
+        assertEquals(framer.getBytesRead(), (long) bytes.length);
+
+        // custom delimiter
+        frames.clear();
+        SerialFramer semicolons = new SerialFramer(new byte[] {';'}, 16, frame -> frames.add(StandardCharsets.US_ASCII.decode(frame).toString()));
+        byte[] data = "a;bb;;c".getBytes(StandardCharsets.US_ASCII);
+        semicolons.feed(data, 0, data.length);
+        assertEquals(frames, List.of("a", "bb", ""));
+
+        benchmark(bytes);
+    }
+
+    private static void benchmark(byte[] bytes) {
+        long[] sum = new long[1];
+        SerialFramer framer = new SerialFramer(SerialFramer.CRLF, 16 * 1024, frame -> sum[0] += frame.remaining());
+        int rounds = 5000;
+        long start = System.nanoTime();
+        for(int round = 0;round < rounds;round++) {
+            framer.feed(bytes, 0, bytes.length);
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        assertTrue(sum[0] > 0);
+        System.out.printf("framer: %.1f MB/s, %.0f frames/s%n", framer.getBytesRead() / seconds / 1e6, framer.getFramesRead() / seconds);
+    }
+}
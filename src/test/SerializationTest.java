@@ -0,0 +1,60 @@
+package test;
+
+import de.putterer.indloc.data.DataInfo;
+import de.putterer.indloc.data.simulator.SyntheticSource;
+import de.putterer.indloc.util.FileUtils;
+import de.putterer.indloc.util.Logger;
+import de.putterer.indloc.util.serialization.Serialization;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.Deflater;
+
+import static test.ComplexTest.assertEquals;
+import static test.ComplexTest.assertTrue;
+
+// Serializes payloads larger than the former fixed 64 KB buffers and reads files written by the one shot compressor
+public class SerializationTest {
+
+    public static void main(String[] args) throws Exception {
+        Logger.setLogLevel(Logger.Level.WARNING);
+        Path folder = Files.createTempDirectory("serialization");
+        try {
+            List<DataInfo> data = RecordingFormatTest.generate(SyntheticSource.Type.ATH, 500);
+            DataInfo[] array = data.toArray(new DataInfo[0]);
+
+            Path compressed = folder.resolve("large.csi.deflate");
+            Serialization.serialize(compressed, true, array);
+            assertTrue(Files.size(compressed) > 64000);
+            assertEquals(Arrays.asList(Serialization.deserialize(compressed, DataInfo[].class)), data);
+
+            Path plain = folder.resolve("large.csi");
+            Serialization.serialize(plain, false, array);
+            assertEquals(Arrays.asList(Serialization.deserialize(plain, DataInfo[].class)), data);
+
+            Path legacy = folder.resolve("legacy.csi.deflate");
+            Serialization.serialize(folder.resolve("legacy.csi"), false, new DataInfo[] {data.get(0)});
+            byte[] json = Files.readAllBytes(folder.resolve("legacy.csi"));
+            byte[] deflated = new byte[64000];
+            Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+            deflater.setInput(json);
+            deflater.finish();
+            Files.write(legacy, Arrays.copyOf(deflated, deflater.deflate(deflated)));
+            deflater.end();
+            assertEquals(Arrays.asList(Serialization.deserialize(legacy, DataInfo[].class)), data.subList(0, 1));
+
+            Path corrupt = folder.resolve("corrupt.csi.deflate");
+            Files.write(corrupt, "not compressed".getBytes(StandardCharsets.UTF_8));
+            try {
+                Serialization.deserialize(corrupt, DataInfo[].class);
+                assertTrue(false);
+            } catch(IOException expected) { }
+        } finally {
+            FileUtils.deleteRecursiveIfExists(folder);
+        }
+    }
+}
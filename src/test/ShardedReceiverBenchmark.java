@@ -0,0 +1,91 @@
+package test;
+
+import de.putterer.indloc.Station;
+import de.putterer.indloc.csi.atheros.AthCSIInfo;
+import de.putterer.indloc.data.BufferPool;
+import de.putterer.indloc.data.DataClient;
+import de.putterer.indloc.data.DataReceiver;
+import de.putterer.indloc.util.Logger;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.concurrent.atomic.LongAdder;
+
+// Measures the receive throughput for different shard counts, stations are simulated on 127.0.0.x
+// Usage: ShardedReceiverBenchmark [stations] [seconds]
+public class ShardedReceiverBenchmark {
+
+    private static final int BASE_PORT = 19381;
+    private static final int[] SHARD_COUNTS = {1, 2, 4};
+
+    public static void main(String[] args) throws Exception {
+        int stations = args.length > 0 ? Integer.parseInt(args[0]) : 8;
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+        Logger.setLogLevel(Logger.Level.INFO);
+
+        for(DataReceiver.ShardingMode shardingMode : DataReceiver.ShardingMode.values()) {
+            for(int shards : SHARD_COUNTS) {
+                run(stations, seconds, shards, shardingMode);
+            }
+        }
+        System.exit(0);
+    }
+
+    private static void run(int stations, int seconds, int shards, DataReceiver.ShardingMode shardingMode) throws Exception {
+        DataReceiver receiver = new DataReceiver(BASE_PORT, DataReceiver.ReceiveMode.BATCH, 64, shards, shardingMode);
+        LongAdder received = new LongAdder();
+        for(int i = 0;i < stations;i++) {
+            receiver.register(new CountingClient(stationAddress(i), received));
+        }
+        receiver.start();
+
+        Thread[] senders = new Thread[stations];
+        long end = System.nanoTime() + seconds * 1_000_000_000L;
+        for(int i = 0;i < stations;i++) {
+            InetAddress address = InetAddress.getByName(stationAddress(i));
+            InetSocketAddress target = new InetSocketAddress(InetAddress.getLoopbackAddress(), receiver.getShardPort(address));
+            senders[i] = new Thread(() -> {
+                try(DatagramChannel channel = DatagramChannel.open()) {
+                    channel.bind(new InetSocketAddress(address, 0));
+                    ByteBuffer packet = ByteBuffer.allocate(1024);
+                    while(System.nanoTime() < end) {
+                        packet.clear();
+                        channel.send(packet, target);
+                    }
+                } catch(Exception e) {
+                    e.printStackTrace();
+                }
+            });
+            senders[i].start();
+        }
+        for(Thread sender : senders) {
+            sender.join();
+        }
+        Thread.sleep(200); // let the receivers drain
+
+        receiver.close();
+        System.out.printf("%-14s shards: %d, stations: %d, received: %d, %.0f pkts/s, unknown source: %d, dropped: %d%n",
+                shardingMode, shards, stations, received.sum(), received.sum() / (double) seconds, receiver.getUnknownSourcePackets(), receiver.getPacketsDropped());
+        Thread.sleep(200); // let the channels close before rebinding the ports
+    }
+
+    private static String stationAddress(int index) {
+        return "127.0.0." + (index + 2);
+    }
+
+    private static class CountingClient extends DataClient {
+        private final LongAdder received;
+
+        public CountingClient(String address, LongAdder received) {
+            super(new Station("00:00:00:00:00:00", address, AthCSIInfo.class, null, null));
+            this.received = received;
+        }
+
+        @Override
+        protected void onDatagram(BufferPool.Lease lease) {
+            received.increment();
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package test;
+
+import de.putterer.indloc.Station;
+import de.putterer.indloc.csi.atheros.AthCSIInfo;
+import de.putterer.indloc.data.DataClient;
+import de.putterer.indloc.data.DataConsumer;
+import de.putterer.indloc.data.simulator.CsiServerSimulator;
+import de.putterer.indloc.data.simulator.SyntheticSource;
+import de.putterer.indloc.util.Logger;
+
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+// Measures the sustainable packet rate and the latency from sending to the consumer using the csi-server simulator
+// Usage: SimulatorLoadBenchmark [stations] [seconds per step] [simulator threads]
+public class SimulatorLoadBenchmark {
+
+    private static final double[] RATES = {100, 500, 1000, 2000, 5000, 10000}; // per station
+    private static final int MAX_SAMPLES = 1_000_000;
+
+    private static final LongAdder received = new LongAdder();
+    private static final long[] latencies = new long[MAX_SAMPLES];
+    private static final AtomicInteger latencyCount = new AtomicInteger();
+
+    public static void main(String[] args) throws Exception {
+        int stationCount = args.length > 0 ? Integer.parseInt(args[0]) : 4;
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+        int threads = args.length > 2 ? Integer.parseInt(args[2]) : 2;
+        Logger.setLogLevel(Logger.Level.WARNING);
+
+        CsiServerSimulator simulator = new CsiServerSimulator(threads);
+        List<SyntheticSource> sources = new ArrayList<>();
+        for(int i = 0;i < stationCount;i++) {
+            SyntheticSource source = new SyntheticSource(SyntheticSource.Type.ATH, RATES[0], 15, i);
+            sources.add(source);
+            simulator.addStation(source);
+        }
+        simulator.start();
+
+        for(int i = 0;i < stationCount;i++) {
+            Station station = new Station("sim-" + i, CsiServerSimulator.getStationAddress(i).getHostAddress(), AthCSIInfo.class, null, null);
+            DataClient.addClient(new DataClient(station, new DataConsumer<>(AthCSIInfo.class, SimulatorLoadBenchmark::onCsi)));
+        }
+        while(DataClient.getClients().stream().anyMatch(c -> ! c.isConnected())) {
+            Thread.sleep(100);
+        }
+
+        double sustainable = 0;
+        for(double rate : RATES) {
+            sources.forEach(s -> s.setRate(rate));
+            Thread.sleep(500); // settle at the new rate
+
+            long sentBefore = simulator.getPacketsSent();
+            long lostBefore = lostPackets();
+            received.reset();
+            latencyCount.set(0);
+
+            Thread.sleep(seconds * 1000L);
+
+            long sent = simulator.getPacketsSent() - sentBefore;
+            long lost = lostPackets() - lostBefore;
+            long[] sorted = Arrays.copyOf(latencies, Math.min(latencyCount.get(), MAX_SAMPLES));
+            Arrays.sort(sorted);
+            double delivered = sent == 0 ? 0 : (double) received.sum() / sent;
+            boolean simulatorLimited = sent < rate * stationCount * seconds * 0.95;
+            System.out.printf("rate %6.0f/station: sent %8.0f pkts/s, received %8.0f pkts/s (%5.1f%%), lost %d, latency p50 %d us, p99 %d us%s%n",
+                    rate, sent / (double) seconds, received.sum() / (double) seconds, delivered * 100, lost,
+                    percentile(sorted, 0.5), percentile(sorted, 0.99), simulatorLimited ? " (limited by the simulator)" : "");
+            if(delivered >= 0.99) {
+                sustainable = Math.max(sustainable, received.sum() / (double) seconds);
+            }
+        }
+        System.out.printf("max sustainable rate: %.0f pkts/s with %d stations%n", sustainable, stationCount);
+
+        simulator.stop();
+        System.exit(0);
+    }
+
+    private static void onCsi(AthCSIInfo info) {
+        long now = ChronoUnit.MICROS.between(Instant.EPOCH, Instant.now());
+        received.increment();
+        int index = latencyCount.getAndIncrement();
+        if(index < MAX_SAMPLES) {
+            latencies[index] = now - info.getAtherosCsiStatus().getTstamp();
+        }
+    }
+
+    private static long lostPackets() {
+        return DataClient.getClients().stream().mapToLong(c -> c.getSequenceTracker().getStatistics().getLostPackets()).sum();
+    }
+
+    private static long percentile(long[] sorted, double p) {
+        return sorted.length == 0 ? 0 : sorted[(int) Math.min(sorted.length - 1, sorted.length * p)];
+    }
+}